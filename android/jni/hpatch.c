@@ -3,6 +3,11 @@
 #include "hpatch.h"
 #include "HDiffPatch/libHDiffPatch/HPatch/patch.h"
 #include "HDiffPatch/file_for_patch.h"
+#include <errno.h>
+#include <fcntl.h>
+#include <string.h>
+#include <sys/stat.h>
+#include <unistd.h>
 
 //#define _CompressPlugin_zlib
 //#define _CompressPlugin_bz2
@@ -133,11 +138,20 @@ _clear:
     return result;
 }
 
+// 按 patch 头自动分派格式:single(HDIFFSF20,现状)或 stream(HDIFF13,
+// v2 轨道大 bundle)。老客户端只会收到 single;能力门控在服务端。
+static int hpatch_dispatch(const hpatch_TStreamInput* old,const hpatch_TStreamInput* pat,
+                           hpatch_TStreamOutput* out_new){
+    hpatch_singleCompressedDiffInfo singleInfo;
+    if (getSingleCompressedDiffInfo(&singleInfo,pat,0))
+        return hpatch_by_stream(old,hpatch_TRUE,pat,out_new,&singleInfo);
+    return hpatch_v13_by_stream(old,hpatch_TRUE,pat,out_new);
+}
+
 int hpatch_by_file(const char* oldfile, const char* newfile, const char* patchfile){
     int     result=kHPatch_ok;
     int     _isInClear=hpatch_FALSE;
     int     patch_result;
-    hpatch_singleCompressedDiffInfo singleInfo;
     hpatch_TFileStreamInput oldStream;
     hpatch_TFileStreamInput patStream;
     hpatch_TFileStreamOutput newStream;
@@ -149,13 +163,7 @@ int hpatch_by_file(const char* oldfile, const char* newfile, const char* patchfi
     _check(hpatch_TFileStreamInput_open(&patStream,patchfile),kHPatch_error_pat_fopen);
     _check(hpatch_TFileStreamOutput_open(&newStream,newfile,~(hpatch_StreamPos_t)0),kHPatch_error_new_fopen);
 
-    // 按 patch 头自动分派格式:single(HDIFFSF20,现状)或 stream(HDIFF13,
-    // v2 轨道大 bundle)。老客户端只会收到 single;能力门控在服务端。
-    if (getSingleCompressedDiffInfo(&singleInfo,&patStream.base,0)){
-        patch_result=hpatch_by_stream(&oldStream.base,hpatch_TRUE,&patStream.base,&newStream.base,&singleInfo);
-    }else{
-        patch_result=hpatch_v13_by_stream(&oldStream.base,hpatch_TRUE,&patStream.base,&newStream.base);
-    }
+    patch_result=hpatch_dispatch(&oldStream.base,&patStream.base,&newStream.base);
     if (patch_result!=kHPatch_ok){
         _check(!oldStream.fileError,kHPatch_error_old_fread);
         _check(!patStream.fileError,kHPatch_error_pat_fread);
@@ -170,3 +178,100 @@ _clear:
     _check(hpatch_TFileStreamOutput_close(&newStream),kHPatch_error_new_fclose);
     return result;
 }
+
+// 文件中 [offset, offset+streamSize) 一段的只读流;pread 不移动共享的
+// 文件偏移,调用方传入的描述符(AssetFileDescriptor)可安全复用。
+typedef struct{
+    hpatch_TStreamInput base;
+    int                 fd;
+    hpatch_BOOL         ownsFd;
+    hpatch_StreamPos_t  offset;
+    hpatch_BOOL         fileError;
+} hpatch_TRangeStreamInput;
+
+static hpatch_BOOL _range_read(const hpatch_TStreamInput* stream,hpatch_StreamPos_t readFromPos,
+                               unsigned char* out_data,unsigned char* out_data_end){
+    hpatch_TRangeStreamInput* self=(hpatch_TRangeStreamInput*)stream->streamImport;
+    if ((readFromPos>stream->streamSize)
+        ||((hpatch_StreamPos_t)(out_data_end-out_data)>stream->streamSize-readFromPos)){
+        self->fileError=hpatch_TRUE;
+        return hpatch_FALSE;
+    }
+    while (out_data<out_data_end){
+        ssize_t n=pread(self->fd,out_data,(size_t)(out_data_end-out_data),
+                        (off_t)(self->offset+readFromPos));
+        if ((n<0)&&(errno==EINTR)) continue;
+        if (n<=0){
+            self->fileError=hpatch_TRUE;
+            return hpatch_FALSE;
+        }
+        out_data+=n;
+        readFromPos+=(hpatch_StreamPos_t)n;
+    }
+    return hpatch_TRUE;
+}
+
+static void _range_init(hpatch_TRangeStreamInput* self){
+    memset(self,0,sizeof(*self));
+    self->fd=-1;
+}
+
+static hpatch_BOOL _range_open(hpatch_TRangeStreamInput* self,const char* path,int fd,
+                               int64_t offset,int64_t length){
+    struct stat st;
+    if (fd<0){
+        fd=open(path,O_RDONLY|O_CLOEXEC);
+        if (fd<0) return hpatch_FALSE;
+        self->ownsFd=hpatch_TRUE;
+    }
+    self->fd=fd;
+    if ((offset<0)||(fstat(fd,&st)!=0)||(offset>(int64_t)st.st_size)) return hpatch_FALSE;
+    if (length<0) length=(int64_t)st.st_size-offset;
+    if (length>(int64_t)st.st_size-offset) return hpatch_FALSE;
+    self->offset=(hpatch_StreamPos_t)offset;
+    self->base.streamImport=self;
+    self->base.streamSize=(hpatch_StreamPos_t)length;
+    self->base.read=_range_read;
+    return hpatch_TRUE;
+}
+
+static hpatch_BOOL _range_close(hpatch_TRangeStreamInput* self){
+    int fd=self->fd;
+    hpatch_BOOL owned=self->ownsFd;
+    self->fd=-1;
+    self->ownsFd=hpatch_FALSE;
+    return (!owned)||(fd<0)||(close(fd)==0);
+}
+
+int hpatch_by_file_ranges(const char* oldfile, int old_fd, int64_t old_offset, int64_t old_length,
+                          const char* newfile,
+                          const char* patchfile, int64_t pat_offset, int64_t pat_length){
+    int     result=kHPatch_ok;
+    int     _isInClear=hpatch_FALSE;
+    int     patch_result;
+    hpatch_TRangeStreamInput oldStream;
+    hpatch_TRangeStreamInput patStream;
+    hpatch_TFileStreamOutput newStream;
+    _range_init(&oldStream);
+    _range_init(&patStream);
+    hpatch_TFileStreamOutput_init(&newStream);
+
+    _check(_range_open(&oldStream,oldfile,old_fd,old_offset,old_length),kHPatch_error_old_fopen);
+    _check(_range_open(&patStream,patchfile,-1,pat_offset,pat_length),kHPatch_error_pat_fopen);
+    _check(hpatch_TFileStreamOutput_open(&newStream,newfile,~(hpatch_StreamPos_t)0),kHPatch_error_new_fopen);
+
+    patch_result=hpatch_dispatch(&oldStream.base,&patStream.base,&newStream.base);
+    if (patch_result!=kHPatch_ok){
+        _check(!oldStream.fileError,kHPatch_error_old_fread);
+        _check(!patStream.fileError,kHPatch_error_pat_fread);
+        _check(!newStream.fileError,kHPatch_error_new_fwrite);
+        _check(hpatch_FALSE,patch_result);
+    }
+
+_clear:
+    _isInClear=hpatch_TRUE;
+    _check(_range_close(&oldStream),kHPatch_error_old_fclose);
+    _check(_range_close(&patStream),kHPatch_error_pat_fclose);
+    _check(hpatch_TFileStreamOutput_close(&newStream),kHPatch_error_new_fclose);
+    return result;
+}
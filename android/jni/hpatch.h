@@ -32,6 +32,13 @@ enum {
 
 int hpatch_by_file(const char* oldfile, const char* newfile, const char* patchfile);
 
+// 同 hpatch_by_file,但 old / patch 是更大文件中的一段(.ppk 里 STORED 的
+// patch 条目、APK 里未压缩的 asset),用 pread 原地读取,不落临时文件。
+// old_fd>=0 时经该描述符(调用方持有)读取,忽略 oldfile;length<0 表示到文件尾。
+int hpatch_by_file_ranges(const char* oldfile, int old_fd, int64_t old_offset, int64_t old_length,
+                          const char* newfile,
+                          const char* patchfile, int64_t pat_offset, int64_t pat_length);
+
 #ifdef __cplusplus
 }
 #endif
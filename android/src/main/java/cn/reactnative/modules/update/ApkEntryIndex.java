@@ -0,0 +1,591 @@
+package cn.reactnative.modules.update;
+
+import android.os.SystemClock;
+import android.util.Log;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Every entry of installed archives — name, normalized name, CRC32, local
+ * header offset, sizes, method and source archive — as one flat table in
+ * archive order; InstalledApkIndex keeps one per archive of the APK and its
+ * splits. It is built from the central directories once per install and
+ * kept in the code cache, keyed by "<versionName>|<lastUpdateTime>" like the
+ * bundle hash cache. Later patches map that file instead of opening and
+ * enumerating the archives.
+ *
+ * Lookups are open-addressing tables from a 64-bit key (CRC32, name hash,
+ * normalized-name hash) to a position in the table: no boxed key or value,
+ * and a loaded index decodes an entry's name only when a lookup has to
+ * compare it.
+ *
+ * Entries are extracted straight from their local header offset, so no
+ * archive is opened as a ZipFile unless its directory could not be indexed.
+ * The index itself holds no handle: extraction goes through a Reader.
+ */
+final class ApkEntryIndex {
+    private static final String AAB_BASE_PREFIX = "base/";
+
+    private static final int MAGIC = 0x50414958; // "PAIX"
+    private static final int FORMAT_VERSION = 3;
+    // The CRC32 of everything before it, as a long.
+    private static final int TRAILER_BYTES = 8;
+    private static final int RECORD_BYTES = 64;
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    final String[] apkPaths;
+    final int count;
+    final long[] crcs;
+    // -1: unknown, the entry is read through a ZipFile of its archive.
+    final long[] headerOffsets;
+    final long[] compressedSizes;
+    final long[] sizes;
+    final int[] methods;
+    // Index into apkPaths.
+    final int[] sources;
+    private final long[] nameHashes;
+    private final long[] normalizedHashes;
+    // Filled on first use when loaded (from namePool), up front when built.
+    private final String[] names;
+    private ByteBuffer namePool;
+    private int[] nameOffsets;
+    private int[] nameLengths;
+
+    // First entry per name, per normalized name (among first-per-name
+    // entries) and per CRC32, in table order.
+    private EntryTable byName;
+    private EntryTable byNormalized;
+    private EntryTable byCrc;
+
+    private ApkEntryIndex(String[] apkPaths, int count) {
+        this.apkPaths = apkPaths;
+        this.count = count;
+        crcs = new long[count];
+        headerOffsets = new long[count];
+        compressedSizes = new long[count];
+        sizes = new long[count];
+        methods = new int[count];
+        sources = new int[count];
+        nameHashes = new long[count];
+        normalizedHashes = new long[count];
+        names = new String[count];
+    }
+
+    /**
+     * The index of apkPaths for the install identified by key: read from
+     * cacheFile when it was written for this key and these archives, built
+     * (and written back) otherwise. An empty key is never persisted.
+     */
+    static ApkEntryIndex open(File cacheFile, String key, String[] apkPaths) throws IOException {
+        long startedAt = SystemClock.elapsedRealtime();
+        ApkEntryIndex index = null;
+        if (!key.isEmpty() && cacheFile.exists()) {
+            try {
+                index = read(cacheFile, key, apkPaths);
+            } catch (IOException | RuntimeException e) {
+                Log.w(UpdateContext.TAG, "Discarding unreadable APK entry index: " + e);
+            }
+        }
+        boolean loaded = index != null;
+        if (!loaded) {
+            index = build(apkPaths);
+            if (!key.isEmpty()) {
+                try {
+                    index.write(cacheFile, key);
+                } catch (IOException e) {
+                    Log.w(UpdateContext.TAG, "Failed to persist APK entry index: " + e);
+                }
+            }
+        }
+        if (UpdateContext.DEBUG) {
+            Log.d(UpdateContext.TAG, (loaded ? "loaded" : "built") + " APK entry index of "
+                + index.count + " entries in " + (SystemClock.elapsedRealtime() - startedAt) + " ms");
+        }
+        return index;
+    }
+
+    /**
+     * path with a leading "base/" (the AAB module directory) and every
+     * "-v<digits>" before a '/' (API level qualifier) removed: where an APK
+     * baseline's resource lives in an AAB install.
+     */
+    static String normalize(String path) {
+        StringBuilder result = new StringBuilder(path.length());
+        for (int i = normalizedStart(path); i < path.length(); ) {
+            int skip = qualifierLength(path, i);
+            if (skip > 0) {
+                i += skip;
+            } else {
+                result.append(path.charAt(i++));
+            }
+        }
+        return result.toString();
+    }
+
+    // normalize() scanned in place: no string is built for hashing or
+    // comparing normalized names.
+    private static int normalizedStart(String path) {
+        return path.startsWith(AAB_BASE_PREFIX) ? AAB_BASE_PREFIX.length() : 0;
+    }
+
+    // Length of the "-v<digits>" qualifier at i that a '/' follows, or 0.
+    private static int qualifierLength(String path, int i) {
+        int length = path.length();
+        if (path.charAt(i) != '-' || i + 2 >= length || path.charAt(i + 1) != 'v') {
+            return 0;
+        }
+        int end = i + 2;
+        while (end < length && path.charAt(end) >= '0' && path.charAt(end) <= '9') {
+            end++;
+        }
+        return end > i + 2 && end < length && path.charAt(end) == '/' ? end - i : 0;
+    }
+
+    private static int skipQualifiers(String path, int i) {
+        int skip;
+        while (i < path.length() && (skip = qualifierLength(path, i)) > 0) {
+            i += skip;
+        }
+        return i;
+    }
+
+    private static long normalizedHash(String path) {
+        long hash = FNV_OFFSET;
+        for (int i = skipQualifiers(path, normalizedStart(path)); i < path.length();
+             i = skipQualifiers(path, i)) {
+            hash = (hash ^ path.charAt(i++)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    private static boolean normalizedEquals(String a, String b) {
+        int i = normalizedStart(a);
+        int j = normalizedStart(b);
+        while (true) {
+            i = skipQualifiers(a, i);
+            j = skipQualifiers(b, j);
+            if (i == a.length() || j == b.length()) {
+                return i == a.length() && j == b.length();
+            }
+            if (a.charAt(i++) != b.charAt(j++)) {
+                return false;
+            }
+        }
+    }
+
+    private static long hash(String value) {
+        long hash = FNV_OFFSET;
+        for (int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /** The first entry named name, or -1. */
+    int find(String name) {
+        long hash = hash(name);
+        for (int slot = byName.slot(hash); byName.entries[slot] != 0; slot = byName.next(slot)) {
+            int entry = byName.entries[slot] - 1;
+            if (byName.keys[slot] == hash && name(entry).equals(name)) {
+                return entry;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The first entry whose name normalizes (see normalize) as path does, or
+     * -1. For lookups that missed by exact name.
+     */
+    int findNormalized(String path) {
+        long hash = normalizedHash(path);
+        for (int slot = byNormalized.slot(hash); byNormalized.entries[slot] != 0;
+             slot = byNormalized.next(slot)) {
+            int entry = byNormalized.entries[slot] - 1;
+            if (byNormalized.keys[slot] == hash && normalizedEquals(name(entry), path)) {
+                return entry;
+            }
+        }
+        return -1;
+    }
+
+    /** The first entry with this content CRC32, or -1. */
+    int findCrc(long crc) {
+        for (int slot = byCrc.slot(crc); byCrc.entries[slot] != 0; slot = byCrc.next(slot)) {
+            if (byCrc.keys[slot] == crc) {
+                return byCrc.entries[slot] - 1;
+            }
+        }
+        return -1;
+    }
+
+    String name(int entry) {
+        String name = names[entry];
+        if (name == null) {
+            // Racing threads decode the same immutable String: harmless.
+            byte[] bytes = new byte[nameLengths[entry]];
+            ByteBuffer pool = namePool.duplicate();
+            pool.position(nameOffsets[entry]);
+            pool.get(bytes);
+            name = new String(bytes, StandardCharsets.UTF_8);
+            names[entry] = name;
+        }
+        return name;
+    }
+
+    /** Archive handles for one thread; see Reader. */
+    Reader openReader() {
+        return new Reader();
+    }
+
+    /**
+     * Extracts entries through archive handles of its own, opened on first
+     * use: one Reader per thread, since positional reads seek the shared
+     * file pointer of a handle.
+     */
+    final class Reader implements Closeable {
+        private final RandomAccessFile[] archives = new RandomAccessFile[apkPaths.length];
+        // Only for entries without a usable header offset.
+        private final SafeZipFile[] zipFiles = new SafeZipFile[apkPaths.length];
+
+        private Reader() {
+        }
+
+        /** Extracts entry to target, verified against its CRC32. */
+        void extract(int entry, File target) throws IOException {
+            int source = sources[entry];
+            if (headerOffsets[entry] >= 0) {
+                if (archives[source] == null) {
+                    archives[source] = new RandomAccessFile(apkPaths[source], "r");
+                }
+                if (SafeZipFile.extractAt(
+                    archives[source],
+                    name(entry),
+                    headerOffsets[entry],
+                    methods[entry],
+                    compressedSizes[entry],
+                    sizes[entry],
+                    crcs[entry],
+                    target)) {
+                    return;
+                }
+            }
+            if (zipFiles[source] == null) {
+                zipFiles[source] = new SafeZipFile(new File(apkPaths[source]));
+            }
+            ZipEntry ze = zipFiles[source].getEntry(name(entry));
+            if (ze == null) {
+                throw new ZipException("Entry " + name(entry) + " not found in " + apkPaths[source]);
+            }
+            zipFiles[source].unzipToFile(ze, target);
+        }
+
+        @Override
+        public void close() {
+            for (int source = 0; source < apkPaths.length; source++) {
+                try {
+                    if (archives[source] != null) {
+                        archives[source].close();
+                    }
+                    if (zipFiles[source] != null) {
+                        zipFiles[source].close();
+                    }
+                } catch (IOException e) {
+                    if (UpdateContext.DEBUG) {
+                        Log.w(UpdateContext.TAG, "Failed to close " + apkPaths[source], e);
+                    }
+                }
+            }
+        }
+    }
+
+    // Names are only compared, so decoded, when their hashes are equal.
+    private void link() {
+        byName = new EntryTable(count);
+        byNormalized = new EntryTable(count);
+        byCrc = new EntryTable(count);
+        for (int i = 0; i < count; i++) {
+            if (!containsName(i)) {
+                byName.add(nameHashes[i], i);
+                if (!containsNormalized(i)) {
+                    byNormalized.add(normalizedHashes[i], i);
+                }
+            }
+            if (crcs[i] != -1L && findCrc(crcs[i]) < 0) {
+                byCrc.add(crcs[i], i);
+            }
+        }
+    }
+
+    private boolean containsName(int entry) {
+        long hash = nameHashes[entry];
+        for (int slot = byName.slot(hash); byName.entries[slot] != 0; slot = byName.next(slot)) {
+            if (byName.keys[slot] == hash && name(byName.entries[slot] - 1).equals(name(entry))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean containsNormalized(int entry) {
+        long hash = normalizedHashes[entry];
+        for (int slot = byNormalized.slot(hash); byNormalized.entries[slot] != 0;
+             slot = byNormalized.next(slot)) {
+            if (byNormalized.keys[slot] == hash
+                && normalizedEquals(name(byNormalized.entries[slot] - 1), name(entry))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Open addressing from a 64-bit key to entry + 1 (0: empty slot), with
+    // linear probing. A key can occupy several slots (name hash collisions);
+    // lookups walk them all and check the entry.
+    private static final class EntryTable {
+        final long[] keys;
+        final int[] entries;
+        private final int mask;
+
+        EntryTable(int count) {
+            int capacity = 4;
+            while (capacity < count * 2) {
+                capacity <<= 1;
+            }
+            keys = new long[capacity];
+            entries = new int[capacity];
+            mask = capacity - 1;
+        }
+
+        int slot(long key) {
+            long mixed = key * 0x9e3779b97f4a7c15L;
+            return (int) (mixed ^ (mixed >>> 32)) & mask;
+        }
+
+        int next(int slot) {
+            return (slot + 1) & mask;
+        }
+
+        void add(long key, int entry) {
+            int slot = slot(key);
+            while (entries[slot] != 0) {
+                slot = next(slot);
+            }
+            keys[slot] = key;
+            entries[slot] = entry + 1;
+        }
+    }
+
+    // Central directory of every archive; an archive whose directory this
+    // reader does not handle (ZIP64) is enumerated through ZipFile instead,
+    // its entries without header offsets.
+    private static ApkEntryIndex build(String[] apkPaths) throws IOException {
+        SafeZipFile.CentralDirectory[] directories = new SafeZipFile.CentralDirectory[apkPaths.length];
+        int count = 0;
+        for (int source = 0; source < apkPaths.length; source++) {
+            File apk = new File(apkPaths[source]);
+            directories[source] = SafeZipFile.readCentralDirectory(apk);
+            if (directories[source] == null) {
+                directories[source] = SafeZipFile.listEntries(apk);
+            }
+            count += directories[source].count;
+        }
+
+        ApkEntryIndex index = new ApkEntryIndex(apkPaths, count);
+        int i = 0;
+        for (int source = 0; source < apkPaths.length; source++) {
+            SafeZipFile.CentralDirectory directory = directories[source];
+            for (int d = 0; d < directory.count; d++, i++) {
+                String name = directory.names[d];
+                SafeZipFile.checkEntryName(name);
+                boolean addressable = (directory.flags[d] & 1) == 0
+                    && directory.headerOffsets[d] != 0xffffffffL
+                    && directory.compressedSizes[d] != 0xffffffffL
+                    && directory.sizes[d] != 0xffffffffL;
+                index.sources[i] = source;
+                index.names[i] = name;
+                index.nameHashes[i] = hash(name);
+                index.normalizedHashes[i] = normalizedHash(name);
+                index.crcs[i] = directory.crcs[d];
+                index.headerOffsets[i] = addressable ? directory.headerOffsets[d] : -1;
+                index.compressedSizes[i] = directory.compressedSizes[d];
+                index.sizes[i] = directory.sizes[d];
+                index.methods[i] = directory.methods[d];
+            }
+        }
+        index.link();
+        return index;
+    }
+
+    // Layout, big-endian: magic, version, key, archive count, per archive
+    // (path, length, lastModified), entry count, name pool size, then one
+    // fixed RECORD_BYTES record per entry (source, method, crc, header
+    // offset, compressed size, size, name hash, normalized-name hash, name
+    // offset and length in the pool), the pool of UTF-8 names and the
+    // CRC32 trailer. Header strings are an int byte length and UTF-8.
+    //
+    // Through a temp file of its own: two patch tasks for different versions
+    // can both miss the cache and write it at once, and whichever rename
+    // comes last simply wins with a whole index.
+    private void write(File cacheFile, String key) throws IOException {
+        File parent = cacheFile.getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        byte[][] encodedNames = new byte[count][];
+        int poolSize = 0;
+        for (int i = 0; i < count; i++) {
+            encodedNames[i] = name(i).getBytes(StandardCharsets.UTF_8);
+            poolSize += encodedNames[i].length;
+        }
+        File temp = File.createTempFile(cacheFile.getName(), ".tmp", parent);
+        CRC32 crc = new CRC32();
+        try (DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+            new BufferedOutputStream(new FileOutputStream(temp), 64 * 1024), crc))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            writeString(out, key);
+            out.writeInt(apkPaths.length);
+            for (String apkPath : apkPaths) {
+                File apk = new File(apkPath);
+                writeString(out, apkPath);
+                out.writeLong(apk.length());
+                out.writeLong(apk.lastModified());
+            }
+            out.writeInt(count);
+            out.writeInt(poolSize);
+            int nameOffset = 0;
+            for (int i = 0; i < count; i++) {
+                out.writeInt(sources[i]);
+                out.writeInt(methods[i]);
+                out.writeLong(crcs[i]);
+                out.writeLong(headerOffsets[i]);
+                out.writeLong(compressedSizes[i]);
+                out.writeLong(sizes[i]);
+                out.writeLong(nameHashes[i]);
+                out.writeLong(normalizedHashes[i]);
+                out.writeInt(nameOffset);
+                out.writeInt(encodedNames[i].length);
+                nameOffset += encodedNames[i].length;
+            }
+            for (byte[] name : encodedNames) {
+                out.write(name);
+            }
+            out.writeLong(crc.getValue());
+        } catch (IOException e) {
+            temp.delete();
+            throw e;
+        }
+        if (!temp.renameTo(cacheFile)) {
+            temp.delete();
+            throw new IOException("Failed to rename " + temp + " to " + cacheFile);
+        }
+    }
+
+    // null when the file belongs to another install or other archives, or
+    // fails its CRC32. Names stay in the mapping until a lookup needs one.
+    private static ApkEntryIndex read(File cacheFile, String key, String[] apkPaths)
+        throws IOException {
+        MappedByteBuffer in;
+        try (RandomAccessFile file = new RandomAccessFile(cacheFile, "r")) {
+            in = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+        }
+        if (!hasValidTrailer(in)) {
+            return null;
+        }
+        in.limit(in.capacity() - TRAILER_BYTES);
+        if (in.getInt() != MAGIC || in.getInt() != FORMAT_VERSION || !key.equals(readString(in))) {
+            return null;
+        }
+        if (in.getInt() != apkPaths.length) {
+            return null;
+        }
+        for (String apkPath : apkPaths) {
+            File apk = new File(apkPath);
+            if (!apkPath.equals(readString(in))
+                || in.getLong() != apk.length()
+                || in.getLong() != apk.lastModified()) {
+                return null;
+            }
+        }
+        int count = in.getInt();
+        int poolSize = in.getInt();
+        if (count < 0 || poolSize < 0
+            || (long) count * RECORD_BYTES + poolSize != in.remaining()) {
+            return null;
+        }
+        ApkEntryIndex index = new ApkEntryIndex(apkPaths, count);
+        index.nameOffsets = new int[count];
+        index.nameLengths = new int[count];
+        for (int i = 0; i < count; i++) {
+            index.sources[i] = in.getInt();
+            index.methods[i] = in.getInt();
+            index.crcs[i] = in.getLong();
+            index.headerOffsets[i] = in.getLong();
+            index.compressedSizes[i] = in.getLong();
+            index.sizes[i] = in.getLong();
+            index.nameHashes[i] = in.getLong();
+            index.normalizedHashes[i] = in.getLong();
+            index.nameOffsets[i] = in.getInt();
+            index.nameLengths[i] = in.getInt();
+            if (index.sources[i] < 0 || index.sources[i] >= apkPaths.length
+                || index.nameOffsets[i] < 0 || index.nameLengths[i] < 0
+                || (long) index.nameOffsets[i] + index.nameLengths[i] > poolSize) {
+                return null;
+            }
+        }
+        index.namePool = in.slice();
+        index.link();
+        return index;
+    }
+
+    // Whether the trailer matches the CRC32 of the rest of the file.
+    private static boolean hasValidTrailer(ByteBuffer file) {
+        int end = file.capacity() - TRAILER_BYTES;
+        if (end < 0) {
+            return false;
+        }
+        // CRC32.update(ByteBuffer) needs API 26.
+        ByteBuffer content = file.duplicate();
+        CRC32 crc = new CRC32();
+        byte[] chunk = new byte[64 * 1024];
+        for (int done = 0; done < end; ) {
+            int n = Math.min(chunk.length, end - done);
+            content.get(chunk, 0, n);
+            crc.update(chunk, 0, n);
+            done += n;
+        }
+        return content.getLong() == crc.getValue();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0 || length > in.remaining()) {
+            throw new IllegalStateException("Corrupt APK entry index");
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
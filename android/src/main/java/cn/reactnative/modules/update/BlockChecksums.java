@@ -0,0 +1,225 @@
+package cn.reactnative.modules.update;
+
+import android.util.Log;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.zip.CRC32;
+
+/**
+ * Per-block CRC32s of a partial archive, kept in a binary companion next to
+ * the `.resume` sidecar. Every BLOCK_SIZE block has a fixed 8-byte slot at
+ * index * 8 (the CRC and its complement, so an unwritten or torn slot never
+ * reads as valid), written only after the block's bytes were handed to the
+ * file.
+ *
+ * On resume the trailing recorded blocks are re-read and compared, and the
+ * offset rolls back to the end of the last block that checks out — a torn
+ * write at the tail costs at most a few blocks instead of poisoning the
+ * whole archive. Bytes past the last recorded block are never trusted.
+ */
+final class BlockChecksums implements Closeable {
+    static final int BLOCK_SIZE = 1024 * 1024;
+    private static final int SLOT_SIZE = 8;
+    // Recorded blocks re-read on resume; earlier ones are trusted as written.
+    private static final int VERIFIED_TAIL_BLOCKS = 2;
+
+    private final File archive;
+    private final RandomAccessFile slots;
+
+    private BlockChecksums(File archive, RandomAccessFile slots) {
+        this.archive = archive;
+        this.slots = slots;
+    }
+
+    static File companionFile(File archive) {
+        return new File(archive.getPath() + ".blocks");
+    }
+
+    static boolean exists(File archive) {
+        return companionFile(archive).isFile();
+    }
+
+    static void delete(File archive) {
+        File companion = companionFile(archive);
+        if (companion.exists() && !companion.delete() && UpdateContext.DEBUG) {
+            Log.w(UpdateContext.TAG, "Failed to delete block checksums " + companion);
+        }
+    }
+
+    /** Opens the companion of archive, creating an empty one if needed. */
+    static BlockChecksums open(File archive) throws IOException {
+        File companion = companionFile(archive);
+        UpdateFileUtils.ensureParentDirectory(companion);
+        return new BlockChecksums(archive, new RandomAccessFile(companion, "rw"));
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (slots) {
+            slots.close();
+        }
+    }
+
+    private static long blockEnd(long index, long total) {
+        long end = (index + 1) * BLOCK_SIZE;
+        return total > 0 ? Math.min(end, total) : end;
+    }
+
+    // The recorded CRC of block index, or -1 when the slot is empty or torn.
+    private long readSlot(long index) throws IOException {
+        synchronized (slots) {
+            long position = index * SLOT_SIZE;
+            if (position + SLOT_SIZE > slots.length()) {
+                return -1;
+            }
+            slots.seek(position);
+            int crc = slots.readInt();
+            int check = slots.readInt();
+            return check == ~crc ? (crc & 0xffffffffL) : -1;
+        }
+    }
+
+    private void writeSlot(long index, long crc) throws IOException {
+        synchronized (slots) {
+            slots.seek(index * SLOT_SIZE);
+            slots.writeInt((int) crc);
+            slots.writeInt(~(int) crc);
+        }
+    }
+
+    private long crcOf(RandomAccessFile file, long start, long end, byte[] buffer)
+        throws IOException {
+        CRC32 crc = new CRC32();
+        file.seek(start);
+        long remaining = end - start;
+        while (remaining > 0) {
+            int n = file.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (n < 0) {
+                return -1;
+            }
+            crc.update(buffer, 0, n);
+            remaining -= n;
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * How much of [start, end) of the archive can be trusted: the end of the
+     * run of recorded blocks from start, minus any trailing blocks whose
+     * bytes no longer match their checksum. start must be block aligned;
+     * total bounds the last (short) block and may be 0 when unknown.
+     */
+    long verifiedEnd(long start, long end, long total) throws IOException {
+        long first = start / BLOCK_SIZE;
+        long recorded = first;
+        while (blockEnd(recorded, total) <= end && readSlot(recorded) >= 0) {
+            recorded++;
+        }
+        byte[] buffer = new byte[64 * 1024];
+        try (RandomAccessFile file = new RandomAccessFile(archive, "r")) {
+            int verified = 0;
+            long index = recorded;
+            while (index > first && verified < VERIFIED_TAIL_BLOCKS) {
+                long blockStart = (index - 1) * BLOCK_SIZE;
+                long actual = crcOf(file, blockStart, blockEnd(index - 1, total), buffer);
+                if (actual >= 0 && actual == readSlot(index - 1)) {
+                    verified++;
+                } else {
+                    // Everything from this block on is suspect; keep
+                    // checking the blocks before it.
+                    Log.w(UpdateContext.TAG, "Block " + (index - 1) + " of " + archive.getName()
+                        + " failed its checksum, rolling back");
+                    recorded = index - 1;
+                    verified = 0;
+                }
+                index--;
+            }
+        }
+        return recorded > first ? blockEnd(recorded - 1, total) : start;
+    }
+
+    /**
+     * Records the blocks of one sequential writer starting at offset. A
+     * writer resuming mid-block first re-reads the block's head from disk.
+     */
+    Stream stream(long offset, long total) throws IOException {
+        Stream stream = new Stream(offset, total);
+        long blockStart = offset - offset % BLOCK_SIZE;
+        if (blockStart < offset) {
+            byte[] buffer = new byte[64 * 1024];
+            try (RandomAccessFile file = new RandomAccessFile(archive, "r")) {
+                file.seek(blockStart);
+                long remaining = offset - blockStart;
+                while (remaining > 0) {
+                    int n = file.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                    if (n < 0) {
+                        throw new IOException("Partial shorter than its resume offset");
+                    }
+                    stream.crc.update(buffer, 0, n);
+                    remaining -= n;
+                }
+            }
+        }
+        return stream;
+    }
+
+    final class Stream {
+        private final long total;
+        private final CRC32 crc = new CRC32();
+        private long position;
+        // Blocks completed by update() but not yet written by commit().
+        private long pendingFrom = -1;
+        private final java.util.ArrayList<Long> pending = new java.util.ArrayList<Long>();
+
+        private Stream(long offset, long total) {
+            this.position = offset;
+            this.total = total;
+        }
+
+        /** Feeds bytes that are about to be written at the current position. */
+        void update(byte[] data, int offset, int count) {
+            while (count > 0) {
+                long index = position / BLOCK_SIZE;
+                long end = blockEnd(index, total);
+                int take = (int) Math.min(count, end - position);
+                crc.update(data, offset, take);
+                position += take;
+                offset += take;
+                count -= take;
+                if (position == end) {
+                    if (pending.isEmpty()) {
+                        pendingFrom = index;
+                    }
+                    pending.add(crc.getValue());
+                    crc.reset();
+                }
+            }
+        }
+
+        /** Records the completed blocks; call once their bytes are written. */
+        void commit() throws IOException {
+            for (int i = 0; i < pending.size(); i++) {
+                writeSlot(pendingFrom + i, pending.get(i));
+            }
+            pending.clear();
+        }
+
+        /** Adapter for okio's Buffer.copyTo. */
+        OutputStream asOutputStream() {
+            return new OutputStream() {
+                @Override
+                public void write(int b) {
+                    update(new byte[] {(byte) b}, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                    update(b, off, len);
+                }
+            };
+        }
+    }
+}
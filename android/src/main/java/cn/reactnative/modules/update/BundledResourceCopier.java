@@ -2,6 +2,7 @@ package cn.reactnative.modules.update;
 
 import android.content.Context;
 import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.content.res.Resources;
 import android.os.Build;
@@ -12,14 +13,39 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.Enumeration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.zip.ZipEntry;
-import java.util.regex.Pattern;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 final class BundledResourceCopier {
-    private static final Pattern VERSION_QUALIFIER_PATTERN = Pattern.compile("-v\\d+(?=/)");
-    private static final String AAB_BASE_PREFIX = "base/";
+    private static final String INDEX_DIRECTORY_NAME = "pushy_apk_entries";
+
+    // Located copies are written by at most this many threads (the caller
+    // included), and only when there are enough of them to share out.
+    private static final int MAX_COPY_WORKERS = 4;
+    private static final int MIN_COPIES_PER_WORKER = 32;
+
+    // Extra copy workers; idle threads time out, so the pool costs nothing
+    // outside a patch.
+    private static final ThreadPoolExecutor COPY_EXECUTOR = new ThreadPoolExecutor(
+        MAX_COPY_WORKERS - 1,
+        MAX_COPY_WORKERS - 1,
+        30,
+        TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>()
+    );
+
+    static {
+        COPY_EXECUTOR.allowCoreThreadTimeOut(true);
+    }
 
     private final Context context;
 
@@ -33,219 +59,385 @@ final class BundledResourceCopier {
         }
     }
 
-    // Holds the exact archive a CRC32 match came from, so the fallback copy
-    // reads from that archive even if another APK exposes the same entry name
-    // with different bytes.
-    private static final class ZipSource {
-        final ZipEntry entry;
-        final SafeZipFile zipFile;
+    BundledResourceCopier(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    /**
+     * The entry index of the installed APK and its splits, split by split
+     * on demand: each mapped from the code cache when this install has
+     * written one, built once otherwise.
+     */
+    InstalledApkIndex openIndex() throws IOException {
+        ArrayList<String> apkPaths = collectApkPaths();
+        return new InstalledApkIndex(
+            new File(context.getCodeCacheDir(), INDEX_DIRECTORY_NAME),
+            installIdentity(),
+            apkPaths.toArray(new String[0])
+        );
+    }
+
+    // "<versionName>|<lastUpdateTime>", the key of the bundle hash cache:
+    // every (re)install, split installs included, changes lastUpdateTime.
+    private String installIdentity() {
+        try {
+            PackageInfo info =
+                context.getPackageManager().getPackageInfo(context.getPackageName(), 0);
+            return info.versionName + "|" + info.lastUpdateTime;
+        } catch (PackageManager.NameNotFoundException e) {
+            return "";
+        }
+    }
 
-        ZipSource(ZipEntry entry, SafeZipFile zipFile) {
+    // A located fromPath: extracted from entry (or, when entry is -1,
+    // streamed from resolvedResource) to its first target, then linked
+    // (or copied) to the others.
+    private static final class CopyJob {
+        // The manifest's copy source, as journaled.
+        final String fromPath;
+        final String sourcePath;
+        final int entry;
+        final ResolvedResourceSource resolvedResource;
+        final ArrayList<File> targets;
+        // CRC32 and size of entry; crc -1: unknown.
+        final long crc;
+        final long size;
+
+        CopyJob(
+            String fromPath,
+            String sourcePath,
+            int entry,
+            ResolvedResourceSource resolvedResource,
+            ArrayList<File> targets,
+            long crc,
+            long size
+        ) {
+            this.fromPath = fromPath;
+            this.sourcePath = sourcePath;
             this.entry = entry;
-            this.zipFile = zipFile;
+            this.resolvedResource = resolvedResource;
+            this.targets = targets;
+            this.crc = crc;
+            this.size = size;
         }
     }
 
-    BundledResourceCopier(Context context) {
-        this.context = context.getApplicationContext();
+    void copyFromResource(
+        HashMap<String, ArrayList<File>> resToCopy,
+        PatchManifest manifest
+    ) throws IOException {
+        copyFromResource(openIndex(), resToCopy, manifest, null, null);
     }
 
+    /**
+     * store, when not null, provides entries already extracted by an
+     * earlier install (linked instead) and receives the ones extracted now.
+     * journal, when not null, records every fromPath whose targets are all
+     * written.
+     */
     void copyFromResource(
+        InstalledApkIndex index,
         HashMap<String, ArrayList<File>> resToCopy,
-        HashMap<String, Long> crcByFrom
+        PatchManifest manifest,
+        SharedAssetStore store,
+        InstallJournal journal
     ) throws IOException {
-        ArrayList<String> apkPaths = collectApkPaths();
-        HashMap<String, ZipEntry> availableEntries = new HashMap<String, ZipEntry>();
-        HashMap<String, SafeZipFile> zipFileMap = new HashMap<String, SafeZipFile>();
-        HashMap<String, SafeZipFile> entryToZipFileMap = new HashMap<String, SafeZipFile>();
-        // Content checksum index: CRC32 -> matched archive source. Lets us
-        // locate a file by content when its origin path is not present verbatim
-        // on device (e.g. APK baseline diff applied on an AAB/split-apk install
-        // whose res/ paths were shortened). First entry for a given crc wins.
-        HashMap<Long, ZipSource> crcToEntry = new HashMap<Long, ZipSource>();
+        HashMap<String, ArrayList<File>> remainingFiles =
+            new HashMap<String, ArrayList<File>>(resToCopy);
+        // Track copies that were located but failed to write. These are real
+        // failures (disk full, corrupt archive) that must fail the update,
+        // not skips — otherwise the update activates with missing resources.
+        ArrayList<String> failedCopies = new ArrayList<String>();
+        // Entries whose manifest-declared CRC32 could not be satisfied by
+        // any installed archive: the path-matched file has different bytes
+        // and no entry anywhere carries the expected content. Copying would
+        // install a wrong resource (rebuilt binary with drifted assets), so
+        // these fail the whole patch — the JS strategy chain then falls
+        // back to the full package.
+        ArrayList<String> crcMismatches = new ArrayList<String>();
+        // Located sources, written once every fromPath is resolved.
+        ArrayList<CopyJob> jobs = new ArrayList<CopyJob>();
+        // Located entries per tier of the index (0: the base APK).
+        int[] tierHits = new int[index.tierCount()];
+
+        for (String fromPath : new ArrayList<String>(remainingFiles.keySet())) {
+            ArrayList<File> targets = remainingFiles.get(fromPath);
+            if (targets == null || targets.isEmpty()) {
+                continue;
+            }
 
-        try {
-            for (String apkPath : apkPaths) {
-                SafeZipFile zipFile = new SafeZipFile(new File(apkPath));
-                zipFileMap.put(apkPath, zipFile);
-                Enumeration<? extends ZipEntry> entries = zipFile.entries();
-                while (entries.hasMoreElements()) {
-                    ZipEntry ze = entries.nextElement();
-                    String entryName = ze.getName();
-                    if (!availableEntries.containsKey(entryName)) {
-                        availableEntries.put(entryName, ze);
-                        entryToZipFileMap.put(entryName, zipFile);
-                    }
-                    long crc = ze.getCrc();
-                    if (crc != -1L && !crcToEntry.containsKey(crc)) {
-                        crcToEntry.put(crc, new ZipSource(ze, zipFile));
-                    }
+            String actualSourcePath = fromPath;
+            ResolvedResourceSource resolvedResource = null;
+            long wantedCrc =
+                manifest != null ? manifest.copyCrcFor(fromPath) : PatchManifest.NO_CRC;
+
+            // Archive by archive, the base APK first: a split is only
+            // indexed once every archive before it has missed.
+            int entry = -1;
+            ApkEntryIndex tier;
+            for (int t = 0; entry < 0 && (tier = index.tier(t)) != null; t++) {
+                int found = locate(tier, fromPath, wantedCrc);
+                if (found >= 0) {
+                    entry = index.entry(t, found);
+                    actualSourcePath = index.name(entry);
                 }
             }
 
-            HashMap<String, String> normalizedEntryMap = new HashMap<String, String>();
-            for (String entryName : availableEntries.keySet()) {
-                String normalized = normalizeResPath(entryName);
-                normalizedEntryMap.putIfAbsent(normalized, entryName);
+            // A declared CRC that no installed entry satisfies is a hard
+            // content mismatch. The resource-id heuristic below cannot be
+            // trusted here: the content lookup above has covered every
+            // archive, so anything the heuristic finds has the wrong bytes.
+            if (entry < 0 && wantedCrc != PatchManifest.NO_CRC) {
+                crcMismatches.add(fromPath);
+                remainingFiles.remove(fromPath);
+                continue;
             }
 
-            SafeZipFile baseZipFile = zipFileMap.get(context.getPackageResourcePath());
-            HashMap<String, ArrayList<File>> remainingFiles =
-                new HashMap<String, ArrayList<File>>(resToCopy);
-            // Track copies that were located but failed to write. These are real
-            // failures (disk full, corrupt archive) that must fail the update,
-            // not skips — otherwise the update activates with missing resources.
-            ArrayList<String> failedCopies = new ArrayList<String>();
-            // Entries whose manifest-declared CRC32 could not be satisfied by
-            // any installed archive: the path-matched file has different bytes
-            // and no entry anywhere carries the expected content. Copying would
-            // install a wrong resource (rebuilt binary with drifted assets), so
-            // these fail the whole patch — the JS strategy chain then falls
-            // back to the full package.
-            ArrayList<String> crcMismatches = new ArrayList<String>();
-
-            for (String fromPath : new ArrayList<String>(remainingFiles.keySet())) {
-                ArrayList<File> targets = remainingFiles.get(fromPath);
-                if (targets == null || targets.isEmpty()) {
-                    continue;
-                }
-
-                ZipEntry entry = availableEntries.get(fromPath);
-                String actualSourcePath = fromPath;
-                SafeZipFile matchedZipFile = null;
-                ResolvedResourceSource resolvedResource = null;
-                Long wantedCrc = crcByFrom != null ? crcByFrom.get(fromPath) : null;
-
-                if (entry == null) {
-                    String normalizedFrom = normalizeResPath(fromPath);
-                    String actualEntry = normalizedEntryMap.get(normalizedFrom);
-                    if (actualEntry != null) {
-                        entry = availableEntries.get(actualEntry);
-                        actualSourcePath = actualEntry;
+            if (entry < 0) {
+                resolvedResource = resolveBundledResource(fromPath);
+                if (resolvedResource != null) {
+                    actualSourcePath = resolvedResource.assetPath;
+                    // resolveBundledResource resolved the density-correct
+                    // file path; copy that exact entry from the already-open
+                    // archives so the right variant is used. (openRawResource
+                    // would re-resolve the id at the current configuration
+                    // density and ignore the requested one.)
+                    int resolvedEntry = index.find(actualSourcePath);
+                    if (resolvedEntry >= 0) {
+                        entry = resolvedEntry;
+                        resolvedResource = null;
                     }
                 }
+            }
 
-                // Verify a path-matched entry against the manifest-declared
-                // CRC32: a rebuilt binary can keep the path but drift the
-                // content. On mismatch, discard the path match and try to
-                // locate the expected content elsewhere. An entry with an
-                // unknown CRC (-1) cannot be verified and is accepted as-is.
-                if (entry != null && wantedCrc != null
-                    && entry.getCrc() != -1L && entry.getCrc() != wantedCrc.longValue()) {
-                    entry = null;
-                    actualSourcePath = fromPath;
-                }
+            if (entry < 0 && resolvedResource == null) {
+                continue;
+            }
 
-                // Content (CRC32) match: robust across APK/AAB packaging because
-                // the checksum is over the uncompressed file content, not its
-                // path. Preferred over the resource-id heuristic below.
-                if (entry == null && wantedCrc != null) {
-                    ZipSource matched = crcToEntry.get(wantedCrc);
-                    if (matched != null) {
-                        entry = matched.entry;
-                        matchedZipFile = matched.zipFile;
-                        actualSourcePath = matched.entry.getName();
-                    }
-                }
+            if (entry >= 0) {
+                tierHits[index.tierOf(entry)]++;
+            }
+            jobs.add(new CopyJob(
+                fromPath,
+                actualSourcePath,
+                entry,
+                resolvedResource,
+                targets,
+                entry >= 0 ? index.crc(entry) : -1L,
+                entry >= 0 ? index.size(entry) : 0
+            ));
+            remainingFiles.remove(fromPath);
+        }
 
-                // A declared CRC that no installed entry satisfies is a hard
-                // content mismatch. The resource-id heuristic below cannot be
-                // trusted here: the content index above already covers every
-                // entry, so anything the heuristic finds has the wrong bytes.
-                if (entry == null && wantedCrc != null) {
-                    crcMismatches.add(fromPath);
-                    remainingFiles.remove(fromPath);
-                    continue;
-                }
+        Log.i(UpdateContext.TAG, "located " + jobs.size() + " of " + resToCopy.size()
+            + " bundled resources, per archive (base first) "
+            + Arrays.toString(tierHits) + ", "
+            + index.openedTiers() + " of " + index.tierCount() + " archives indexed");
+        failedCopies.addAll(copyAll(index, store, journal, jobs));
+
+        if (!crcMismatches.isEmpty()) {
+            throw new IOException(
+                "Bundled resource content mismatch (crc32) for "
+                    + crcMismatches.size() + " entries: " + crcMismatches
+            );
+        }
 
-                if (entry == null) {
-                    resolvedResource = resolveBundledResource(fromPath);
-                    if (resolvedResource != null) {
-                        actualSourcePath = resolvedResource.assetPath;
-                        // resolveBundledResource resolved the density-correct
-                        // file path; copy that exact entry from the already-open
-                        // archives so the right variant is used. (openRawResource
-                        // would re-resolve the id at the current configuration
-                        // density and ignore the requested one.)
-                        ZipEntry resolvedEntry = availableEntries.get(actualSourcePath);
-                        if (resolvedEntry != null) {
-                            entry = resolvedEntry;
-                            resolvedResource = null;
-                        }
-                    }
-                }
+        if (!failedCopies.isEmpty()) {
+            throw new IOException(
+                "Failed to copy " + failedCopies.size()
+                    + " bundled resource(s): " + failedCopies
+            );
+        }
 
-                if (entry == null && resolvedResource == null) {
-                    continue;
-                }
+        if (!remainingFiles.isEmpty()) {
+            Log.w(
+                UpdateContext.TAG,
+                "Skipped " + remainingFiles.size() + " missing bundled resources"
+            );
+        }
+    }
 
-                File lastTarget = null;
-                for (File target : targets) {
-                    try {
-                        if (lastTarget != null) {
-                            UpdateFileUtils.copyFile(lastTarget, target);
-                        } else if (entry != null) {
-                            SafeZipFile sourceZipFile = matchedZipFile != null
-                                ? matchedZipFile
-                                : entryToZipFileMap.get(actualSourcePath);
-                            if (sourceZipFile == null) {
-                                sourceZipFile = baseZipFile;
-                            }
-                            sourceZipFile.unzipToFile(entry, target);
-                        } else {
-                            InputStream in = openResolvedResourceStream(resolvedResource);
-                            UpdateFileUtils.copyInputStreamToFile(in, target);
-                        }
-                        lastTarget = target;
-                    } catch (IOException e) {
-                        // A located resource that fails to write is a hard
-                        // failure, not a skip: record it and fail the update
-                        // after the loop so a broken update is not activated.
-                        Log.e(
-                            UpdateContext.TAG,
-                            "Failed to copy resource "
-                                + actualSourcePath
-                                + " to "
-                                + target,
-                            e
-                        );
-                        failedCopies.add(actualSourcePath + " -> " + target);
+    // The entry of one archive's index for fromPath, or -1: by name, then
+    // by normalized name, then by content when the path match is missing or
+    // has other bytes than the declared CRC32.
+    private static int locate(ApkEntryIndex tier, String fromPath, long wantedCrc) {
+        int entry = tier.find(fromPath);
+        if (entry < 0) {
+            entry = tier.findNormalized(fromPath);
+        }
+
+        // Verify a path-matched entry against the manifest-declared CRC32:
+        // a rebuilt binary can keep the path but drift the content. On
+        // mismatch, discard the path match and try to locate the expected
+        // content elsewhere. An entry with an unknown CRC (-1) cannot be
+        // verified and is accepted as-is.
+        if (entry >= 0 && wantedCrc != PatchManifest.NO_CRC
+            && tier.crcs[entry] != -1L && tier.crcs[entry] != wantedCrc) {
+            entry = -1;
+        }
+
+        // Content (CRC32) match: robust across APK/AAB packaging because the
+        // checksum is over the uncompressed file content, not its path.
+        // Preferred over the resource-id heuristic.
+        if (entry < 0 && wantedCrc != PatchManifest.NO_CRC) {
+            entry = tier.findCrc(wantedCrc);
+        }
+        return entry;
+    }
+
+    // Runs jobs on up to MAX_COPY_WORKERS threads, each with its own
+    // archive handles. Every job is attempted, as sequentially: the
+    // failures of all of them are returned, for the caller to fail the
+    // update as a whole.
+    private ArrayList<String> copyAll(
+        InstalledApkIndex index,
+        SharedAssetStore store,
+        InstallJournal journal,
+        ArrayList<CopyJob> jobs
+    ) throws IOException {
+        // Largest first: a big entry started last would leave one worker
+        // running alone at the end.
+        Collections.sort(jobs, new Comparator<CopyJob>() {
+            @Override
+            public int compare(CopyJob a, CopyJob b) {
+                return Long.compare(b.size, a.size);
+            }
+        });
+        int workers = Math.max(1, Math.min(
+            Math.min(MAX_COPY_WORKERS, Runtime.getRuntime().availableProcessors()),
+            jobs.size() / MIN_COPIES_PER_WORKER));
+        CopyWorker worker = new CopyWorker(index, store, journal, jobs);
+        ArrayList<Future<ArrayList<String>>> futures = new ArrayList<Future<ArrayList<String>>>();
+        for (int i = 1; i < workers; i++) {
+            futures.add(COPY_EXECUTOR.submit(worker));
+        }
+
+        ArrayList<String> failedCopies = worker.call();
+        boolean interrupted = false;
+        for (Future<ArrayList<String>> future : futures) {
+            while (true) {
+                try {
+                    failedCopies.addAll(future.get());
+                    break;
+                } catch (InterruptedException e) {
+                    // Workers still write under the patch directory: let
+                    // them stop before the failure cleanup removes it.
+                    worker.stop();
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
                     }
+                    throw new IOException(String.valueOf(cause), cause);
                 }
-                remainingFiles.remove(fromPath);
             }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+            throw new java.io.InterruptedIOException("Resource copy interrupted");
+        }
+        return failedCopies;
+    }
 
-            if (!crcMismatches.isEmpty()) {
-                throw new IOException(
-                    "Bundled resource content mismatch (crc32) for "
-                        + crcMismatches.size() + " entries: " + crcMismatches
-                );
-            }
+    // One instance shared by all workers of a copyAll call; each call()
+    // extracts through its own InstalledApkIndex.Reader.
+    private final class CopyWorker implements Callable<ArrayList<String>> {
+        private final InstalledApkIndex index;
+        private final SharedAssetStore store;
+        private final InstallJournal journal;
+        private final ArrayList<CopyJob> jobs;
+        private final AtomicInteger cursor = new AtomicInteger();
+
+        CopyWorker(
+            InstalledApkIndex index,
+            SharedAssetStore store,
+            InstallJournal journal,
+            ArrayList<CopyJob> jobs
+        ) {
+            this.index = index;
+            this.store = store;
+            this.journal = journal;
+            this.jobs = jobs;
+        }
 
-            if (!failedCopies.isEmpty()) {
-                throw new IOException(
-                    "Failed to copy " + failedCopies.size()
-                        + " bundled resource(s): " + failedCopies
-                );
-            }
+        void stop() {
+            cursor.set(jobs.size());
+        }
 
-            if (!remainingFiles.isEmpty()) {
-                Log.w(
-                    UpdateContext.TAG,
-                    "Skipped " + remainingFiles.size() + " missing bundled resources"
-                );
+        @Override
+        public ArrayList<String> call() {
+            ArrayList<String> failedCopies = new ArrayList<String>();
+            try (InstalledApkIndex.Reader reader = index.openReader()) {
+                int next;
+                while ((next = cursor.getAndIncrement()) < jobs.size()) {
+                    CopyJob job = jobs.get(next);
+                    if (copy(reader, store, job, failedCopies) && journal != null) {
+                        journal.copied(job.fromPath);
+                    }
+                }
             }
-        } finally {
-            closeZipFiles(zipFileMap);
+            return failedCopies;
         }
     }
 
-    private String normalizeResPath(String path) {
-        String result = path;
-        if (result.startsWith(AAB_BASE_PREFIX)) {
-            result = result.substring(AAB_BASE_PREFIX.length());
+    // Whether every target of job was written.
+    private boolean copy(
+        InstalledApkIndex.Reader reader,
+        SharedAssetStore store,
+        CopyJob job,
+        ArrayList<String> failedCopies
+    ) {
+        // Content-addressed only when the archive declares the CRC32 that
+        // extraction verifies.
+        boolean shared = store != null && job.entry >= 0 && job.crc != -1L;
+        File lastTarget = null;
+        boolean written = true;
+        for (File target : job.targets) {
+            try {
+                // A resumed install redoes a group it did not record as
+                // copied: its old targets may be links into the store,
+                // which would refuse a new link and must not be written.
+                if (target.exists() && !target.delete()) {
+                    throw new IOException("Failed to replace existing file: " + target);
+                }
+                if (lastTarget != null) {
+                    // Same content within the new version directory: one
+                    // inode for all targets where the filesystem allows.
+                    UpdateFileUtils.linkOrCopyFile(lastTarget, target);
+                } else if (job.entry >= 0) {
+                    // Unless an earlier install extracted the same content:
+                    // from the archive the entry was indexed in, as a CRC
+                    // match may sit in a split that also has a same-named
+                    // entry with other bytes.
+                    if (!shared || !store.linkTo(job.crc, job.size, target)) {
+                        reader.extract(job.entry, target);
+                        if (shared) {
+                            store.add(job.crc, job.size, target);
+                        }
+                    }
+                } else {
+                    InputStream in = openResolvedResourceStream(job.resolvedResource);
+                    UpdateFileUtils.copyInputStreamToFile(in, target);
+                }
+                lastTarget = target;
+            } catch (IOException e) {
+                // A located resource that fails to write is a hard failure,
+                // not a skip: record it and fail the update once every job
+                // has run so a broken update is not activated.
+                Log.e(
+                    UpdateContext.TAG,
+                    "Failed to copy resource "
+                        + job.sourcePath
+                        + " to "
+                        + target,
+                    e
+                );
+                failedCopies.add(job.sourcePath + " -> " + target);
+                written = false;
+            }
         }
-        return VERSION_QUALIFIER_PATTERN.matcher(result).replaceAll("");
+        return written;
     }
 
     private String extractResourceType(String directoryName) {
@@ -296,7 +488,7 @@ final class BundledResourceCopier {
     }
 
     private ResolvedResourceSource resolveBundledResource(String resourcePath) {
-        String normalizedPath = normalizeResPath(resourcePath);
+        String normalizedPath = ApkEntryIndex.normalize(resourcePath);
         if (normalizedPath.startsWith("res/")) {
             normalizedPath = normalizedPath.substring("res/".length());
         }
@@ -375,16 +567,4 @@ final class BundledResourceCopier {
 
         return apkPaths;
     }
-
-    private void closeZipFiles(HashMap<String, SafeZipFile> zipFileMap) {
-        for (SafeZipFile zipFile : zipFileMap.values()) {
-            try {
-                zipFile.close();
-            } catch (IOException e) {
-                if (UpdateContext.DEBUG) {
-                    Log.w(UpdateContext.TAG, "Failed to close zip file", e);
-                }
-            }
-        }
-    }
 }
@@ -1,6 +0,0 @@
-package cn.reactnative.modules.update;
-
-class CopyGroupResult {
-    String from;
-    String[] toPaths;
-}
@@ -0,0 +1,82 @@
+package cn.reactnative.modules.update;
+
+import java.util.ArrayList;
+import okhttp3.Call;
+
+/**
+ * Cancellation state of one DownloadTask. Cancelling aborts every tracked
+ * OkHttp call (blocked reads fail immediately) and runs the registered
+ * callbacks; loops that do not block on the network poll throwIfCancelled()
+ * at their chunk or entry boundaries.
+ */
+final class DownloadCancellation {
+    private final Object lock = new Object();
+    private final ArrayList<Call> calls = new ArrayList<Call>();
+    private final ArrayList<Runnable> callbacks = new ArrayList<Runnable>();
+    private volatile boolean cancelled = false;
+
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    void throwIfCancelled() throws DownloadCancelledException {
+        if (cancelled) {
+            throw new DownloadCancelledException("Download cancelled");
+        }
+    }
+
+    /** A call tracked after cancellation is cancelled right away. */
+    void track(Call call) {
+        synchronized (lock) {
+            if (!cancelled) {
+                calls.add(call);
+                return;
+            }
+        }
+        call.cancel();
+    }
+
+    void untrack(Call call) {
+        synchronized (lock) {
+            calls.remove(call);
+        }
+    }
+
+    /** A callback registered after cancellation runs right away. */
+    void onCancel(Runnable callback) {
+        synchronized (lock) {
+            if (!cancelled) {
+                callbacks.add(callback);
+                return;
+            }
+        }
+        callback.run();
+    }
+
+    void removeOnCancel(Runnable callback) {
+        synchronized (lock) {
+            callbacks.remove(callback);
+        }
+    }
+
+    void cancel() {
+        ArrayList<Call> pendingCalls;
+        ArrayList<Runnable> pendingCallbacks;
+        synchronized (lock) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            pendingCalls = new ArrayList<Call>(calls);
+            pendingCallbacks = new ArrayList<Runnable>(callbacks);
+            calls.clear();
+            callbacks.clear();
+        }
+        for (Call call : pendingCalls) {
+            call.cancel();
+        }
+        for (Runnable callback : pendingCallbacks) {
+            callback.run();
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package cn.reactnative.modules.update;
+
+import java.io.IOException;
+
+/**
+ * The download task was cancelled — by cancelDownload(hash) from JS, or by
+ * the native check giving up on an attempt whose deadline expired. Rejects
+ * as DOWNLOAD_FAILED and never counts as a patch failure, even when it
+ * interrupted the unzip / patch phase: the archive itself is intact.
+ */
+class DownloadCancelledException extends IOException {
+    DownloadCancelledException(String message) {
+        super(message);
+    }
+}
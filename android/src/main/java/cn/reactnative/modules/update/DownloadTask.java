@@ -1,21 +1,24 @@
 package cn.reactnative.modules.update;
 
 import android.content.Context;
-import android.os.Handler;
-import android.os.Looper;
+import android.content.res.AssetFileDescriptor;
 import android.util.Log;
-import com.facebook.react.bridge.Arguments;
-import com.facebook.react.bridge.WritableMap;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.zip.ZipEntry;
+import okhttp3.Call;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
@@ -33,53 +36,44 @@ class DownloadTask implements Runnable {
     // events on percentage change, so throttle by bytes to avoid flooding the
     // bridge (e.g. a 20MB chunked download would otherwise emit ~5000 events).
     private static final long PROGRESS_BYTES_THRESHOLD = 256 * 1024;
-    // Explicit timeouts: the default client has no call timeout, so a
-    // slow-dripping connection could occupy the single-threaded download
-    // executor indefinitely and starve queued tasks. The call timeout is a
-    // generous upper bound sized for large full-package downloads.
-    private static final OkHttpClient HTTP_CLIENT = new OkHttpClient.Builder()
-            .connectTimeout(15, java.util.concurrent.TimeUnit.SECONDS)
-            .readTimeout(30, java.util.concurrent.TimeUnit.SECONDS)
-            .writeTimeout(30, java.util.concurrent.TimeUnit.SECONDS)
-            .callTimeout(10, java.util.concurrent.TimeUnit.MINUTES)
-            .build();
-
     static {
         NativeUpdateCore.ensureLoaded();
     }
 
     private static final class PatchArchiveContents {
-        final ArrayList<String> entryNames = new ArrayList<String>();
-        final ArrayList<String> copyFroms = new ArrayList<String>();
-        final ArrayList<String> copyTos = new ArrayList<String>();
-        final ArrayList<String> deletes = new ArrayList<String>();
-        // __diff.json 的 hbcTransform 元数据(按 patch 条目名索引);
-        // 为空对象/缺失时返回 ""(native 走现状路径)
-        JSONObject hbcTransform;
-
-        String hbcTransformMetaFor(String patchEntryName) {
-            if (hbcTransform == null) {
-                return "";
-            }
-            JSONObject meta = hbcTransform.optJSONObject(patchEntryName);
-            return meta != null ? meta.toString() : "";
-        }
-        // Maps a copy source path ("from") to the CRC32 of the file content,
-        // when provided by the manifest ("copiesCrc"). Lets the resource
-        // copier locate the file by content if the path is not present on
-        // device (APK baseline -> AAB install path shortening).
-        final HashMap<String, Long> copyCrcs = new HashMap<String, Long>();
+        String[] entryNames;
+        // __diff.json; empty when the archive has none. Its copiesCrc lets
+        // the resource copier locate a file by content if the path is not
+        // present on device (APK baseline -> AAB install path shortening).
+        PatchManifest manifest = new PatchManifest();
+        // Where the native patcher reads index.bundlejs.patch: the archive
+        // itself when the entry is STORED (nothing is staged), otherwise the
+        // extracted copy (offset 0, length -1: the whole file).
+        String bundlePatchPath;
+        long bundlePatchOffset = 0;
+        long bundlePatchLength = -1;
     }
 
     private final Context context;
     private final DownloadTaskParams params;
-    private final Handler mainHandler = new Handler(Looper.getMainLooper());
     private final byte[] buffer = new byte[DOWNLOAD_CHUNK_SIZE];
     private final BundledResourceCopier bundledResourceCopier;
     private String hash;
     // Set once downloadFile() returns: failures after this point in a patch
     // task are patch-application failures, not download failures.
     private boolean downloadPhaseCompleted = false;
+    // Set by doFullPatch while the archive is extracted as it downloads.
+    private StreamingUnzip streamingUnzip;
+    // Digest of the archive as transferArchive wrote it, and how many bytes
+    // it covers; null when it did not hash (no declared digest, or the
+    // bytes arrived another way).
+    private String streamedDigest;
+    private long streamedDigestLength;
+    private long streamedDigestNanos;
+    // Set when the whole archive matched its declared sha256: per-entry
+    // CRC passes over stored entries add nothing after that.
+    private boolean archiveVerified = false;
+    private final DownloadCancellation cancellation = new DownloadCancellation();
 
     DownloadTask(Context context, DownloadTaskParams params) {
         this.context = context.getApplicationContext();
@@ -87,20 +81,51 @@ class DownloadTask implements Runnable {
         this.bundledResourceCopier = new BundledResourceCopier(this.context);
     }
 
-    private void postProgress(final long received, final long total) {
-        // Cross-platform progress contract: unknown length is reported as
-        // total=0, never a raw -1 (OkHttp's contentLength for chunked/gzip).
-        final long normalizedTotal = total > 0 ? total : 0;
-        mainHandler.post(new Runnable() {
-            @Override
-            public void run() {
-                WritableMap progress = Arguments.createMap();
-                progress.putDouble("received", received);
-                progress.putDouble("total", normalizedTotal);
-                progress.putString("hash", hash);
-                UpdateEventEmitter.sendEvent("RCTPushyDownloadProgress", progress);
-            }
-        });
+    DownloadCancellation cancellation() {
+        return cancellation;
+    }
+
+    /**
+     * Stops the task at its next chunk boundary: in-flight HTTP calls fail
+     * immediately, unzip and copy loops stop before their next entry. The
+     * resume state of a download-phase cancellation is kept, and so is a
+     * fully downloaded archive — it was not the cause.
+     */
+    void cancel() {
+        cancellation.cancel();
+    }
+
+    /**
+     * Cancels a task taken out of the scheduler's queue before it started:
+     * run() will never be called, so its listener is failed here, and
+     * nothing on disk was touched.
+     */
+    void cancelBeforeStart() {
+        cancellation.cancel();
+        if (params.listener != null) {
+            params.listener.onDownloadFailed(new DownloadCancelledException("Download cancelled"));
+        }
+    }
+
+    void postProgress(long received, long total) {
+        ProgressHub.post(hash, received, total, false);
+    }
+
+    // Called by the transfer paths whenever the leading bytes of the archive
+    // on disk grow, so a streaming unzip can follow them.
+    void onArchiveBytesAvailable(long contiguousLength) {
+        if (streamingUnzip != null) {
+            streamingUnzip.onBytesAvailable(contiguousLength);
+        }
+    }
+
+    // The streaming unzip reads what is on disk; once those bytes are
+    // replaced it has consumed content that no longer exists and has to
+    // give way to the two-pass extraction.
+    private void discardStreamedPrefix() {
+        if (streamingUnzip != null && streamingUnzip.isStarted()) {
+            streamingUnzip.abandon();
+        }
     }
 
     // Sidecar next to the archive recording what a partial download belongs
@@ -116,6 +141,34 @@ class DownloadTask implements Runnable {
         if (sidecar.exists() && !sidecar.delete() && UpdateContext.DEBUG) {
             Log.w(UpdateContext.TAG, "Failed to delete resume sidecar " + sidecar);
         }
+        // Left behind when a sidecar write died before its rename.
+        new File(sidecar.getPath() + ".tmp").delete();
+        BlockChecksums.delete(archive);
+    }
+
+    // Truncates a linear partial to the part its block checksums vouch for
+    // and returns the new length. Partials from before block checksums
+    // existed have no companion and keep their full length.
+    private static long rollBackUnverifiedTail(File partial, long knownTotal) {
+        long size = partial.length();
+        if (!BlockChecksums.exists(partial)) {
+            return size;
+        }
+        try (BlockChecksums blocks = BlockChecksums.open(partial)) {
+            long verified = blocks.verifiedEnd(0, size, knownTotal);
+            if (verified < size) {
+                Log.w(UpdateContext.TAG, "Rolling back " + partial.getName() + " from "
+                    + size + " to " + verified + " verified bytes");
+                try (java.io.RandomAccessFile file = new java.io.RandomAccessFile(partial, "rw")) {
+                    file.setLength(verified);
+                }
+            }
+            return verified;
+        } catch (IOException e) {
+            // Unreadable checksums: the partial cannot be vouched for.
+            Log.w(UpdateContext.TAG, "Failed to verify partial blocks: " + e);
+            return 0;
+        }
     }
 
     private JSONObject readResumeMeta(File sidecar, String url) {
@@ -126,16 +179,25 @@ class DownloadTask implements Runnable {
             byte[] bytes = readBytes(new java.io.FileInputStream(sidecar));
             JSONObject meta = (JSONObject) new JSONTokener(
                 new String(bytes, StandardCharsets.UTF_8)).nextValue();
-            if (url.equals(meta.optString("url"))) {
+            String recordedUrl = meta.optString("url");
+            if (url.equals(recordedUrl)) {
                 return meta;
             }
+            // A hedged transfer records the mirror that won the race.
+            if (params.mirrorUrls != null) {
+                for (String mirror : params.mirrorUrls) {
+                    if (mirror.equals(recordedUrl)) {
+                        return meta;
+                    }
+                }
+            }
         } catch (Throwable e) {
             // A corrupt sidecar simply means "cannot resume".
         }
         return null;
     }
 
-    private void writeResumeMeta(
+    private JSONObject writeResumeMeta(
         File sidecar, String url, Response response, JSONObject previousMeta, long total
     ) {
         try {
@@ -158,20 +220,129 @@ class DownloadTask implements Runnable {
             if (total > 0) {
                 meta.put("total", total);
             }
+            return persistResumeMeta(sidecar, meta) ? meta : null;
+        } catch (Throwable e) {
+            // Non-fatal: without a sidecar the next attempt starts from zero.
+            Log.w(UpdateContext.TAG, "Failed to persist resume sidecar: " + e);
+            return null;
+        }
+    }
+
+    // Written through a temp file: the sidecar is rewritten during the
+    // transfer, and a torn one would throw the whole partial away.
+    private static boolean persistResumeMeta(File sidecar, JSONObject meta) {
+        File tmp = new File(sidecar.getPath() + ".tmp");
+        try {
             UpdateFileUtils.ensureParentDirectory(sidecar);
-            try (java.io.FileOutputStream out = new java.io.FileOutputStream(sidecar)) {
+            try (java.io.FileOutputStream out = new java.io.FileOutputStream(tmp)) {
                 out.write(meta.toString().getBytes(StandardCharsets.UTF_8));
             }
+            if (!tmp.renameTo(sidecar)) {
+                throw new IOException("Failed to rename " + tmp);
+            }
+            return true;
         } catch (Throwable e) {
-            // Non-fatal: without a sidecar the next attempt starts from zero.
             Log.w(UpdateContext.TAG, "Failed to persist resume sidecar: " + e);
+            tmp.delete();
+            return false;
         }
     }
 
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Required of every Java platform.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] raw) {
+        StringBuilder hex = new StringBuilder(raw.length * 2);
+        for (byte b : raw) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+            hex.append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    // Feeds the first length bytes of file into digest. A resumed transfer
+    // re-reads the prefix it already wrote (verified by BlockChecksums):
+    // MessageDigest cannot carry its state across processes, and reading
+    // the prefix back costs less than hashing inline with an exportable
+    // digest (scripts/bench-android-java.sh).
+    private static void digestPrefix(File file, long length, MessageDigest digest)
+        throws IOException {
+        try (InputStream in = new java.io.FileInputStream(file)) {
+            byte[] chunk = new byte[64 * 1024];
+            while (length > 0) {
+                int n = in.read(chunk, 0, (int) Math.min(chunk.length, length));
+                if (n < 0) {
+                    throw new IOException("Partial shorter than its resume offset");
+                }
+                digest.update(chunk, 0, n);
+                length -= n;
+            }
+        }
+    }
+
+    // Adapter for okio's Buffer.copyTo.
+    private static OutputStream asOutputStream(final MessageDigest digest) {
+        return new OutputStream() {
+            @Override
+            public void write(int b) {
+                digest.update((byte) b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                digest.update(b, off, len);
+            }
+        };
+    }
+
+    // Compares the archive with the digest the check response declared for
+    // it. A mismatch discards archive and sidecar — the CDN object (or the
+    // partial) is corrupt, and resuming it would only reproduce the failure —
+    // and fails as a download error before any unzip or hpatch work.
+    private void verifyArchiveDigest(File archive) throws IOException {
+        String expected = params.expectedSha256;
+        if (expected == null || expected.isEmpty()) {
+            return;
+        }
+        String actual;
+        long startNanos = System.nanoTime();
+        if (streamedDigest != null && streamedDigestLength == archive.length()) {
+            actual = streamedDigest;
+            if (UpdateContext.DEBUG) {
+                Log.d(UpdateContext.TAG, "sha256 computed inline: "
+                    + (streamedDigestNanos + System.nanoTime() - startNanos) / 1000000
+                    + "ms over the transfer");
+            }
+        } else {
+            MessageDigest digest = newSha256();
+            digestPrefix(archive, archive.length(), digest);
+            actual = toHex(digest.digest());
+            if (UpdateContext.DEBUG) {
+                Log.d(UpdateContext.TAG, "sha256 computed by re-reading the archive: "
+                    + (System.nanoTime() - startNanos) / 1000000 + "ms");
+            }
+        }
+        streamedDigest = null;
+        if (!expected.equalsIgnoreCase(actual)) {
+            discardStreamedPrefix();
+            archive.delete();
+            deleteResumeSidecar(archive);
+            throw new IOException("Downloaded archive digest mismatch: expected "
+                + expected + ", got " + actual);
+        }
+        archiveVerified = true;
+    }
+
     // "bytes <start>-<end>/<total>". Returns the total (0 when "*"), or -1
     // when the header is missing/malformed or the start does not match the
     // local partial — either way the appended bytes could not be trusted.
-    private static long parseContentRange(String header, long expectedStart) {
+    static long parseContentRange(String header, long expectedStart) {
         if (header == null || !header.startsWith("bytes ")) {
             return -1;
         }
@@ -205,12 +376,47 @@ class DownloadTask implements Runnable {
         // window, so every partial byte must survive process death and count.
         long resumeOffset = 0;
         JSONObject resumeMeta = readResumeMeta(sidecar, url);
+        if (resumeMeta != null) {
+            // Resume from the server that produced the partial: validators
+            // from one mirror mean nothing to another.
+            url = resumeMeta.optString("url", url);
+        }
+        boolean hedged = params.mirrorUrls != null
+            && params.mirrorUrls.length > 0
+            && params.hedgeDelayMillis > 0;
+        // Mirror hedging and segmented transfer are alternatives: a task with
+        // mirrors races them on one stream instead of splitting one of them.
+        if (params.type == DownloadTaskParams.TASK_TYPE_PATCH_FULL && !hedged) {
+            // Large full packages are fetched over several ranges at once
+            // when the server allows it; a linear partial keeps resuming
+            // linearly, and a stale segmented one restarts below.
+            boolean segmentedPartial = resumeMeta != null && resumeMeta.has("segments");
+            SegmentedDownload segmented = null;
+            if (segmentedPartial) {
+                segmented = SegmentedDownload.resume(
+                    this, clientForDeadline(), url, writePath, sidecar, resumeMeta);
+            } else if (resumeMeta == null) {
+                segmented = SegmentedDownload.probe(
+                    this, clientForDeadline(), url, writePath, sidecar);
+            }
+            if (segmented != null && segmented.run()) {
+                // Segments land out of order: hashed once, after the fact.
+                verifyArchiveDigest(writePath);
+                downloadPhaseCompleted = true;
+                return;
+            }
+            if (segmentedPartial || segmented != null) {
+                // A preallocated file is not a linear prefix: start over.
+                resumeMeta = null;
+            }
+        }
         if (resumeMeta != null && writePath.isFile() && writePath.length() > 0) {
             long knownTotal = resumeMeta.optLong("total", 0);
-            long size = writePath.length();
+            long size = rollBackUnverifiedTail(writePath, knownTotal);
             if (knownTotal > 0 && size == knownTotal) {
                 // Fully received in a previous attempt (the process died
                 // between download end and unzip): nothing left to transfer.
+                verifyArchiveDigest(writePath);
                 downloadPhaseCompleted = true;
                 postProgress(knownTotal, knownTotal);
                 return;
@@ -220,6 +426,7 @@ class DownloadTask implements Runnable {
             }
         }
         if (resumeOffset == 0) {
+            discardStreamedPrefix();
             if (writePath.exists() && !writePath.delete()) {
                 throw new IOException("Failed to replace existing file: " + writePath);
             }
@@ -229,6 +436,7 @@ class DownloadTask implements Runnable {
         if (!transferArchive(url, writePath, sidecar, resumeMeta, resumeOffset)) {
             // The server rejected the range for a partial that no longer
             // matches (416): drop it and retry once from zero.
+            discardStreamedPrefix();
             if (writePath.exists() && !writePath.delete()) {
                 throw new IOException("Failed to replace existing file: " + writePath);
             }
@@ -237,9 +445,27 @@ class DownloadTask implements Runnable {
                 throw new IOException("Server rejected the download range for " + url);
             }
         }
+        verifyArchiveDigest(writePath);
         downloadPhaseCompleted = true;
     }
 
+    // The shared download client, with the call timeout capped to the
+    // task's deadline when the orchestrator gave it one.
+    private OkHttpClient clientForDeadline() throws IOException {
+        if (params.deadlineNanos <= 0) {
+            return HttpTransport.download();
+        }
+        long remainingNanos = params.deadlineNanos - System.nanoTime();
+        if (remainingNanos <= 0) {
+            throw new IOException("Download deadline expired before start");
+        }
+        long remainingMillis = Math.max(
+            1L,
+            java.util.concurrent.TimeUnit.NANOSECONDS.toMillis(remainingNanos)
+        );
+        return HttpTransport.withCallTimeout(HttpTransport.download(), remainingMillis);
+    }
+
     /**
      * One HTTP transfer, appending from resumeOffset when the server honours
      * the range. Returns false only for the retryable stale-partial case
@@ -271,22 +497,27 @@ class DownloadTask implements Runnable {
             }
         }
 
-        OkHttpClient requestClient = HTTP_CLIENT;
-        if (params.deadlineNanos > 0) {
-            long remainingNanos = params.deadlineNanos - System.nanoTime();
-            if (remainingNanos <= 0) {
-                throw new IOException("Download deadline expired before start");
-            }
-            long remainingMillis = Math.max(
-                1L,
-                java.util.concurrent.TimeUnit.NANOSECONDS.toMillis(remainingNanos)
-            );
-            requestClient = HTTP_CLIENT.newBuilder()
-                .callTimeout(remainingMillis, java.util.concurrent.TimeUnit.MILLISECONDS)
-                .build();
+        OkHttpClient requestClient = clientForDeadline();
+        Response hedgedResponse = null;
+        if (resumeOffset == 0
+            && params.mirrorUrls != null
+            && params.mirrorUrls.length > 0
+            && params.hedgeDelayMillis > 0) {
+            String[] candidates = new String[params.mirrorUrls.length + 1];
+            candidates[0] = url;
+            System.arraycopy(params.mirrorUrls, 0, candidates, 1, params.mirrorUrls.length);
+            HedgedRequest.Winner winner = HedgedRequest.execute(
+                requestClient, builder, candidates, params.hedgeDelayMillis, cancellation);
+            url = winner.url;
+            hedgedResponse = winner.response;
         }
-
-        try (Response response = requestClient.newCall(builder.build()).execute()) {
+        Response opened = hedgedResponse;
+        if (opened == null) {
+            Call call = requestClient.newCall(builder.url(url).build());
+            cancellation.track(call);
+            opened = call.execute();
+        }
+        try (Response response = opened) {
             if (response.code() == 416) {
                 long total = resumeMeta == null ? 0 : resumeMeta.optLong("total", 0);
                 if (total > 0 && writePath.length() == total) {
@@ -337,16 +568,44 @@ class DownloadTask implements Runnable {
                 // Destroy the old bytes before the sidecar can vouch for
                 // them with the new validators (a crash between the two
                 // writes must never leave a sidecar describing stale bytes).
+                discardStreamedPrefix();
                 if (writePath.exists() && !writePath.delete()) {
                     throw new IOException("Failed to replace existing file: " + writePath);
                 }
+                BlockChecksums.delete(writePath);
             }
+            streamedDigest = null;
+            JSONObject meta = null;
             if (encodedBody) {
                 // No resume across an encoded transfer.
                 deleteResumeSidecar(writePath);
             } else {
                 // Persist before streaming so a mid-stream crash can resume.
-                writeResumeMeta(sidecar, url, response, resumeMeta, totalAll);
+                meta = writeResumeMeta(sidecar, url, response, resumeMeta, totalAll);
+            }
+            MessageDigest digest = null;
+            long digestNanos = 0;
+            if (params.expectedSha256 != null) {
+                long startNanos = System.nanoTime();
+                digest = newSha256();
+                if (append) {
+                    digestPrefix(writePath, resumeOffset, digest);
+                }
+                digestNanos += System.nanoTime() - startNanos;
+            }
+            OutputStream digestSink = digest != null ? asOutputStream(digest) : null;
+            BlockChecksums blocks = null;
+            BlockChecksums.Stream blockStream = null;
+            OutputStream blockSink = null;
+            if (meta != null) {
+                blocks = BlockChecksums.open(writePath);
+                try {
+                    blockStream = blocks.stream(baseOffset, totalAll);
+                } catch (IOException e) {
+                    blocks.close();
+                    throw e;
+                }
+                blockSink = blockStream.asOutputStream();
             }
 
             long bytesRead;
@@ -355,15 +614,30 @@ class DownloadTask implements Runnable {
             long lastPostedBytes = baseOffset;
 
             try (
+                BlockChecksums ownedBlocks = blocks;
                 BufferedSource source = body.source();
                 BufferedSink sink = Okio.buffer(
                     append ? Okio.appendingSink(writePath) : Okio.sink(writePath))
             ) {
                 while ((bytesRead = source.read(sink.buffer(), DOWNLOAD_CHUNK_SIZE)) != -1) {
+                    cancellation.throwIfCancelled();
                     received += bytesRead;
+                    if (digestSink != null) {
+                        long startNanos = System.nanoTime();
+                        sink.buffer().copyTo(digestSink, 0, bytesRead);
+                        digestNanos += System.nanoTime() - startNanos;
+                    }
+                    if (blockSink != null) {
+                        sink.buffer().copyTo(blockSink, 0, bytesRead);
+                    }
                     sink.emit();
+                    if (blockStream != null) {
+                        // Slots only after their bytes reached the file.
+                        blockStream.commit();
+                    }
 
                     long overall = baseOffset + received;
+                    onArchiveBytesAvailable(overall);
                     if (totalAll > 0) {
                         int percentage = (int) (overall * 100.0 / totalAll + 0.5);
                         if (percentage > currentPercentage) {
@@ -386,10 +660,16 @@ class DownloadTask implements Runnable {
                 throw new IOException("Download incomplete: expected " + totalAll
                     + " bytes, got " + writePath.length());
             }
+            if (digest != null) {
+                streamedDigestLength = baseOffset + received;
+                streamedDigest = toHex(digest.digest());
+            }
+            streamedDigestNanos = digestNanos;
             // Final progress event, skipped when the loop already posted this
             // exact value (known length reaching 100% posts it in-loop).
             if (baseOffset + received != lastPostedBytes) {
-                postProgress(baseOffset + received, totalAll);
+                // Flushed at once even when the total is unknown.
+                ProgressHub.post(hash, baseOffset + received, totalAll, true);
             }
         }
         return true;
@@ -408,40 +688,13 @@ class DownloadTask implements Runnable {
         }
     }
 
-    private void appendManifestEntries(
-        JSONObject manifest,
-        ArrayList<String> copyFroms,
-        ArrayList<String> copyTos,
-        ArrayList<String> deletes,
-        HashMap<String, Long> copyCrcs
-    ) throws JSONException {
-        JSONObject copiesCrc = manifest.optJSONObject("copiesCrc");
-
-        JSONObject copies = manifest.optJSONObject("copies");
-        if (copies != null) {
-            Iterator<?> keys = copies.keys();
-            while (keys.hasNext()) {
-                String to = (String) keys.next();
-                String from = copies.getString(to);
-                if (from.isEmpty()) {
-                    from = to;
-                }
-                copyFroms.add(from);
-                copyTos.add(to);
-                if (copiesCrc != null && copyCrcs != null && copiesCrc.has(to)) {
-                    // Same content => same crc, so grouping multiple "to" under
-                    // one "from" stays consistent.
-                    copyCrcs.put(from, copiesCrc.getLong(to));
-                }
-            }
-        }
-
-        JSONObject deleteMap = manifest.optJSONObject("deletes");
-        if (deleteMap != null) {
-            Iterator<?> deleteKeys = deleteMap.keys();
-            while (deleteKeys.hasNext()) {
-                deletes.add((String) deleteKeys.next());
-            }
+    // The asset as a range of the APK, or null when it is compressed (openFd
+    // refuses those) and has to be copied out instead.
+    private AssetFileDescriptor openUncompressedAsset(String assetName) {
+        try {
+            return context.getAssets().openFd(assetName);
+        } catch (IOException e) {
+            return null;
         }
     }
 
@@ -451,9 +704,12 @@ class DownloadTask implements Runnable {
         }
     }
 
+    // groups: buildCopyGroups' layout, per group its size and then the
+    // indices of its copies in the manifest arrays.
     private HashMap<String, ArrayList<File>> buildCopyList(
         File unzipDirectory,
-        CopyGroupResult[] groups
+        PatchManifest manifest,
+        int[] groups
     ) throws IOException {
         HashMap<String, ArrayList<File>> copyList = new HashMap<String, ArrayList<File>>();
         if (groups == null) {
@@ -461,74 +717,183 @@ class DownloadTask implements Runnable {
         }
 
         String rootPath = unzipDirectory.getCanonicalPath() + File.separator;
-        for (CopyGroupResult group : groups) {
-            ArrayList<File> targets = new ArrayList<File>();
-            if (group.toPaths != null) {
-                for (String to : group.toPaths) {
-                    File toFile = new File(unzipDirectory, to);
-                    String canonicalPath = toFile.getCanonicalPath();
-                    if (!canonicalPath.startsWith(rootPath)) {
-                        throw new SecurityException("Illegal name: " + to);
-                    }
-                    targets.add(toFile);
+        int position = 0;
+        while (position < groups.length) {
+            int count = groups[position++];
+            String from = manifest.copyFroms[groups[position]];
+            ArrayList<File> targets = new ArrayList<File>(count);
+            for (int i = 0; i < count; i++) {
+                String to = manifest.copyTos[groups[position++]];
+                File toFile = new File(unzipDirectory, to);
+                String canonicalPath = toFile.getCanonicalPath();
+                if (!canonicalPath.startsWith(rootPath)) {
+                    throw new SecurityException("Illegal name: " + to);
                 }
+                targets.add(toFile);
             }
-            copyList.put(group.from, targets);
+            copyList.put(from, targets);
         }
 
         return copyList;
     }
 
-    private PatchArchiveContents extractPatchArchive(File archiveFile, File unzipDirectory)
+    // Reads what planning needs from the central directory alone: the
+    // manifest, looked up directly instead of waiting for a sequential scan
+    // to reach it, the entry names, and where the bundle patch can be read
+    // in place. No entry is extracted here.
+    private PatchArchiveContents readPatchArchive(File archiveFile, File unzipDirectory)
         throws IOException, JSONException {
-        UpdateFileUtils.removeDirectory(unzipDirectory);
-        UpdateFileUtils.ensureDirectory(unzipDirectory);
-
         PatchArchiveContents contents = new PatchArchiveContents();
+        contents.bundlePatchPath =
+            new File(unzipDirectory, "index.bundlejs.patch").getAbsolutePath();
         try (SafeZipFile zipFile = new SafeZipFile(archiveFile)) {
+            zipFile.setContentTrusted(archiveVerified);
+            ZipEntry manifestEntry = zipFile.getEntry("__diff.json");
+            if (manifestEntry != null) {
+                contents.manifest =
+                    PatchManifest.read(zipFile.getInputStream(manifestEntry));
+            }
+
+            contents.entryNames = new String[zipFile.size()];
+            int entryCount = 0;
             Enumeration<? extends ZipEntry> entries = zipFile.entries();
             while (entries.hasMoreElements()) {
-                ZipEntry entry = entries.nextElement();
-                String name = entry.getName();
-                contents.entryNames.add(name);
-
-                if (name.equals("__diff.json")) {
-                    byte[] bytes = readBytes(zipFile.getInputStream(entry));
-                    String json = new String(bytes, StandardCharsets.UTF_8);
-                    JSONObject manifest = (JSONObject) new JSONTokener(json).nextValue();
-                    appendManifestEntries(
-                        manifest,
-                        contents.copyFroms,
-                        contents.copyTos,
-                        contents.deletes,
-                        contents.copyCrcs
-                    );
-                    contents.hbcTransform = manifest.optJSONObject("hbcTransform");
-                    continue;
-                }
+                contents.entryNames[entryCount++] = entries.nextElement().getName();
+            }
 
-                zipFile.unzipToPath(entry, unzipDirectory);
+            ZipEntry patchEntry = zipFile.getEntry("index.bundlejs.patch");
+            if (patchEntry != null) {
+                long offset = zipFile.storedDataOffset(patchEntry);
+                if (offset >= 0 && zipFile.storedCrcMatches(patchEntry, offset)) {
+                    contents.bundlePatchPath = archiveFile.getAbsolutePath();
+                    contents.bundlePatchOffset = offset;
+                    contents.bundlePatchLength = patchEntry.getSize();
+                }
             }
         }
         return contents;
     }
 
-    private void doFullPatch() throws IOException {
-        downloadFile();
+    // Starts extracting the entries the install still needs, in the
+    // background. Skipped: the manifest, a bundle patch read in place, the
+    // bundle output, entries an earlier attempt extracted, and copy targets
+    // the copies replace anyway: every one when copiesOverwrite, i.e. a
+    // failed copy fails the patch, otherwise those of finished copy groups.
+    private SafeZipFile.Extraction startPatchExtraction(
+        File archiveFile,
+        File unzipDirectory,
+        PatchArchiveContents contents,
+        boolean copiesOverwrite,
+        InstallJournal journal
+    ) throws IOException {
+        HashSet<String> skip = journal.extractedEntries();
+        skip.add(InstallJournal.FILE_NAME);
+        skip.add("__diff.json");
+        skip.add("index.bundlejs");
+        if (contents.bundlePatchLength >= 0) {
+            skip.add("index.bundlejs.patch");
+        }
+        if (copiesOverwrite) {
+            for (String to : contents.manifest.copyTos) {
+                skip.add(to);
+            }
+        } else if (journal.resumed()) {
+            // Written over by copy groups an earlier attempt finished.
+            PatchManifest manifest = contents.manifest;
+            for (int i = 0; i < manifest.copyTos.length; i++) {
+                if (journal.isCopied(manifest.copyFroms[i])) {
+                    skip.add(manifest.copyTos[i]);
+                }
+            }
+        }
+        return SafeZipFile.startUnzipAll(
+            archiveFile,
+            unzipDirectory,
+            skip,
+            archiveVerified,
+            cancellation,
+            journal
+        );
+    }
 
-        UpdateFileUtils.removeDirectory(params.unzipDirectory);
-        UpdateFileUtils.ensureDirectory(params.unzipDirectory);
+    // The journal of this install: the one an earlier attempt of it left
+    // in unzipDirectory, or a new one in an emptied directory.
+    private InstallJournal openJournal() throws IOException {
+        return InstallJournal.open(
+            params.unzipDirectory,
+            params.type + " " + params.hash + " " + params.originHash + " "
+                + params.expectedSha256
+        );
+    }
 
-        try (SafeZipFile zipFile = new SafeZipFile(params.targetFile)) {
-            Enumeration<? extends ZipEntry> entries = zipFile.entries();
-            while (entries.hasMoreElements()) {
-                zipFile.unzipToPath(entries.nextElement(), params.unzipDirectory);
+    // Runs a patch task, or what an earlier attempt of it that the process
+    // died in left to do; the archive is consumed once every file is in
+    // place.
+    private void installPatch() throws IOException, JSONException {
+        try (InstallJournal journal = openJournal()) {
+            if (journal.resumed()) {
+                Log.i(UpdateContext.TAG, "download task: resuming install of " + params.hash);
+            }
+            if (!journal.isDone(InstallJournal.STEP_INSTALLED)) {
+                switch (params.type) {
+                    case DownloadTaskParams.TASK_TYPE_PATCH_FULL:
+                        doFullPatch(journal);
+                        break;
+                    case DownloadTaskParams.TASK_TYPE_PATCH_FROM_APK:
+                        doPatchFromApk(journal);
+                        break;
+                    default:
+                        doPatchFromPpk(journal);
+                        break;
+                }
+                journal.done(InstallJournal.STEP_INSTALLED);
             }
         }
-
         deleteConsumedArchive();
     }
 
+    private void doFullPatch(InstallJournal journal) throws IOException {
+        // Entries are inflated while the archive is still arriving. An
+        // archive that was already complete on disk never starts the
+        // stream and goes straight to the two-pass extraction below.
+        final StreamingUnzip stream =
+            new StreamingUnzip(params.targetFile, params.unzipDirectory);
+        // The cancelling thread only signals; the finally below waits.
+        Runnable abandonStream = new Runnable() {
+            @Override
+            public void run() {
+                stream.stop();
+            }
+        };
+        streamingUnzip = stream;
+        cancellation.onCancel(abandonStream);
+        boolean streamed;
+        try {
+            downloadFile();
+            streamed = stream.finish();
+        } finally {
+            cancellation.removeOnCancel(abandonStream);
+            stream.abandon();
+            streamingUnzip = null;
+        }
+        cancellation.throwIfCancelled();
+
+        if (!streamed) {
+            // Whatever a stream cut short wrote is extracted again, over
+            // it; entries an earlier attempt extracted are kept.
+            HashSet<String> skip = journal.extractedEntries();
+            skip.add(InstallJournal.FILE_NAME);
+            SafeZipFile.unzipAllToPath(
+                params.targetFile,
+                params.unzipDirectory,
+                skip,
+                archiveVerified,
+                cancellation,
+                journal
+            );
+        }
+    }
+
     // The archive and its resume sidecar live and die together: once the
     // archive is consumed (or classified as poisoned) the sidecar must not
     // survive to vouch for a file that no longer exists or cannot be trusted.
@@ -539,76 +904,132 @@ class DownloadTask implements Runnable {
         deleteResumeSidecar(params.targetFile);
     }
 
-    private void doPatchFromApk() throws IOException, JSONException {
+    private void doPatchFromApk(InstallJournal journal) throws IOException, JSONException {
         downloadFile();
-        PatchArchiveContents contents = extractPatchArchive(params.targetFile, params.unzipDirectory);
-
-        buildArchivePatchPlan(
-            DownloadTaskParams.TASK_TYPE_PATCH_FROM_APK,
-            contents.entryNames.toArray(new String[0]),
-            contents.copyFroms.toArray(new String[0]),
-            contents.copyTos.toArray(new String[0]),
-            contents.deletes.toArray(new String[0])
-        );
+        PatchArchiveContents contents = readPatchArchive(params.targetFile, params.unzipDirectory);
+        // Planning and the APK entry index overlap with the extraction;
+        // neither reads the extracted files.
+        SafeZipFile.Extraction extraction = startPatchExtraction(
+            params.targetFile, params.unzipDirectory, contents, false, journal);
+        InstalledApkIndex apkIndex = null;
+        try {
+            buildArchivePatchPlan(
+                DownloadTaskParams.TASK_TYPE_PATCH_FROM_APK,
+                contents.entryNames,
+                contents.manifest.wire()
+            );
 
-        HashMap<String, ArrayList<File>> copyList = buildCopyList(
-            params.unzipDirectory,
-            buildCopyGroups(
-                contents.copyFroms.toArray(new String[0]),
-                contents.copyTos.toArray(new String[0])
-            )
-        );
+            HashMap<String, ArrayList<File>> copyList = buildCopyList(
+                params.unzipDirectory,
+                contents.manifest,
+                buildCopyGroups(contents.manifest.wire())
+            );
+            if (journal.resumed()) {
+                Iterator<String> froms = copyList.keySet().iterator();
+                while (froms.hasNext()) {
+                    if (journal.isCopied(froms.next())) {
+                        froms.remove();
+                    }
+                }
+            }
+            if (!copyList.isEmpty()) {
+                apkIndex = bundledResourceCopier.openIndex();
+            }
+            extraction.await();
 
+            if (!journal.isDone(InstallJournal.STEP_PATCHED)) {
+                patchBundleFromApk(contents);
+                journal.done(InstallJournal.STEP_PATCHED);
+            }
+
+            if (apkIndex != null) {
+                cancellation.throwIfCancelled();
+                bundledResourceCopier.copyFromResource(
+                    apkIndex,
+                    copyList,
+                    contents.manifest,
+                    new SharedAssetStore(params.unzipDirectory.getParentFile()),
+                    journal
+                );
+            }
+        } finally {
+            // No-op once awaited; otherwise stops the workers before the
+            // failure cleanup removes their target directory.
+            extraction.abandon();
+        }
+    }
+
+    private void patchBundleFromApk(PatchArchiveContents contents) throws IOException {
+        // The origin bundle is read in place from the APK when aapt stored
+        // it uncompressed; only a compressed asset is copied out first.
+        AssetFileDescriptor originAsset = openUncompressedAsset("index.android.bundle");
         File originBundleFile = new File(params.unzipDirectory, ".origin.bundle");
-        copyBundledAssetToFile("index.android.bundle", originBundleFile);
         try {
-            applyPatchFromFileSource(
+            if (originAsset == null) {
+                copyBundledAssetToFile("index.android.bundle", originBundleFile);
+            }
+            cancellation.throwIfCancelled();
+            applyPatchFromFileRanges(
                 params.unzipDirectory.getAbsolutePath(),
                 params.unzipDirectory.getAbsolutePath(),
                 originBundleFile.getAbsolutePath(),
-                new File(params.unzipDirectory, "index.bundlejs.patch").getAbsolutePath(),
+                originAsset != null ? originAsset.getParcelFileDescriptor().getFd() : -1,
+                originAsset != null ? originAsset.getStartOffset() : 0,
+                originAsset != null ? originAsset.getLength() : -1,
+                contents.bundlePatchPath,
+                contents.bundlePatchOffset,
+                contents.bundlePatchLength,
                 new File(params.unzipDirectory, "index.bundlejs").getAbsolutePath(),
                 "",
                 false,
-                new String[0],
-                new String[0],
-                new String[0],
-                contents.hbcTransformMetaFor("index.bundlejs.patch")
+                null,
+                contents.manifest.hbcTransformMetaFor("index.bundlejs.patch")
             );
         } finally {
+            if (originAsset != null) {
+                originAsset.close();
+            }
             originBundleFile.delete();
         }
-
-        bundledResourceCopier.copyFromResource(copyList, contents.copyCrcs);
-        deleteConsumedArchive();
     }
 
-    private void doPatchFromPpk() throws IOException, JSONException {
+    private void doPatchFromPpk(InstallJournal journal) throws IOException, JSONException {
         downloadFile();
-        PatchArchiveContents contents = extractPatchArchive(params.targetFile, params.unzipDirectory);
-
-        ArchivePatchPlanResult plan = buildArchivePatchPlan(
-            DownloadTaskParams.TASK_TYPE_PATCH_FROM_PPK,
-            contents.entryNames.toArray(new String[0]),
-            contents.copyFroms.toArray(new String[0]),
-            contents.copyTos.toArray(new String[0]),
-            contents.deletes.toArray(new String[0])
-        );
+        PatchArchiveContents contents = readPatchArchive(params.targetFile, params.unzipDirectory);
+        SafeZipFile.Extraction extraction = startPatchExtraction(
+            params.targetFile, params.unzipDirectory, contents, true, journal);
+        ArchivePatchPlanResult plan;
+        try {
+            plan = buildArchivePatchPlan(
+                DownloadTaskParams.TASK_TYPE_PATCH_FROM_PPK,
+                contents.entryNames,
+                contents.manifest.wire()
+            );
+            extraction.await();
+        } finally {
+            extraction.abandon();
+        }
 
-        applyPatchFromFileSource(
+        // Bundle, copies and merge in one native call: a resumed attempt
+        // runs all of it again. Copies overwrite their targets and the
+        // merge only adds missing files, all of them written whole.
+        cancellation.throwIfCancelled();
+        applyPatchFromFileRanges(
             params.originDirectory.getAbsolutePath(),
             params.unzipDirectory.getAbsolutePath(),
             new File(params.originDirectory, "index.bundlejs").getAbsolutePath(),
-            new File(params.unzipDirectory, "index.bundlejs.patch").getAbsolutePath(),
+            -1,
+            0,
+            -1,
+            contents.bundlePatchPath,
+            contents.bundlePatchOffset,
+            contents.bundlePatchLength,
             new File(params.unzipDirectory, "index.bundlejs").getAbsolutePath(),
             plan.mergeSourceSubdir,
             plan.enableMerge,
-            contents.copyFroms.toArray(new String[0]),
-            contents.copyTos.toArray(new String[0]),
-            contents.deletes.toArray(new String[0]),
-            contents.hbcTransformMetaFor("index.bundlejs.patch")
+            contents.manifest.wire(),
+            contents.manifest.hbcTransformMetaFor("index.bundlejs.patch")
         );
-        deleteConsumedArchive();
     }
 
     private void doCleanUp() {
@@ -625,16 +1046,22 @@ class DownloadTask implements Runnable {
             case DownloadTaskParams.TASK_TYPE_PATCH_FULL:
             case DownloadTaskParams.TASK_TYPE_PATCH_FROM_APK:
             case DownloadTaskParams.TASK_TYPE_PATCH_FROM_PPK:
-                try {
-                    UpdateFileUtils.removeDirectory(params.unzipDirectory);
-                } catch (IOException ioException) {
-                    Log.e(UpdateContext.TAG, "Failed to clean patched directory", ioException);
+                // A cancelled install keeps what it did for the next
+                // attempt, as the process dying would.
+                if (!cancellation.isCancelled()) {
+                    try {
+                        UpdateFileUtils.removeDirectory(params.unzipDirectory);
+                    } catch (IOException ioException) {
+                        Log.e(UpdateContext.TAG, "Failed to clean patched directory", ioException);
+                    }
                 }
-                if (downloadPhaseCompleted) {
+                if (downloadPhaseCompleted && !cancellation.isCancelled()) {
                     // Fully received but failed to unzip/patch: the archive is
                     // poisoned, and resuming it would fail the same way on
                     // every future attempt. A download-phase failure keeps the
-                    // partial + sidecar instead — that is the resume state.
+                    // partial + sidecar instead — that is the resume state —
+                    // and so does a cancellation, which says nothing about
+                    // the archive.
                     deleteConsumedArchive();
                 }
                 break;
@@ -674,19 +1101,17 @@ class DownloadTask implements Runnable {
         final boolean alreadyCompleted = isPatchTask(taskType)
             && hasCompletedPatchDirectory();
         try {
+            // Cancelled while still queued: give the lane back at once.
+            cancellation.throwIfCancelled();
             if (alreadyCompleted) {
                 Log.i(UpdateContext.TAG,
                     "download task: version " + params.hash + " already completed");
             } else {
                 switch (taskType) {
                     case DownloadTaskParams.TASK_TYPE_PATCH_FULL:
-                        doFullPatch();
-                        break;
                     case DownloadTaskParams.TASK_TYPE_PATCH_FROM_APK:
-                        doPatchFromApk();
-                        break;
                     case DownloadTaskParams.TASK_TYPE_PATCH_FROM_PPK:
-                        doPatchFromPpk();
+                        installPatch();
                         break;
                     case DownloadTaskParams.TASK_TYPE_CLEANUP:
                         doCleanUp();
@@ -713,7 +1138,13 @@ class DownloadTask implements Runnable {
                 // verification) is a patch failure, not a download failure —
                 // the module maps the exception type to PATCH_FAILED.
                 Throwable classified = error;
-                if (downloadPhaseCompleted
+                if (cancellation.isCancelled()) {
+                    // Whatever the aborted call or loop threw, the cause
+                    // is the cancellation.
+                    classified = error instanceof DownloadCancelledException
+                        ? error
+                        : new DownloadCancelledException("Download cancelled: " + error);
+                } else if (downloadPhaseCompleted
                     && isPatchTask(taskType)
                     && !(error instanceof PatchFailedException)) {
                     classified = new PatchFailedException(
@@ -740,6 +1171,8 @@ class DownloadTask implements Runnable {
                 if (!marker.createNewFile() && !marker.isFile()) {
                     throw new IOException("Failed to mark completed update: " + marker);
                 }
+                // Committed: nothing is left to resume.
+                InstallJournal.delete(params.unzipDirectory);
             } catch (Throwable error) {
                 Log.e(UpdateContext.TAG, "failed to mark completed update", error);
                 cleanUpAfterFailure(taskType);
@@ -765,17 +1198,22 @@ class DownloadTask implements Runnable {
         }
     }
 
-    private static native void applyPatchFromFileSource(
+    // Origin bundle and bundle patch as byte ranges of larger files (length
+    // -1: to the end); originBundleFd >= 0 is read instead of originBundlePath.
+    private static native void applyPatchFromFileRanges(
         String sourceRoot,
         String targetRoot,
         String originBundlePath,
+        int originBundleFd,
+        long originBundleOffset,
+        long originBundleLength,
         String bundlePatchPath,
+        long bundlePatchOffset,
+        long bundlePatchLength,
         String bundleOutputPath,
         String mergeSourceSubdir,
         boolean enableMerge,
-        String[] copyFroms,
-        String[] copyTos,
-        String[] deletes,
+        ByteBuffer manifest,
         String hbcTransformMeta
     );
 
@@ -789,13 +1227,8 @@ class DownloadTask implements Runnable {
     private static native ArchivePatchPlanResult buildArchivePatchPlan(
         int patchType,
         String[] entryNames,
-        String[] copyFroms,
-        String[] copyTos,
-        String[] deletes
+        ByteBuffer manifest
     );
 
-    private static native CopyGroupResult[] buildCopyGroups(
-        String[] copyFroms,
-        String[] copyTos
-    );
+    private static native int[] buildCopyGroups(ByteBuffer manifest);
 }
@@ -23,6 +23,13 @@ class DownloadTaskParams {
     // Absolute System.nanoTime deadline for orchestrated cold-start downloads;
     // 0 keeps the normal public API's 10-minute per-call timeout.
     long        deadlineNanos;
+    // Other URLs serving the same artifact, raced against url once it has
+    // not delivered its first bytes within hedgeDelayMillis (0 = off).
+    String[]    mirrorUrls;
+    long        hedgeDelayMillis;
+    // Lowercase hex sha256 the check response declared for the archive
+    // ("digests"); null skips verification.
+    String      expectedSha256;
     File        targetFile;
     File        unzipDirectory;
     File        originDirectory;
@@ -0,0 +1,187 @@
+package cn.reactnative.modules.update;
+
+import android.util.Log;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Races one download over several mirrors of the same artifact. The first
+ * mirror starts alone; whenever the newest contender has not buffered
+ * PROBE_BYTES within the hedge delay, the next mirror starts alongside it.
+ * The first response to buffer the probe wins — which covers both a dead
+ * mirror (no bytes at all) and one crawling below PROBE_BYTES per delay —
+ * and every other call is cancelled. A mirror that fails outright hands over
+ * to the next one immediately, like the sequential fallback did.
+ */
+final class HedgedRequest {
+    private static final long PROBE_BYTES = 32 * 1024;
+
+    static final class Winner {
+        final Response response;
+        final String url;
+        private final int index;
+
+        Winner(Response response, String url, int index) {
+            this.response = response;
+            this.url = url;
+            this.index = index;
+        }
+    }
+
+    private final OkHttpClient client;
+    private final Request.Builder builder;
+    private final String[] urls;
+    private final long hedgeDelayMillis;
+    private final DownloadCancellation cancellation;
+    private final Object lock = new Object();
+    private final ArrayList<Call> calls = new ArrayList<Call>();
+    // Guarded by lock.
+    private Winner winner;
+    private int failures = 0;
+    private IOException lastFailure;
+    private boolean settled = false;
+
+    private HedgedRequest(
+        OkHttpClient client,
+        Request.Builder builder,
+        String[] urls,
+        long hedgeDelayMillis,
+        DownloadCancellation cancellation
+    ) {
+        this.client = client;
+        this.builder = builder;
+        this.urls = urls;
+        this.hedgeDelayMillis = hedgeDelayMillis;
+        this.cancellation = cancellation;
+    }
+
+    /**
+     * Blocks until one mirror delivered its probe or all of them failed. The
+     * builder carries the shared headers; its URL is replaced per mirror.
+     */
+    static Winner execute(
+        OkHttpClient client,
+        Request.Builder builder,
+        String[] urls,
+        long hedgeDelayMillis,
+        DownloadCancellation cancellation
+    ) throws IOException {
+        return new HedgedRequest(client, builder, urls, hedgeDelayMillis, cancellation).run();
+    }
+
+    private Winner run() throws IOException {
+        synchronized (lock) {
+            start(0);
+            long nextHedgeAt = System.nanoTime()
+                + java.util.concurrent.TimeUnit.MILLISECONDS.toNanos(hedgeDelayMillis);
+            try {
+                while (true) {
+                    if (winner != null) {
+                        settled = true;
+                        cancelLosers();
+                        return winner;
+                    }
+                    int started = calls.size();
+                    boolean allFailed = failures == started;
+                    if (allFailed && started == urls.length) {
+                        settled = true;
+                        throw lastFailure != null
+                            ? lastFailure
+                            : new IOException("All download mirrors failed");
+                    }
+                    long now = System.nanoTime();
+                    if (started < urls.length && (allFailed || now >= nextHedgeAt)) {
+                        if (!allFailed) {
+                            Log.i(UpdateContext.TAG, "hedging download on mirror " + urls[started]);
+                        }
+                        start(started);
+                        nextHedgeAt = now
+                            + java.util.concurrent.TimeUnit.MILLISECONDS.toNanos(hedgeDelayMillis);
+                        continue;
+                    }
+                    if (started < urls.length) {
+                        long waitMillis = Math.max(1L,
+                            java.util.concurrent.TimeUnit.NANOSECONDS.toMillis(nextHedgeAt - now));
+                        lock.wait(waitMillis);
+                    } else {
+                        lock.wait();
+                    }
+                }
+            } catch (InterruptedException e) {
+                settled = true;
+                cancelAll();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Hedged download interrupted");
+            } catch (IOException | RuntimeException e) {
+                cancelAll();
+                throw e;
+            }
+        }
+    }
+
+    // Called with lock held.
+    private void start(final int index) {
+        final String url = urls[index];
+        Call call = client.newCall(builder.url(url).build());
+        calls.add(call);
+        // Cancelling the task fails every contender, which ends the race.
+        cancellation.track(call);
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call c, IOException e) {
+                synchronized (lock) {
+                    failures++;
+                    lastFailure = e;
+                    lock.notifyAll();
+                }
+            }
+
+            @Override
+            public void onResponse(Call c, Response response) {
+                try {
+                    ResponseBody body = response.body();
+                    if (!response.isSuccessful() || body == null) {
+                        throw new IOException("Server error: " + response.code() + " "
+                            + response.message() + " from " + url);
+                    }
+                    // Blocks this dispatcher thread until the probe is
+                    // buffered or the body ends (a tiny artifact).
+                    body.source().request(PROBE_BYTES);
+                } catch (IOException e) {
+                    response.close();
+                    onFailure(c, e);
+                    return;
+                }
+                synchronized (lock) {
+                    if (winner == null && !settled) {
+                        winner = new Winner(response, url, index);
+                        lock.notifyAll();
+                        return;
+                    }
+                }
+                response.close();
+            }
+        });
+    }
+
+    private void cancelLosers() {
+        for (int i = 0; i < calls.size(); i++) {
+            if (i != winner.index) {
+                calls.get(i).cancel();
+            }
+        }
+    }
+
+    private void cancelAll() {
+        for (Call call : calls) {
+            call.cancel();
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package cn.reactnative.modules.update;
+
+import android.util.Log;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.Dns;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * The one HTTP stack behind check and download traffic. Every client handed
+ * out is derived from a single base client with newBuilder(), so they share
+ * its connection pool, dispatcher, DNS cache, protocols (HTTP/2 where the
+ * server offers it), interceptors and event listener — a check round's TLS
+ * session to the CDN is reused by the download that follows it.
+ *
+ * Integrators can replace the base with UpdateContext.setHttpClient (their
+ * own interceptors, event listener, proxy, certificate pinning); only the
+ * timeouts are overridden per traffic class.
+ */
+final class HttpTransport {
+    // Positive DNS answers are reused this long; failures are not cached.
+    private static final long DNS_TTL_MILLIS = 60_000;
+
+    private static final Object lock = new Object();
+    // Guarded by lock. Derived clients are rebuilt when the base changes.
+    private static OkHttpClient base;
+    private static OkHttpClient checkClient;
+    private static OkHttpClient downloadClient;
+
+    private HttpTransport() {
+    }
+
+    static void setBaseClient(OkHttpClient client) {
+        synchronized (lock) {
+            base = client;
+            checkClient = null;
+            downloadClient = null;
+        }
+    }
+
+    private static OkHttpClient baseLocked() {
+        if (base == null) {
+            base = new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(5, 5, TimeUnit.MINUTES))
+                .dns(new CachingDns())
+                .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                .build();
+        }
+        return base;
+    }
+
+    /** Check requests: short and latency-bound (§5.1). */
+    static OkHttpClient check() {
+        synchronized (lock) {
+            if (checkClient == null) {
+                checkClient = baseLocked().newBuilder()
+                    .connectTimeout(10, TimeUnit.SECONDS)
+                    .readTimeout(10, TimeUnit.SECONDS)
+                    .callTimeout(15, TimeUnit.SECONDS)
+                    .build();
+            }
+            return checkClient;
+        }
+    }
+
+    /**
+     * Downloads. Explicit timeouts: the default client has no call timeout,
+     * so a slow-dripping connection could occupy a scheduler lane
+     * indefinitely and starve queued tasks. The call timeout is a generous
+     * upper bound sized for large full-package downloads.
+     */
+    static OkHttpClient download() {
+        synchronized (lock) {
+            if (downloadClient == null) {
+                downloadClient = baseLocked().newBuilder()
+                    .connectTimeout(15, TimeUnit.SECONDS)
+                    .readTimeout(30, TimeUnit.SECONDS)
+                    .writeTimeout(30, TimeUnit.SECONDS)
+                    .callTimeout(10, TimeUnit.MINUTES)
+                    .build();
+            }
+            return downloadClient;
+        }
+    }
+
+    /** A client of the same stack whose calls end by the given budget. */
+    static OkHttpClient withCallTimeout(OkHttpClient client, long millis) {
+        return client.newBuilder()
+            .callTimeout(Math.max(1L, millis), TimeUnit.MILLISECONDS)
+            .build();
+    }
+
+    /**
+     * Opens (DNS + TCP + TLS) a pooled connection to url's host in the
+     * background, so the download that follows does not pay the handshake.
+     * A HEAD of the artifact itself: always a valid path on the CDN.
+     */
+    static void warmUp(String url) {
+        Request request;
+        try {
+            request = new Request.Builder()
+                .url(url)
+                .head()
+                .header("Accept-Encoding", "identity")
+                .build();
+        } catch (IllegalArgumentException e) {
+            return;
+        }
+        check().newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                if (UpdateContext.DEBUG) {
+                    Log.d(UpdateContext.TAG, "connection warm-up failed: " + e);
+                }
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                response.close();
+            }
+        });
+    }
+
+    // Process-wide DNS cache in front of the system resolver: the check
+    // endpoint and CDN hosts are looked up once per launch, not per client.
+    private static final class CachingDns implements Dns {
+        private static final class Entry {
+            final List<InetAddress> addresses;
+            final long expiresAt;
+
+            Entry(List<InetAddress> addresses, long expiresAt) {
+                this.addresses = addresses;
+                this.expiresAt = expiresAt;
+            }
+        }
+
+        private final HashMap<String, Entry> entries = new HashMap<String, Entry>();
+
+        @Override
+        public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+            long now = android.os.SystemClock.elapsedRealtime();
+            synchronized (entries) {
+                Entry entry = entries.get(hostname);
+                if (entry != null && entry.expiresAt > now) {
+                    return entry.addresses;
+                }
+            }
+            List<InetAddress> addresses = Dns.SYSTEM.lookup(hostname);
+            synchronized (entries) {
+                entries.put(hostname, new Entry(addresses, now + DNS_TTL_MILLIS));
+            }
+            return addresses;
+        }
+    }
+}
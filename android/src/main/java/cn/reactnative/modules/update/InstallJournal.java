@@ -0,0 +1,216 @@
+package cn.reactnative.modules.update;
+
+import android.util.Log;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * The steps of a patch install already done in its version directory, so
+ * an install the process died in resumes after them instead of from
+ * scratch: a device that crashes at startup gives each launch only the few
+ * seconds of crash rescue, which a from-scratch install may never fit in.
+ *
+ * One line per step, appended as soon as the step's files are closed:
+ * "x size name" for an extracted archive entry, "c from" for a copy group
+ * of the manifest, and "s name" for a named step (STEP_*). The first line
+ * names the install (task type, version, origin, archive digest); a journal
+ * of another install, or none, wipes the directory and starts a new one. A
+ * line cut short by the process dying is ignored.
+ *
+ * Records are not synced, like the .pushy-complete marker: they stand for
+ * a process that died, not for power loss. An extracted entry also has to
+ * have its recorded size still. The marker stays the commit point — the
+ * journal only says what not to redo, and is deleted once the marker is
+ * written.
+ */
+final class InstallJournal implements Closeable {
+    static final String FILE_NAME = ".pushy-journal";
+    // Bundle patched, in an install from the APK. A ppk install patches the
+    // bundle, copies and merges in one native call, redone whole.
+    static final String STEP_PATCHED = "patched";
+    // Every file in place: only the marker is left to write.
+    static final String STEP_INSTALLED = "installed";
+    private static final String MAGIC = "pushy-journal 1 ";
+
+    private final File directory;
+    private final FileOutputStream out;
+    private final boolean resumed;
+    // Set by a failed write: nothing is appended after a line that may be
+    // cut short.
+    private boolean broken = false;
+    // Extracted entry name -> size.
+    private final HashMap<String, Long> extracted = new HashMap<String, Long>();
+    private final HashSet<String> copied = new HashSet<String>();
+    private final HashSet<String> steps = new HashSet<String>();
+
+    /**
+     * The journal of directory when it is the one of install, otherwise a
+     * new one in directory emptied first.
+     */
+    static InstallJournal open(File directory, String install) throws IOException {
+        String header = MAGIC + install;
+        File file = new File(directory, FILE_NAME);
+        String[] lines = file.isFile() ? readLines(file) : null;
+        if (lines != null && lines.length > 0 && lines[0].equals(header)) {
+            InstallJournal journal = new InstallJournal(directory, file, true);
+            for (int i = 1; i < lines.length; i++) {
+                journal.load(lines[i]);
+            }
+            return journal;
+        }
+        UpdateFileUtils.removeDirectory(directory);
+        UpdateFileUtils.ensureDirectory(directory);
+        InstallJournal journal = new InstallJournal(directory, file, false);
+        try {
+            journal.out.write((header + "\n").getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            journal.close();
+            throw e;
+        }
+        return journal;
+    }
+
+    static void delete(File directory) {
+        File file = new File(directory, FILE_NAME);
+        if (file.exists() && !file.delete() && UpdateContext.DEBUG) {
+            Log.w(UpdateContext.TAG, "Failed to delete install journal " + file);
+        }
+    }
+
+    private InstallJournal(File directory, File file, boolean resumed) throws IOException {
+        this.directory = directory;
+        this.resumed = resumed;
+        out = new FileOutputStream(file, true);
+    }
+
+    /** Whether steps of an earlier attempt were found. */
+    boolean resumed() {
+        return resumed;
+    }
+
+    /**
+     * Names of the entries an earlier attempt extracted that are still in
+     * place, for the extraction to skip.
+     */
+    HashSet<String> extractedEntries() {
+        HashSet<String> names = new HashSet<String>();
+        for (HashMap.Entry<String, Long> entry : extracted.entrySet()) {
+            File target = new File(directory, entry.getKey());
+            if (target.isFile() && target.length() == entry.getValue()) {
+                names.add(entry.getKey());
+            }
+        }
+        return names;
+    }
+
+    synchronized boolean isCopied(String from) {
+        return copied.contains(from);
+    }
+
+    synchronized boolean isDone(String step) {
+        return steps.contains(step);
+    }
+
+    /** Called once the entry's file is closed; from any thread. */
+    synchronized void extracted(String name, long size) {
+        if (isRecordable(name)) {
+            append("x " + size + " " + name);
+        }
+    }
+
+    /** Called once every target of the copy group is written; from any thread. */
+    synchronized void copied(String from) {
+        if (isRecordable(from) && append("c " + from)) {
+            copied.add(from);
+        }
+    }
+
+    synchronized void done(String step) {
+        if (append("s " + step)) {
+            steps.add(step);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    private void load(String line) {
+        if (line.startsWith("x ")) {
+            int space = line.indexOf(' ', 2);
+            if (space > 2) {
+                try {
+                    extracted.put(
+                        line.substring(space + 1),
+                        Long.parseLong(line.substring(2, space)));
+                } catch (NumberFormatException e) {
+                    // Not written by extracted(): redo the entry.
+                }
+            }
+        } else if (line.startsWith("c ")) {
+            copied.add(line.substring(2));
+        } else if (line.startsWith("s ")) {
+            steps.add(line.substring(2));
+        }
+    }
+
+    // One write per record: a dying process leaves at most the last line
+    // cut short. Best effort: a step that is not recorded is redone.
+    private boolean append(String line) {
+        if (broken) {
+            return false;
+        }
+        try {
+            out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+            return true;
+        } catch (IOException e) {
+            broken = true;
+            Log.w(UpdateContext.TAG, "Install journal " + directory + " not written: " + e);
+            return false;
+        }
+    }
+
+    // Names are the rest of their line; one with a line break is simply
+    // not recorded, and redone on resume.
+    private static boolean isRecordable(String name) {
+        return name.indexOf('\n') < 0;
+    }
+
+    // Complete lines only: a trailing one without its line break is cut
+    // off the file too, so the next record starts a line of its own.
+    private static String[] readLines(File file) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) >= 0) {
+                bytes.write(buffer, 0, n);
+            }
+        }
+        byte[] content = bytes.toByteArray();
+        int end = content.length;
+        while (end > 0 && content[end - 1] != '\n') {
+            end--;
+        }
+        if (end < content.length) {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(end);
+            }
+        }
+        if (end == 0) {
+            return new String[0];
+        }
+        String complete = new String(content, 0, end - 1, StandardCharsets.UTF_8);
+        return complete.split("\n", -1);
+    }
+}
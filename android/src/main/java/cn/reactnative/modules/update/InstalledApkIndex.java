@@ -0,0 +1,134 @@
+package cn.reactnative.modules.update;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * The installed APK and its splits as tiers of ApkEntryIndex, one per
+ * archive, opened base first: callers resolve a path against one tier
+ * before asking for the next, so a split is opened (read from cacheDir or
+ * indexed) only when every tier before it missed. Most copies resolve in
+ * the base APK, so the per-density and per-language splits of an AAB
+ * install are mostly never opened.
+ *
+ * Entries are numbered across tiers, the base first.
+ */
+final class InstalledApkIndex {
+    private final File cacheDir;
+    private final String key;
+    private final String[] apkPaths;
+    private final ApkEntryIndex[] tiers;
+    // First entry number of each open tier.
+    private final int[] bases;
+    private int opened = 0;
+
+    /**
+     * Indexes for apkPaths (the base APK first) cached in cacheDir under
+     * key, see ApkEntryIndex.open. The base tier is opened here.
+     */
+    InstalledApkIndex(File cacheDir, String key, String[] apkPaths) throws IOException {
+        this.cacheDir = cacheDir;
+        this.key = key;
+        this.apkPaths = apkPaths;
+        tiers = new ApkEntryIndex[apkPaths.length];
+        bases = new int[apkPaths.length];
+        tier(0);
+    }
+
+    /** The first entry named name, in archive order, or -1. */
+    int find(String name) throws IOException {
+        ApkEntryIndex tier;
+        for (int t = 0; (tier = tier(t)) != null; t++) {
+            int entry = tier.find(name);
+            if (entry >= 0) {
+                return entry(t, entry);
+            }
+        }
+        return -1;
+    }
+
+    /** The entry number of entry of tier t. */
+    int entry(int t, int entry) {
+        return bases[t] + entry;
+    }
+
+    /** The tier (0: the base APK) of entry. */
+    int tierOf(int entry) {
+        int t = opened - 1;
+        while (bases[t] > entry) {
+            t--;
+        }
+        return t;
+    }
+
+    int tierCount() {
+        return tiers.length;
+    }
+
+    /** Tiers opened so far, the base included. */
+    int openedTiers() {
+        return opened;
+    }
+
+    String name(int entry) {
+        int t = tierOf(entry);
+        return tiers[t].name(entry - bases[t]);
+    }
+
+    long crc(int entry) {
+        int t = tierOf(entry);
+        return tiers[t].crcs[entry - bases[t]];
+    }
+
+    long size(int entry) {
+        int t = tierOf(entry);
+        return tiers[t].sizes[entry - bases[t]];
+    }
+
+    /** Archive handles for one thread; see ApkEntryIndex.Reader. */
+    Reader openReader() {
+        return new Reader();
+    }
+
+    final class Reader implements Closeable {
+        private final ApkEntryIndex.Reader[] readers = new ApkEntryIndex.Reader[tiers.length];
+
+        private Reader() {
+        }
+
+        void extract(int entry, File target) throws IOException {
+            int t = tierOf(entry);
+            if (readers[t] == null) {
+                readers[t] = tiers[t].openReader();
+            }
+            readers[t].extract(entry - bases[t], target);
+        }
+
+        @Override
+        public void close() {
+            for (ApkEntryIndex.Reader reader : readers) {
+                if (reader != null) {
+                    reader.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Tier t (0: the base APK), opened when it is the next one; null past
+     * the last split or when tier t - 1 is not open.
+     */
+    ApkEntryIndex tier(int t) throws IOException {
+        if (t == opened && t < tiers.length) {
+            tiers[t] = ApkEntryIndex.open(
+                new File(cacheDir, t + ".idx"),
+                key,
+                new String[] {apkPaths[t]}
+            );
+            bases[t] = t == 0 ? 0 : bases[t - 1] + tiers[t - 1].count;
+            opened++;
+        }
+        return t < opened ? tiers[t] : null;
+    }
+}
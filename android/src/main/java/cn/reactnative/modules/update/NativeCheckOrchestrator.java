@@ -35,6 +35,9 @@ final class NativeCheckOrchestrator {
     static final String KEY_ROUND_INCOMPLETE = "nativeCheckIncomplete";
     private static final int MAX_CHECK_HTTP_ATTEMPTS = 8;
     private static final long DOWNLOAD_PHASE_TIMEOUT_SECONDS = 600;
+    // Upper bound for the opt-in mirror hedge delay: beyond this the hedge
+    // could never fire inside a crash-rescue budget anyway.
+    private static final long MAX_HEDGE_DELAY_MILLIS = 60000;
 
     private static final AtomicBoolean scheduled = new AtomicBoolean(false);
     // One round per process, whoever starts it first — the delayed cold-start
@@ -313,9 +316,12 @@ final class NativeCheckOrchestrator {
 
         boolean downloaded = context.hasCompletedVersion(hash);
         if (!downloaded) {
+            warmUpFirstAttempt(decision.optJSONArray("attempts"));
+            long hedgeDelayMillis = Math.min(
+                MAX_HEDGE_DELAY_MILLIS, Math.max(0L, config.optLong("downloadHedgeDelayMs", 0)));
             downloaded = performAttempts(
-                context, decision.optJSONArray("attempts"), hash, currentVersion,
-                deadlineNanos);
+                context, decision.optJSONArray("attempts"), responseDigests(responseText),
+                hash, currentVersion, deadlineNanos, hedgeDelayMillis);
         }
         if (!downloaded) {
             // The native attempt has finished, so JS may safely reuse the
@@ -400,12 +406,6 @@ final class NativeCheckOrchestrator {
         return cacheEntry.toString();
     }
 
-    private static final OkHttpClient httpClient = new OkHttpClient.Builder()
-        .connectTimeout(10, TimeUnit.SECONDS)
-        .readTimeout(10, TimeUnit.SECONDS)
-        .callTimeout(15, TimeUnit.SECONDS)
-        .build();
-
     private static String httpRequest(String url, String postBody, long deadlineNanos) {
         try {
             Request.Builder builder =
@@ -414,7 +414,7 @@ final class NativeCheckOrchestrator {
                 builder.post(RequestBody.create(
                     postBody, MediaType.parse("application/json; charset=utf-8")));
             }
-            OkHttpClient client = httpClient;
+            OkHttpClient client = HttpTransport.check();
             if (deadlineNanos > 0) {
                 // Crash-rescue budget: never let a single request outlive the
                 // handler's hold window.
@@ -424,9 +424,7 @@ final class NativeCheckOrchestrator {
                     return null;
                 }
                 if (remainingMillis < 15000) {
-                    client = httpClient.newBuilder()
-                        .callTimeout(remainingMillis, TimeUnit.MILLISECONDS)
-                        .build();
+                    client = HttpTransport.withCallTimeout(client, remainingMillis);
                 }
             }
             try (Response response = client.newCall(builder.build()).execute()) {
@@ -544,9 +542,41 @@ final class NativeCheckOrchestrator {
         return Math.min(phaseDeadlineNanos, rescueDeadlineNanos);
     }
 
+    // Starts the handshake with the first artifact host while the download
+    // task is still being set up and queued.
+    private static void warmUpFirstAttempt(JSONArray attempts) {
+        JSONObject first = attempts != null ? attempts.optJSONObject(0) : null;
+        JSONArray urls = first != null ? first.optJSONArray("urls") : null;
+        String url = urls != null ? urls.optString(0, "") : "";
+        if (!url.isEmpty()) {
+            HttpTransport.warmUp(url);
+        }
+    }
+
+    // "digests" of the check response: { full?, diff?, pdiff? } sha256 hex,
+    // an optional protocol extension (NATIVE_CHECKUPDATE_DESIGN.md §10.8);
+    // absent means nothing is verified. Not part of the decision core's
+    // output, so read from the raw response.
+    private static JSONObject responseDigests(String responseText) {
+        try {
+            return new JSONObject(responseText).optJSONObject("digests");
+        } catch (JSONException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Tries the decision's attempts in order. Within an attempt the URLs are
+     * mirrors of one artifact: tried one after another, or — with a hedge
+     * delay configured (downloadHedgeDelayMs) — raced by a single task that
+     * starts the next mirror whenever the current one stalls, so a dead CDN
+     * no longer eats the phase budget before the next mirror is tried.
+     * An attempt with a declared digest is verified as soon as it is
+     * downloaded.
+     */
     private static boolean performAttempts(
-        UpdateContext context, JSONArray attempts, String hash, String originHash,
-        long rescueDeadlineNanos
+        UpdateContext context, JSONArray attempts, JSONObject digests, String hash,
+        String originHash, long rescueDeadlineNanos, long hedgeDelayMillis
     ) {
         if (attempts == null) {
             return false;
@@ -566,6 +596,11 @@ final class NativeCheckOrchestrator {
                 continue;
             }
             final boolean isFullAttempt = !"diff".equals(type) && !"pdiff".equals(type);
+            // Per-artifact sha256 from the response, keyed like the attempts.
+            String sha256 = digests != null ? digests.optString(type, "") : "";
+            if (sha256.isEmpty()) {
+                sha256 = null;
+            }
             if (isFullAttempt && fullDeadlineNanos == 0) {
                 // Incremental failures must not consume the last-resort full
                 // download's budget. Each phase gets one bounded 10min window.
@@ -576,15 +611,23 @@ final class NativeCheckOrchestrator {
             }
             final long deadlineNanos = isFullAttempt
                 ? fullDeadlineNanos : incrementalDeadlineNanos;
-            JSONArray urls = attempt.optJSONArray("urls");
-            if (urls == null) {
+            JSONArray urlArray = attempt.optJSONArray("urls");
+            if (urlArray == null) {
                 continue;
             }
-            for (int j = 0; j < urls.length(); j++) {
-                String url = urls.optString(j, "");
-                if (url.isEmpty()) {
-                    continue;
+            java.util.ArrayList<String> urls = new java.util.ArrayList<String>();
+            for (int j = 0; j < urlArray.length(); j++) {
+                String url = urlArray.optString(j, "");
+                if (!url.isEmpty()) {
+                    urls.add(url);
                 }
+            }
+            final boolean hedged = hedgeDelayMillis > 0 && urls.size() > 1;
+            for (int j = 0; j < urls.size(); j++) {
+                String url = urls.get(j);
+                String[] mirrorUrls = hedged
+                    ? urls.subList(j + 1, urls.size()).toArray(new String[0])
+                    : null;
                 // Check before enqueueing: once the phase budget is gone we
                 // must not launch an orphan download that outlives the round.
                 long remainingNanos = deadlineNanos - System.nanoTime();
@@ -614,30 +657,38 @@ final class NativeCheckOrchestrator {
                     };
                 if ("diff".equals(type)) {
                     context.downloadPatchFromPpk(
-                        url, hash, originHash, listener, deadlineNanos);
+                        url, mirrorUrls, hash, originHash, sha256, listener,
+                        deadlineNanos, hedgeDelayMillis);
                 } else if ("pdiff".equals(type)) {
                     context.downloadPatchFromApk(
-                        url, hash, listener, deadlineNanos);
+                        url, mirrorUrls, hash, sha256, listener, deadlineNanos, hedgeDelayMillis);
                 } else {
                     context.downloadFullUpdate(
-                        url, hash, listener, deadlineNanos);
+                        url, mirrorUrls, hash, sha256, listener, deadlineNanos, hedgeDelayMillis);
                 }
                 try {
                     if (!latch.await(remainingNanos, TimeUnit.NANOSECONDS)) {
                         Log.w(UpdateContext.TAG,
                             "native check: download phase timed out during " + type);
+                        // Stop the task unless a JS caller still waits on it.
+                        context.abandonDownload(hash, listener);
                         if (isFullAttempt) {
                             return false;
                         }
                         break;
                     }
                 } catch (InterruptedException e) {
+                    context.abandonDownload(hash, listener);
                     Thread.currentThread().interrupt();
                     return false;
                 }
                 if (succeeded.get()) {
                     return true;
                 }
+                if (hedged) {
+                    // The race already covered every mirror of this attempt.
+                    break;
+                }
             }
         }
         return false;
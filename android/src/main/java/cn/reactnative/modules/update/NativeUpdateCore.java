@@ -1,6 +1,9 @@
 package cn.reactnative.modules.update;
 
 final class NativeUpdateCore {
+    // kJniAbiVersion in update_core_android.cpp: the revision of the native
+    // method signatures this Java layer calls.
+    private static final int JNI_ABI_VERSION = 1;
     private static boolean loaded = false;
 
     private NativeUpdateCore() {
@@ -21,6 +24,21 @@ final class NativeUpdateCore {
             throw wrapped;
         }
 
+        // A library built before a signature change still binds every
+        // method by name; refuse it instead of passing it wrong arguments.
+        int abiVersion;
+        try {
+            abiVersion = getJniAbiVersion();
+        } catch (UnsatisfiedLinkError error) {
+            abiVersion = 0;
+        }
+        if (abiVersion != JNI_ABI_VERSION) {
+            throw new UnsatisfiedLinkError(
+                "Stale rnupdate native library: JNI ABI " + abiVersion
+                    + ", expected " + JNI_ABI_VERSION
+                    + ". Rebuild it with 'npm run build:so'.");
+        }
+
         loaded = true;
     }
 
@@ -35,4 +53,6 @@ final class NativeUpdateCore {
     }
 
     private static native int getSupportedDiffVersion();
+
+    private static native int getJniAbiVersion();
 }
@@ -0,0 +1,289 @@
+package cn.reactnative.modules.update;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+/**
+ * __diff.json, read in one streaming pass into parallel arrays. pdiff
+ * manifests carry 5–20k copies; nothing here holds a DOM, a boxed CRC or a
+ * per-copy map entry, and the arrays are handed to every native call and the
+ * resource copier as they are.
+ *
+ * Same reading rules as the org.json walk it replaces: a non-object
+ * "copies" / "copiesCrc" / "deletes" is ignored, an empty "from" means the
+ * same path as "to", and copiesCrc is keyed by the copy target.
+ */
+final class PatchManifest {
+    static final long NO_CRC = -1;
+    // "PMF1", see cpp/patch_core/manifest_wire.h.
+    private static final int WIRE_MAGIC = 0x31464d50;
+    private static final String[] NO_STRINGS = new String[0];
+
+    // copies, in manifest order: copyFroms[i] is copied to copyTos[i].
+    String[] copyFroms = NO_STRINGS;
+    String[] copyTos = NO_STRINGS;
+    // copiesCrc of copy i (the CRC32 of its content), or NO_CRC.
+    long[] copyCrcs = new long[0];
+    String[] deletes = NO_STRINGS;
+    // __diff.json 的 hbcTransform 元数据(按 patch 条目名索引);缺失时为 null
+    private JSONObject hbcTransform;
+    // Built on first copyCrcFor.
+    private Positions fromPositions;
+    // Built on first wire().
+    private ByteBuffer wire;
+
+    static PatchManifest read(InputStream in) throws IOException, JSONException {
+        PatchManifest manifest = new PatchManifest();
+        String[] crcTos = NO_STRINGS;
+        long[] crcValues = new long[0];
+        int crcCount = 0;
+        int copyCount = 0;
+        int deleteCount = 0;
+
+        JsonReader reader = new JsonReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                    reader.skipValue();
+                } else if (name.equals("copies")) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String to = reader.nextName();
+                        String from = "";
+                        if (reader.peek() == JsonToken.NULL) {
+                            reader.nextNull();
+                        } else {
+                            from = reader.nextString();
+                        }
+                        if (copyCount == manifest.copyTos.length) {
+                            int capacity = grow(copyCount);
+                            manifest.copyTos = Arrays.copyOf(manifest.copyTos, capacity);
+                            manifest.copyFroms = Arrays.copyOf(manifest.copyFroms, capacity);
+                        }
+                        manifest.copyTos[copyCount] = to;
+                        manifest.copyFroms[copyCount] = from.isEmpty() ? to : from;
+                        copyCount++;
+                    }
+                    reader.endObject();
+                } else if (name.equals("copiesCrc")) {
+                    // May come before or after "copies": joined below.
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String to = reader.nextName();
+                        if (crcCount == crcTos.length) {
+                            int capacity = grow(crcCount);
+                            crcTos = Arrays.copyOf(crcTos, capacity);
+                            crcValues = Arrays.copyOf(crcValues, capacity);
+                        }
+                        crcTos[crcCount] = to;
+                        crcValues[crcCount] = reader.nextLong();
+                        crcCount++;
+                    }
+                    reader.endObject();
+                } else if (name.equals("deletes")) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        if (deleteCount == manifest.deletes.length) {
+                            manifest.deletes = Arrays.copyOf(manifest.deletes, grow(deleteCount));
+                        }
+                        manifest.deletes[deleteCount++] = reader.nextName();
+                        reader.skipValue();
+                    }
+                    reader.endObject();
+                } else if (name.equals("hbcTransform")) {
+                    manifest.hbcTransform = (JSONObject) readValue(reader);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } finally {
+            reader.close();
+        }
+
+        manifest.copyTos = Arrays.copyOf(manifest.copyTos, copyCount);
+        manifest.copyFroms = Arrays.copyOf(manifest.copyFroms, copyCount);
+        manifest.deletes = Arrays.copyOf(manifest.deletes, deleteCount);
+        manifest.copyCrcs = new long[copyCount];
+        Arrays.fill(manifest.copyCrcs, NO_CRC);
+        if (crcCount > 0 && copyCount > 0) {
+            Positions toPositions = new Positions(manifest.copyTos, copyCount);
+            for (int i = 0; i < crcCount; i++) {
+                int copy = toPositions.get(crcTos[i]);
+                if (copy >= 0) {
+                    manifest.copyCrcs[copy] = crcValues[i];
+                }
+            }
+        }
+        return manifest;
+    }
+
+    /**
+     * The declared CRC32 of a copy source, or NO_CRC. Several copies of one
+     * source carry the same content, hence the same CRC; the last declared
+     * one is returned.
+     */
+    long copyCrcFor(String from) {
+        if (fromPositions == null) {
+            fromPositions = new Positions(copyFroms, 0);
+            for (int i = 0; i < copyFroms.length; i++) {
+                if (copyCrcs[i] != NO_CRC) {
+                    fromPositions.put(i);
+                }
+            }
+        }
+        int copy = fromPositions.get(from);
+        return copy >= 0 ? copyCrcs[copy] : NO_CRC;
+    }
+
+    /**
+     * copies and deletes in the binary form the native entry points decode
+     * in place (manifest_wire.h): one direct buffer per task, passed to
+     * every call, instead of a String[] per field and call.
+     */
+    synchronized ByteBuffer wire() {
+        if (wire == null) {
+            byte[][] froms = utf8(copyFroms);
+            byte[][] tos = utf8(copyTos);
+            byte[][] deleted = utf8(deletes);
+            int size = 12 + byteCount(froms) + byteCount(tos) + byteCount(deleted);
+            ByteBuffer buffer = ByteBuffer.allocateDirect(size).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(WIRE_MAGIC);
+            buffer.putInt(copyTos.length);
+            buffer.putInt(deletes.length);
+            for (int i = 0; i < copyTos.length; i++) {
+                buffer.putInt(froms[i].length).put(froms[i]);
+                buffer.putInt(tos[i].length).put(tos[i]);
+            }
+            for (byte[] path : deleted) {
+                buffer.putInt(path.length).put(path);
+            }
+            buffer.flip();
+            wire = buffer;
+        }
+        return wire;
+    }
+
+    // 为空/缺失时返回 ""(native 走现状路径)
+    String hbcTransformMetaFor(String patchEntryName) {
+        if (hbcTransform == null) {
+            return "";
+        }
+        JSONObject meta = hbcTransform.optJSONObject(patchEntryName);
+        return meta != null ? meta.toString() : "";
+    }
+
+    private static byte[][] utf8(String[] values) {
+        byte[][] encoded = new byte[values.length][];
+        for (int i = 0; i < values.length; i++) {
+            encoded[i] = values[i].getBytes(StandardCharsets.UTF_8);
+        }
+        return encoded;
+    }
+
+    // Length-prefixed size of the encoded strings.
+    private static int byteCount(byte[][] values) {
+        int count = 0;
+        for (byte[] value : values) {
+            count += 4 + value.length;
+        }
+        return count;
+    }
+
+    private static int grow(int size) {
+        return Math.max(16, size * 2);
+    }
+
+    // The small hbcTransform subtree is kept as org.json for the native side.
+    private static Object readValue(JsonReader reader) throws IOException, JSONException {
+        switch (reader.peek()) {
+            case BEGIN_OBJECT: {
+                JSONObject object = new JSONObject();
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String name = reader.nextName();
+                    object.put(name, readValue(reader));
+                }
+                reader.endObject();
+                return object;
+            }
+            case BEGIN_ARRAY: {
+                JSONArray array = new JSONArray();
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    array.put(readValue(reader));
+                }
+                reader.endArray();
+                return array;
+            }
+            case NUMBER:
+                return new JSONTokener(reader.nextString()).nextValue();
+            case BOOLEAN:
+                return reader.nextBoolean();
+            case NULL:
+                reader.nextNull();
+                return JSONObject.NULL;
+            default:
+                return reader.nextString();
+        }
+    }
+
+    // Open-addressing index from key to position in keys; a slot holds the
+    // position + 1, 0 is empty. A repeated key maps to its last put.
+    private static final class Positions {
+        private final String[] keys;
+        private final int[] slots;
+        private final int mask;
+
+        Positions(String[] keys, int count) {
+            this.keys = keys;
+            int capacity = 2;
+            while (capacity < keys.length * 2) {
+                capacity <<= 1;
+            }
+            slots = new int[capacity];
+            mask = capacity - 1;
+            for (int i = 0; i < count; i++) {
+                put(i);
+            }
+        }
+
+        private int slotOf(String key) {
+            int h = key.hashCode();
+            return (h ^ (h >>> 16)) & mask;
+        }
+
+        void put(int position) {
+            String key = keys[position];
+            int slot = slotOf(key);
+            while (slots[slot] != 0 && !keys[slots[slot] - 1].equals(key)) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = position + 1;
+        }
+
+        int get(String key) {
+            int slot = slotOf(key);
+            while (slots[slot] != 0) {
+                if (keys[slots[slot] - 1].equals(key)) {
+                    return slots[slot] - 1;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package cn.reactnative.modules.update;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * Coalesces RCTPushyDownloadProgress events. Transfer threads only store the
+ * latest (received, total) per hash in primitive fields; one main-thread
+ * callback emits whatever changed, at most once per FLUSH_INTERVAL_MS. A
+ * final value (received reaching a known total, or the end of a transfer of
+ * unknown length) is flushed without waiting, so it still reaches JS before
+ * the download promise settles.
+ */
+final class ProgressHub {
+    static final String EVENT_NAME = "RCTPushyDownloadProgress";
+    private static final long FLUSH_INTERVAL_MS = 100;
+
+    private static final class Slot {
+        long received;
+        long total;
+        boolean dirty;
+    }
+
+    private static final Object lock = new Object();
+    // Guarded by lock.
+    private static final HashMap<String, Slot> slots = new HashMap<String, Slot>();
+    private static boolean flushScheduled = false;
+    private static long lastFlushAt = 0;
+    // Main thread only; reused across flushes.
+    private static final ArrayList<String> flushHashes = new ArrayList<String>();
+    private static final ArrayList<long[]> flushValues = new ArrayList<long[]>();
+
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private static final Runnable flush = new Runnable() {
+        @Override
+        public void run() {
+            flushOnMainThread();
+        }
+    };
+
+    private ProgressHub() {
+    }
+
+    static void post(String hash, long received, long total, boolean last) {
+        // Cross-platform progress contract: unknown length is reported as
+        // total=0, never a raw -1 (OkHttp's contentLength for chunked/gzip).
+        long normalizedTotal = total > 0 ? total : 0;
+        boolean urgent = last || (normalizedTotal > 0 && received >= normalizedTotal);
+        synchronized (lock) {
+            Slot slot = slots.get(hash);
+            if (slot == null) {
+                slot = new Slot();
+                slots.put(hash, slot);
+            }
+            slot.received = received;
+            slot.total = normalizedTotal;
+            slot.dirty = true;
+            if (urgent) {
+                // Replaces a pending delayed flush with an immediate one.
+                mainHandler.removeCallbacks(flush);
+                mainHandler.post(flush);
+                flushScheduled = true;
+            } else if (!flushScheduled) {
+                long wait = lastFlushAt + FLUSH_INTERVAL_MS - SystemClock.uptimeMillis();
+                mainHandler.postDelayed(flush, Math.max(0L, wait));
+                flushScheduled = true;
+            }
+        }
+    }
+
+    private static void flushOnMainThread() {
+        int count = 0;
+        synchronized (lock) {
+            flushScheduled = false;
+            lastFlushAt = SystemClock.uptimeMillis();
+            Iterator<java.util.Map.Entry<String, Slot>> it = slots.entrySet().iterator();
+            while (it.hasNext()) {
+                java.util.Map.Entry<String, Slot> entry = it.next();
+                Slot slot = entry.getValue();
+                if (!slot.dirty) {
+                    // Idle for a whole interval: the task is done or gone.
+                    it.remove();
+                    continue;
+                }
+                slot.dirty = false;
+                if (flushValues.size() <= count) {
+                    flushValues.add(new long[2]);
+                }
+                flushValues.get(count)[0] = slot.received;
+                flushValues.get(count)[1] = slot.total;
+                flushHashes.add(entry.getKey());
+                count++;
+            }
+        }
+        // Emit outside the lock: transfer threads must never wait on the
+        // bridge.
+        for (int i = 0; i < count; i++) {
+            WritableMap progress = Arguments.createMap();
+            progress.putDouble("received", flushValues.get(i)[0]);
+            progress.putDouble("total", flushValues.get(i)[1]);
+            progress.putString("hash", flushHashes.get(i));
+            UpdateEventEmitter.sendEvent(EVENT_NAME, progress);
+        }
+        flushHashes.clear();
+    }
+}
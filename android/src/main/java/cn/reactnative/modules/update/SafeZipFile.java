@@ -1,13 +1,38 @@
 package cn.reactnative.modules.update;
 
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
 import java.util.zip.ZipFile;
 
 
@@ -15,10 +40,54 @@ public class SafeZipFile extends ZipFile {
 
     public SafeZipFile(File file) throws IOException {
         super(file);
+        this.file = file;
     }
 
     private static final int BUFFER_SIZE = 8192;
 
+    // STORED entries at least this large are copied straight from the
+    // archive with FileChannel.transferTo; smaller ones are not worth the
+    // extra channel and header read.
+    private static final long DIRECT_COPY_MIN_BYTES = 64 * 1024;
+    // CRC verification of a direct copy maps the archive this much at a time.
+    private static final long CRC_MAP_WINDOW = 8 * 1024 * 1024;
+
+    private final File file;
+    // Local header offset of every STORED entry, read from the central
+    // directory on first use. Empty when the layout is not one the direct
+    // copy handles (ZIP64, unreadable directory): everything streams.
+    private HashMap<String, Long> storedHeaders;
+    private boolean contentTrusted = false;
+
+    /**
+     * Marks the archive as already verified as a whole (its declared sha256
+     * matched), so direct copies skip the per-entry CRC pass. Inflated
+     * entries are always checked by the InflaterInputStream regardless.
+     */
+    void setContentTrusted(boolean trusted) {
+        this.contentTrusted = trusted;
+    }
+
+    // Parallel extraction: at most this many threads (the caller included),
+    // and only for archives where the second ZipFile handle per worker and
+    // the thread handoff are worth it.
+    private static final int MAX_EXTRACT_WORKERS = 4;
+    private static final int MIN_ENTRIES_PER_WORKER = 32;
+
+    // Extra workers for unzipAllToPath; idle threads time out, so the pool
+    // costs nothing outside an extraction.
+    private static final ThreadPoolExecutor EXTRACT_EXECUTOR = new ThreadPoolExecutor(
+        MAX_EXTRACT_WORKERS - 1,
+        MAX_EXTRACT_WORKERS - 1,
+        30,
+        TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>()
+    );
+
+    static {
+        EXTRACT_EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
     @Override
     public Enumeration<? extends ZipEntry> entries() {
         return new SafeZipEntryIterator(super.entries());
@@ -41,20 +110,22 @@ public class SafeZipFile extends ZipFile {
         public ZipEntry nextElement() {
             ZipEntry entry = delegate.nextElement();
             if (null != entry) {
-                String name = entry.getName();
-                /**
-                 * avoid ZipperDown
-                 */
-                if (null != name && (name.contains("../") || name.contains("..\\"))) {
-                    throw new SecurityException("illegal entry: " + name);
-                }
+                checkEntryName(entry.getName());
             }
             return entry;
         }
     }
 
-    public void unzipToPath(ZipEntry ze, File targetPath) throws IOException {
-        String name = ze.getName();
+    /**
+     * avoid ZipperDown
+     */
+    static void checkEntryName(String name) {
+        if (null != name && (name.contains("../") || name.contains("..\\"))) {
+            throw new SecurityException("illegal entry: " + name);
+        }
+    }
+
+    static File resolveEntryTarget(File targetPath, String name) throws IOException {
         File target = new File(targetPath, name);
 
         // Fixing a Zip Path Traversal Vulnerability
@@ -63,6 +134,11 @@ public class SafeZipFile extends ZipFile {
         if (!canonicalPath.startsWith(targetPath.getCanonicalPath() + File.separator)) {
             throw new SecurityException("Illegal name: " + name);
         }
+        return target;
+    }
+
+    public void unzipToPath(ZipEntry ze, File targetPath) throws IOException {
+        File target = resolveEntryTarget(targetPath, ze.getName());
 
         if (ze.isDirectory()) {
             target.mkdirs();
@@ -71,14 +147,239 @@ public class SafeZipFile extends ZipFile {
         unzipToFile(ze, target);
     }
 
+    /**
+     * Extracts every entry of archive into targetPath except those named in
+     * skip, spread over a bounded pool. Each worker opens its own ZipFile on
+     * the archive and pulls the next entry (largest first) from a shared
+     * cursor; names pass the same ZipperDown and canonical-path checks as
+     * unzipToPath. The first failure stops the other workers and is
+     * rethrown; cancellation is polled before every entry. contentTrusted
+     * is passed to setContentTrusted on every worker's handle. journal, when
+     * not null, records every entry once its file is written.
+     */
+    static void unzipAllToPath(
+        File archive,
+        File targetPath,
+        Set<String> skip,
+        boolean contentTrusted,
+        DownloadCancellation cancellation,
+        InstallJournal journal
+    ) throws IOException {
+        start(archive, targetPath, skip, contentTrusted, cancellation, journal, false).await();
+    }
+
+    /**
+     * unzipAllToPath in the background: pool workers start on the entries
+     * right away and the caller joins them in Extraction.await(), so it can
+     * prepare the rest of the install meanwhile. A caller that fails before
+     * await() must abandon() the extraction before touching targetPath.
+     */
+    static Extraction startUnzipAll(
+        File archive,
+        File targetPath,
+        Set<String> skip,
+        boolean contentTrusted,
+        DownloadCancellation cancellation,
+        InstallJournal journal
+    ) throws IOException {
+        return start(archive, targetPath, skip, contentTrusted, cancellation, journal, true);
+    }
+
+    private static Extraction start(
+        File archive,
+        File targetPath,
+        Set<String> skip,
+        boolean contentTrusted,
+        DownloadCancellation cancellation,
+        InstallJournal journal,
+        boolean background
+    ) throws IOException {
+        long startedAt = SystemClock.elapsedRealtime();
+        // Last entry wins per name, as with sequential extraction — and two
+        // workers must never write the same file.
+        LinkedHashMap<String, ZipEntry> byName = new LinkedHashMap<String, ZipEntry>();
+        try (SafeZipFile zipFile = new SafeZipFile(archive)) {
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (skip == null || !skip.contains(entry.getName())) {
+                    byName.remove(entry.getName());
+                    byName.put(entry.getName(), entry);
+                }
+            }
+        }
+        ArrayList<ZipEntry> files = new ArrayList<ZipEntry>();
+        long totalBytes = 0;
+        for (ZipEntry entry : byName.values()) {
+            File target = resolveEntryTarget(targetPath, entry.getName());
+            if (entry.isDirectory()) {
+                target.mkdirs();
+                continue;
+            }
+            files.add(entry);
+            totalBytes += Math.max(0L, entry.getSize());
+        }
+        // Largest first: a big bundle started last would leave one worker
+        // running alone at the end.
+        Collections.sort(files, new Comparator<ZipEntry>() {
+            @Override
+            public int compare(ZipEntry a, ZipEntry b) {
+                return Long.compare(b.getCompressedSize(), a.getCompressedSize());
+            }
+        });
+
+        int workers = Math.max(1, Math.min(
+            Math.min(MAX_EXTRACT_WORKERS, Runtime.getRuntime().availableProcessors()),
+            files.size() / MIN_ENTRIES_PER_WORKER));
+        ExtractWorker worker = new ExtractWorker(
+            archive, targetPath, files, contentTrusted, cancellation, journal);
+        // In the background at least one pool worker runs before await();
+        // the caller is always one more.
+        int pooled = background && !files.isEmpty() ? Math.max(1, workers - 1) : workers - 1;
+        ArrayList<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for (int i = 0; i < pooled; i++) {
+            futures.add(EXTRACT_EXECUTOR.submit(worker));
+        }
+        return new Extraction(worker, futures, startedAt, totalBytes);
+    }
+
+    static final class Extraction {
+        private final ExtractWorker worker;
+        private final ArrayList<Future<Void>> futures;
+        private final long startedAt;
+        private final long totalBytes;
+        private boolean joined = false;
+
+        private Extraction(
+            ExtractWorker worker,
+            ArrayList<Future<Void>> futures,
+            long startedAt,
+            long totalBytes
+        ) {
+            this.worker = worker;
+            this.futures = futures;
+            this.startedAt = startedAt;
+            this.totalBytes = totalBytes;
+        }
+
+        /** Extracts the remaining entries on this thread too; rethrows the first failure. */
+        void await() throws IOException {
+            joined = true;
+            Throwable failure = null;
+            try {
+                worker.call();
+            } catch (IOException | RuntimeException e) {
+                failure = e;
+            }
+            failure = joinWorkers(failure);
+            if (failure instanceof IOException) {
+                throw (IOException) failure;
+            }
+            if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            }
+            if (failure != null) {
+                throw new IOException(String.valueOf(failure), failure);
+            }
+            long elapsed = Math.max(1L, SystemClock.elapsedRealtime() - startedAt);
+            Log.i(UpdateContext.TAG, "extracted " + worker.files.size() + " entries ("
+                + totalBytes / 1024 + " KB) in " + elapsed + " ms on "
+                + (futures.size() + 1) + " of "
+                + Runtime.getRuntime().availableProcessors() + " cores, "
+                + (totalBytes * 1000 / elapsed / 1024) + " KB/s");
+        }
+
+        /** Stops the workers after their current entry and waits for them. */
+        void abandon() {
+            if (joined) {
+                return;
+            }
+            joined = true;
+            worker.failed.incrementAndGet();
+            joinWorkers(null);
+        }
+
+        private Throwable joinWorkers(Throwable failure) {
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause();
+                    }
+                } catch (InterruptedException e) {
+                    worker.failed.incrementAndGet();
+                    Thread.currentThread().interrupt();
+                    if (failure == null) {
+                        failure = new java.io.InterruptedIOException("Extraction interrupted");
+                    }
+                }
+            }
+            return failure;
+        }
+    }
+
+    // One instance shared by all workers of an unzipAllToPath call; each
+    // call() opens its own ZipFile handle.
+    private static final class ExtractWorker implements java.util.concurrent.Callable<Void> {
+        private final File archive;
+        private final File targetPath;
+        final ArrayList<ZipEntry> files;
+        private final boolean contentTrusted;
+        private final DownloadCancellation cancellation;
+        private final InstallJournal journal;
+        private final AtomicInteger cursor = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+
+        ExtractWorker(
+            File archive,
+            File targetPath,
+            ArrayList<ZipEntry> files,
+            boolean contentTrusted,
+            DownloadCancellation cancellation,
+            InstallJournal journal
+        ) {
+            this.archive = archive;
+            this.targetPath = targetPath;
+            this.files = files;
+            this.contentTrusted = contentTrusted;
+            this.cancellation = cancellation;
+            this.journal = journal;
+        }
+
+        @Override
+        public Void call() throws IOException {
+            try (SafeZipFile zipFile = new SafeZipFile(archive)) {
+                zipFile.setContentTrusted(contentTrusted);
+                int index;
+                while (failed.get() == 0 && (index = cursor.getAndIncrement()) < files.size()) {
+                    if (cancellation != null) {
+                        cancellation.throwIfCancelled();
+                    }
+                    ZipEntry entry = files.get(index);
+                    zipFile.unzipToPath(entry, targetPath);
+                    if (journal != null) {
+                        journal.extracted(entry.getName(), entry.getSize());
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                failed.incrementAndGet();
+                throw e;
+            }
+            return null;
+        }
+    }
+
     public void unzipToFile(ZipEntry ze, File target) throws IOException {
-        File parent = target.getParentFile();
-        if (parent != null && !parent.exists() && !parent.mkdirs() && !parent.exists()) {
-            throw new IOException("Failed to create parent dir for " + target);
+        ensureParent(target);
+
+        if (ze.getMethod() == ZipEntry.STORED && ze.getSize() >= DIRECT_COPY_MIN_BYTES
+            && copyStored(ze, target)) {
+            return;
         }
 
         try (InputStream inputStream = getInputStream(ze)) {
-            try (BufferedOutputStream output = new BufferedOutputStream(new FileOutputStream(target));
+            try (BufferedOutputStream output = new BufferedOutputStream(UpdateFileUtils.openReplacing(target));
                  BufferedInputStream input = new BufferedInputStream(inputStream)) {
                 byte[] buffer = new byte[BUFFER_SIZE];
                 int n;
@@ -89,4 +390,376 @@ public class SafeZipFile extends ZipFile {
         }
     }
 
+    /**
+     * Offset of a STORED entry's bytes within the archive file, or -1 when
+     * the entry cannot be addressed in place (compressed, ZIP64, unexpected
+     * local header) and must be read through getInputStream.
+     */
+    long storedDataOffset(ZipEntry ze) throws IOException {
+        Long header = ze.getMethod() == ZipEntry.STORED && ze.getCompressedSize() == ze.getSize()
+            ? storedHeaderOffset(ze.getName())
+            : null;
+        if (header == null) {
+            return -1;
+        }
+        try (RandomAccessFile archive = new RandomAccessFile(file, "r")) {
+            return dataOffset(archive, header, ze.getSize());
+        }
+    }
+
+    /**
+     * Whether the bytes at an entry's storedDataOffset match its CRC32, for
+     * callers reading them in place. Read only; trusted archives skip it.
+     */
+    boolean storedCrcMatches(ZipEntry ze, long dataOffset) throws IOException {
+        if (contentTrusted || ze.getCrc() == -1) {
+            return true;
+        }
+        try (RandomAccessFile archive = new RandomAccessFile(file, "r")) {
+            return crcOf(archive.getChannel(), dataOffset, ze.getSize()) == ze.getCrc();
+        }
+    }
+
+    // Follows the local header at header to the entry data; -1 when the
+    // header does not check out or the data would run past the file.
+    private static long dataOffset(RandomAccessFile archive, long header, long size)
+        throws IOException {
+        byte[] local = new byte[30];
+        if (header + local.length > archive.length()) {
+            return -1;
+        }
+        archive.seek(header);
+        archive.readFully(local);
+        if (readInt(local, 0) != 0x04034b50L) {
+            return -1;
+        }
+        long dataOffset = header + local.length + readShort(local, 26) + readShort(local, 28);
+        return dataOffset + size <= archive.length() ? dataOffset : -1;
+    }
+
+    /**
+     * Copies a STORED entry from its data offset in the archive with
+     * FileChannel.transferTo — no Java buffers, the kernel moves the pages.
+     * Returns false, before touching target, when the entry's local header
+     * cannot be located or does not check out; the caller then streams it.
+     */
+    private boolean copyStored(ZipEntry ze, File target) throws IOException {
+        Long header = storedHeaderOffset(ze.getName());
+        if (header == null || ze.getCompressedSize() != ze.getSize()) {
+            return false;
+        }
+        try (RandomAccessFile archive = new RandomAccessFile(file, "r")) {
+            long dataOffset = dataOffset(archive, header, ze.getSize());
+            if (dataOffset < 0) {
+                return false;
+            }
+            copyStoredAt(archive, dataOffset, ze.getSize(),
+                contentTrusted ? -1 : ze.getCrc(), target, ze.getName());
+        }
+        return true;
+    }
+
+    /**
+     * Extracts an entry addressed by its local header offset, as recorded
+     * by an index of the central directory, from an archive handle the
+     * caller owns (and does not share across threads meanwhile), without
+     * opening it as a ZipFile: STORED entries are copied with transferTo and DEFLATED ones
+     * inflated in place, both checked against crc (-1: not checked). Returns
+     * false, before touching target, for other methods or when the local
+     * header does not check out.
+     */
+    static boolean extractAt(
+        RandomAccessFile archive,
+        String name,
+        long header,
+        int method,
+        long compressedSize,
+        long size,
+        long crc,
+        File target
+    ) throws IOException {
+        if (method == ZipEntry.STORED ? compressedSize != size : method != ZipEntry.DEFLATED) {
+            return false;
+        }
+        long dataOffset = dataOffset(archive, header, compressedSize);
+        if (dataOffset < 0) {
+            return false;
+        }
+        ensureParent(target);
+        if (method == ZipEntry.STORED) {
+            copyStoredAt(archive, dataOffset, size, crc, target, name);
+            return true;
+        }
+
+        CRC32 actualCrc = new CRC32();
+        long written = 0;
+        try (InputStream input = new RegionInflaterInputStream(archive, dataOffset, compressedSize);
+             BufferedOutputStream output = new BufferedOutputStream(UpdateFileUtils.openReplacing(target))) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int n;
+            while ((n = input.read(buffer, 0, BUFFER_SIZE)) >= 0) {
+                output.write(buffer, 0, n);
+                actualCrc.update(buffer, 0, n);
+                written += n;
+            }
+        } catch (IOException e) {
+            target.delete();
+            throw e;
+        }
+        if (written != size || (crc != -1 && actualCrc.getValue() != crc)) {
+            target.delete();
+            throw new ZipException("invalid entry crc-32: " + name);
+        }
+        return true;
+    }
+
+    private static void ensureParent(File target) throws IOException {
+        File parent = target.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs() && !parent.exists()) {
+            throw new IOException("Failed to create parent dir for " + target);
+        }
+    }
+
+    // transferTo from the data offset — no Java buffers, the kernel moves
+    // the pages — then a CRC pass unless crc is -1.
+    private static void copyStoredAt(
+        RandomAccessFile archive,
+        long dataOffset,
+        long size,
+        long crc,
+        File target,
+        String name
+    ) throws IOException {
+        FileChannel in = archive.getChannel();
+        try (FileOutputStream output = UpdateFileUtils.openReplacing(target)) {
+            FileChannel out = output.getChannel();
+            long copied = 0;
+            while (copied < size) {
+                long n = in.transferTo(dataOffset + copied, size - copied, out);
+                if (n <= 0) {
+                    throw new IOException("Short copy of " + name);
+                }
+                copied += n;
+            }
+        }
+        if (crc != -1 && crcOf(in, dataOffset, size) != crc) {
+            target.delete();
+            throw new ZipException("invalid entry crc-32: " + name);
+        }
+    }
+
+    // Raw deflate data read straight from a region of the archive.
+    private static final class RegionInflaterInputStream extends InflaterInputStream {
+        private final RandomAccessFile archive;
+        private final long end;
+        private long position;
+        private boolean eof = false;
+
+        RegionInflaterInputStream(RandomAccessFile archive, long offset, long length) {
+            super(new ByteArrayInputStream(new byte[0]), new Inflater(true), BUFFER_SIZE);
+            this.archive = archive;
+            this.position = offset;
+            this.end = offset + length;
+        }
+
+        @Override
+        protected void fill() throws IOException {
+            if (position >= end) {
+                if (eof) {
+                    throw new EOFException("Unexpected end of deflated entry");
+                }
+                // As ZipFile does: "nowrap" inflation may need one byte
+                // past the compressed data.
+                eof = true;
+                buf[0] = 0;
+                len = 1;
+                inf.setInput(buf, 0, len);
+                return;
+            }
+            archive.seek(position);
+            len = archive.read(buf, 0, (int) Math.min(buf.length, end - position));
+            if (len <= 0) {
+                throw new EOFException("Unexpected end of deflated entry");
+            }
+            position += len;
+            inf.setInput(buf, 0, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                inf.end();
+            }
+        }
+    }
+
+    // CRC32 of a region of the archive, read through read-only mappings.
+    private static long crcOf(FileChannel channel, long offset, long size) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] chunk = Build.VERSION.SDK_INT >= Build.VERSION_CODES.O ? null : new byte[BUFFER_SIZE];
+        for (long done = 0; done < size; ) {
+            long window = Math.min(CRC_MAP_WINDOW, size - done);
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, offset + done, window);
+            if (chunk == null) {
+                crc.update(mapped);
+            } else {
+                // CRC32.update(ByteBuffer) is API 26.
+                while (mapped.hasRemaining()) {
+                    int n = Math.min(chunk.length, mapped.remaining());
+                    mapped.get(chunk, 0, n);
+                    crc.update(chunk, 0, n);
+                }
+            }
+            done += window;
+        }
+        return crc.getValue();
+    }
+
+    private synchronized Long storedHeaderOffset(String name) {
+        if (storedHeaders == null) {
+            storedHeaders = new HashMap<String, Long>();
+            try {
+                readStoredHeaders(file, storedHeaders);
+            } catch (IOException e) {
+                storedHeaders.clear();
+                Log.w(UpdateContext.TAG, "Cannot read central directory of " + file.getName()
+                    + ", stored entries will be streamed: " + e);
+            }
+        }
+        return storedHeaders.get(name);
+    }
+
+    // The STORED, unencrypted entries of the central directory. Leaves
+    // headers empty on anything the direct copy does not handle.
+    private static void readStoredHeaders(File file, HashMap<String, Long> headers)
+        throws IOException {
+        CentralDirectory directory = readCentralDirectory(file);
+        if (directory == null) {
+            return;
+        }
+        for (int i = 0; i < directory.count; i++) {
+            if (directory.methods[i] == ZipEntry.STORED && (directory.flags[i] & 1) == 0
+                && directory.headerOffsets[i] != 0xffffffffL) {
+                headers.put(directory.names[i], directory.headerOffsets[i]);
+            }
+        }
+    }
+
+    /**
+     * Central directory records, in directory order. Sizes and offsets are
+     * the raw 32-bit fields: 0xffffffff means the value is in a ZIP64 extra
+     * field, which is not read here.
+     */
+    static final class CentralDirectory {
+        final int count;
+        final String[] names;
+        final int[] flags;
+        final int[] methods;
+        final long[] crcs;
+        final long[] compressedSizes;
+        final long[] sizes;
+        final long[] headerOffsets;
+
+        private CentralDirectory(int count) {
+            this.count = count;
+            names = new String[count];
+            flags = new int[count];
+            methods = new int[count];
+            crcs = new long[count];
+            compressedSizes = new long[count];
+            sizes = new long[count];
+            headerOffsets = new long[count];
+        }
+    }
+
+    /**
+     * The entries as ZipFile enumerates them, for archives readCentralDirectory
+     * does not handle: local header offsets are unknown (0xffffffff).
+     */
+    static CentralDirectory listEntries(File file) throws IOException {
+        try (SafeZipFile zipFile = new SafeZipFile(file)) {
+            CentralDirectory records = new CentralDirectory(zipFile.size());
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            for (int i = 0; i < records.count && entries.hasMoreElements(); i++) {
+                ZipEntry entry = entries.nextElement();
+                records.names[i] = entry.getName();
+                records.methods[i] = entry.getMethod();
+                records.crcs[i] = entry.getCrc();
+                records.compressedSizes[i] = entry.getCompressedSize();
+                records.sizes[i] = entry.getSize();
+                records.headerOffsets[i] = 0xffffffffL;
+            }
+            return records;
+        }
+    }
+
+    /**
+     * Reads the central directory in one pass over its bytes, or returns
+     * null when it is not one this reader handles (ZIP64, no end record,
+     * malformed).
+     */
+    static CentralDirectory readCentralDirectory(File file) throws IOException {
+        try (RandomAccessFile archive = new RandomAccessFile(file, "r")) {
+            long length = archive.length();
+            // End of central directory: 22 bytes plus a comment of up to 64 KB.
+            int tailLength = (int) Math.min(length, 22 + 0xffff);
+            byte[] tail = new byte[tailLength];
+            archive.seek(length - tailLength);
+            archive.readFully(tail);
+            int end = -1;
+            for (int i = tailLength - 22; i >= 0; i--) {
+                if (readInt(tail, i) == 0x06054b50L) {
+                    end = i;
+                    break;
+                }
+            }
+            if (end < 0) {
+                return null;
+            }
+            int count = readShort(tail, end + 10);
+            long directorySize = readInt(tail, end + 12);
+            long directoryOffset = readInt(tail, end + 16);
+            if (count == 0xffff || directoryOffset == 0xffffffffL
+                || directoryOffset + directorySize > length) {
+                // ZIP64.
+                return null;
+            }
+            byte[] directory = new byte[(int) directorySize];
+            archive.seek(directoryOffset);
+            archive.readFully(directory);
+            CentralDirectory records = new CentralDirectory(count);
+            int p = 0;
+            for (int i = 0; i < count; i++) {
+                if (p + 46 > directory.length || readInt(directory, p) != 0x02014b50L) {
+                    return null;
+                }
+                int nameLength = readShort(directory, p + 28);
+                int extraLength = readShort(directory, p + 30);
+                int commentLength = readShort(directory, p + 32);
+                if (p + 46 + nameLength > directory.length) {
+                    return null;
+                }
+                records.flags[i] = readShort(directory, p + 8);
+                records.methods[i] = readShort(directory, p + 10);
+                records.crcs[i] = readInt(directory, p + 16);
+                records.compressedSizes[i] = readInt(directory, p + 20);
+                records.sizes[i] = readInt(directory, p + 24);
+                records.headerOffsets[i] = readInt(directory, p + 42);
+                records.names[i] = new String(directory, p + 46, nameLength, StandardCharsets.UTF_8);
+                p += 46 + nameLength + extraLength + commentLength;
+            }
+            return records;
+        }
+    }
+
+    private static int readShort(byte[] b, int offset) {
+        return (b[offset] & 0xff) | ((b[offset + 1] & 0xff) << 8);
+    }
+
+    private static long readInt(byte[] b, int offset) {
+        return (readShort(b, offset) | ((long) readShort(b, offset + 2) << 16)) & 0xffffffffL;
+    }
+
 }
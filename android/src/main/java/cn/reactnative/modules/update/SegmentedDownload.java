@@ -0,0 +1,578 @@
+package cn.reactnative.modules.update;
+
+import android.util.Log;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import okhttp3.Call;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSource;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Multi-connection transfer of one large full package: the target file is
+ * preallocated and split into byte ranges that are fetched concurrently,
+ * each written into its own region. Progress of every segment is recorded
+ * in the `.resume` sidecar, so a crash only loses what each segment received
+ * since its last checkpoint instead of forcing one linear resume.
+ *
+ * Only used when the server advertises byte ranges, a strong validator and a
+ * known length; everything else stays on the single-stream path.
+ *
+ * Segments start on BlockChecksums boundaries, so every block is written by
+ * exactly one segment and can be checksummed as it streams; on resume each
+ * segment rolls back to its last verified block.
+ */
+final class SegmentedDownload {
+    // Below this a single stream is already window-bound for a fraction of
+    // a second; the extra HEAD round-trip and connections do not pay off.
+    static final long MIN_SEGMENTED_BYTES = 4L * 1024 * 1024;
+    private static final int SEGMENT_COUNT = 4;
+    private static final int SEGMENT_BUFFER_SIZE = 64 * 1024;
+    // Sidecar checkpoint interval per segment: the most a crash can cost.
+    private static final long CHECKPOINT_BYTES = 512 * 1024;
+
+    // Segment 0 runs on the task thread; the others borrow these workers.
+    // Idle workers time out so the pool costs nothing between downloads.
+    private static final ThreadPoolExecutor SEGMENT_EXECUTOR = new ThreadPoolExecutor(
+        SEGMENT_COUNT - 1,
+        SEGMENT_COUNT - 1,
+        30,
+        TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>()
+    );
+
+    static {
+        SEGMENT_EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * The server answered a segment with something other than the exact
+     * range of the same representation (the file changed, If-Range fell
+     * back to 200, or Content-Range does not line up). The partial cannot be
+     * trusted; the caller restarts on the single-stream path.
+     */
+    private static final class StaleSegmentException extends IOException {
+        StaleSegmentException(String message) {
+            super(message);
+        }
+    }
+
+    private static final class Segment {
+        final long start;
+        // Inclusive, as in the Range header.
+        final long end;
+        // Bytes of this segment already written to disk. Only advanced after
+        // the write returned, so a checkpoint never vouches for missing bytes.
+        volatile long done;
+
+        Segment(long start, long end, long done) {
+            this.start = start;
+            this.end = end;
+            this.done = done;
+        }
+
+        long length() {
+            return end - start + 1;
+        }
+
+        boolean isComplete() {
+            return done >= length();
+        }
+    }
+
+    private final DownloadTask task;
+    private final OkHttpClient client;
+    private final String url;
+    private final File target;
+    private final File sidecar;
+    private final String etag;
+    private final String lastModified;
+    private final long total;
+    private final Segment[] segments;
+    private final Call[] activeCalls;
+    private final AtomicLong received = new AtomicLong();
+    private final Object progressLock = new Object();
+    // Open while run() is active.
+    private BlockChecksums blocks;
+    private int currentPercentage = 0;
+    private volatile boolean aborted = false;
+
+    private SegmentedDownload(
+        DownloadTask task,
+        OkHttpClient client,
+        String url,
+        File target,
+        File sidecar,
+        String etag,
+        String lastModified,
+        long total,
+        Segment[] segments
+    ) {
+        this.task = task;
+        this.client = client;
+        this.url = url;
+        this.target = target;
+        this.sidecar = sidecar;
+        this.etag = etag;
+        this.lastModified = lastModified;
+        this.total = total;
+        this.segments = segments;
+        this.activeCalls = new Call[segments.length];
+        long alreadyReceived = 0;
+        for (Segment segment : segments) {
+            alreadyReceived += segment.done;
+        }
+        this.received.set(alreadyReceived);
+    }
+
+    // If-Range only accepts strong validators: a weak ETag would make every
+    // range request come back as a full 200.
+    private static boolean isStrongEtag(String etag) {
+        return etag != null && !etag.isEmpty() && !etag.startsWith("W/");
+    }
+
+    private String ifRangeValidator() {
+        return isStrongEtag(etag) ? etag : lastModified;
+    }
+
+    /**
+     * Rebuilds a segmented transfer from its sidecar. Returns null when the
+     * recorded layout is inconsistent with the preallocated file.
+     */
+    static SegmentedDownload resume(
+        DownloadTask task,
+        OkHttpClient client,
+        String url,
+        File target,
+        File sidecar,
+        JSONObject meta
+    ) {
+        try {
+            long total = meta.getLong("total");
+            JSONArray array = meta.getJSONArray("segments");
+            if (total <= 0 || array.length() == 0 || target.length() != total) {
+                return null;
+            }
+            Segment[] segments = new Segment[array.length()];
+            long expectedStart = 0;
+            for (int i = 0; i < segments.length; i++) {
+                JSONObject item = array.getJSONObject(i);
+                long start = item.getLong("start");
+                long end = item.getLong("end");
+                long done = item.getLong("done");
+                if (start != expectedStart || end < start || done < 0 || done > end - start + 1) {
+                    return null;
+                }
+                segments[i] = new Segment(start, end, done);
+                expectedStart = end + 1;
+            }
+            if (expectedStart != total) {
+                return null;
+            }
+            if (!rollBackUnverified(target, segments, total)) {
+                return null;
+            }
+            String etag = meta.optString("etag", null);
+            String lastModified = meta.optString("lastModified", null);
+            if (!isStrongEtag(etag) && lastModified == null) {
+                return null;
+            }
+            return new SegmentedDownload(
+                task, client, url, target, sidecar, etag, lastModified, total, segments);
+        } catch (JSONException e) {
+            return null;
+        }
+    }
+
+    // Shrinks each segment's progress to its verified blocks. Layouts from
+    // before block checksums (no companion) keep their recorded progress.
+    private static boolean rollBackUnverified(File target, Segment[] segments, long total) {
+        if (!BlockChecksums.exists(target)) {
+            return true;
+        }
+        try (BlockChecksums blocks = BlockChecksums.open(target)) {
+            for (Segment segment : segments) {
+                if (segment.done == 0) {
+                    continue;
+                }
+                if (segment.start % BlockChecksums.BLOCK_SIZE != 0) {
+                    return false;
+                }
+                long verified = blocks.verifiedEnd(
+                    segment.start, segment.start + segment.done, total) - segment.start;
+                if (verified < segment.done) {
+                    Log.w(UpdateContext.TAG, "Rolling back segment at " + segment.start
+                        + " from " + segment.done + " to " + verified + " verified bytes");
+                    segment.done = verified;
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            Log.w(UpdateContext.TAG, "Failed to verify segment blocks: " + e);
+            return false;
+        }
+    }
+
+    /**
+     * Asks the server whether the package qualifies (HEAD: byte ranges, a
+     * strong validator, an unencoded length above the threshold) and, if so,
+     * preallocates the target and persists a fresh layout. Returns null to
+     * keep the single-stream path; a failing HEAD is not an error here.
+     */
+    static SegmentedDownload probe(
+        DownloadTask task,
+        OkHttpClient client,
+        String url,
+        File target,
+        File sidecar
+    ) throws IOException {
+        Request request = new Request.Builder()
+            .url(url)
+            .head()
+            .header("Accept-Encoding", "identity")
+            .build();
+        String etag;
+        String lastModified;
+        long total;
+        try (Response response = client.newCall(request).execute()) {
+            if (response.code() != 200
+                || !"bytes".equalsIgnoreCase(response.header("Accept-Ranges"))) {
+                return null;
+            }
+            String contentEncoding = response.header("Content-Encoding");
+            if (contentEncoding != null && !contentEncoding.equalsIgnoreCase("identity")) {
+                return null;
+            }
+            try {
+                total = Long.parseLong(String.valueOf(response.header("Content-Length")).trim());
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            etag = response.header("ETag");
+            lastModified = response.header("Last-Modified");
+        } catch (IOException e) {
+            if (UpdateContext.DEBUG) {
+                Log.d(UpdateContext.TAG, "Segmented download probe failed: " + e);
+            }
+            return null;
+        }
+        if (total < MIN_SEGMENTED_BYTES || (!isStrongEtag(etag) && lastModified == null)) {
+            return null;
+        }
+
+        // Whole blocks per segment; the last one takes the remainder.
+        long blocksPerSegment = Math.max(1L,
+            (total / SEGMENT_COUNT + BlockChecksums.BLOCK_SIZE - 1) / BlockChecksums.BLOCK_SIZE);
+        long segmentLength = blocksPerSegment * BlockChecksums.BLOCK_SIZE;
+        ArrayList<Segment> layout = new ArrayList<Segment>();
+        for (long start = 0; start < total && layout.size() < SEGMENT_COUNT; start += segmentLength) {
+            boolean last = layout.size() == SEGMENT_COUNT - 1 || start + segmentLength >= total;
+            layout.add(new Segment(start, last ? total - 1 : start + segmentLength - 1, 0));
+        }
+        Segment[] segments = layout.toArray(new Segment[0]);
+
+        // Same ordering rule as the single-stream path: the old bytes are
+        // gone before a sidecar can describe the new layout.
+        if (target.exists() && !target.delete()) {
+            throw new IOException("Failed to replace existing file: " + target);
+        }
+        DownloadTask.deleteResumeSidecar(target);
+        try (RandomAccessFile file = new RandomAccessFile(target, "rw")) {
+            file.setLength(total);
+        }
+        SegmentedDownload download = new SegmentedDownload(
+            task, client, url, target, sidecar, etag, lastModified, total, segments);
+        download.checkpoint();
+        return download;
+    }
+
+    /**
+     * Fetches every incomplete segment. Returns false when the server no
+     * longer serves the recorded representation; the partial must then be
+     * discarded. Other failures throw and leave the checkpointed progress
+     * in place for the next attempt.
+     */
+    boolean run() throws IOException {
+        ArrayList<Integer> pending = new ArrayList<Integer>();
+        for (int i = 0; i < segments.length; i++) {
+            if (!segments[i].isComplete()) {
+                pending.add(i);
+            }
+        }
+        if (pending.isEmpty()) {
+            // Fully received in a previous attempt.
+            task.postProgress(total, total);
+            return true;
+        }
+
+        Runnable abortOnCancel = new Runnable() {
+            @Override
+            public void run() {
+                abort();
+            }
+        };
+        task.cancellation().onCancel(abortOnCancel);
+        ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
+        IOException failure = null;
+        boolean joined = false;
+        try {
+            blocks = BlockChecksums.open(target);
+            for (int i = 1; i < pending.size(); i++) {
+                final int index = pending.get(i);
+                futures.add(SEGMENT_EXECUTOR.submit(new java.util.concurrent.Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        runSegmentOrAbort(index);
+                        return null;
+                    }
+                }));
+            }
+
+            try {
+                runSegmentOrAbort(pending.get(0));
+            } catch (IOException e) {
+                failure = e;
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (failure == null || (cause instanceof StaleSegmentException
+                        && !(failure instanceof StaleSegmentException))) {
+                        failure = cause instanceof IOException
+                            ? (IOException) cause
+                            : new IOException(String.valueOf(cause), cause);
+                    }
+                } catch (InterruptedException e) {
+                    abort();
+                    Thread.currentThread().interrupt();
+                    if (failure == null) {
+                        failure = new InterruptedIOException("Segmented download interrupted");
+                    }
+                }
+            }
+            joined = true;
+        } finally {
+            task.cancellation().removeOnCancel(abortOnCancel);
+            if (!joined) {
+                // Something escaped before every segment was waited for:
+                // stop them before closing the checksums they write to.
+                abort();
+                awaitQuietly(futures);
+            }
+            if (blocks != null) {
+                blocks.close();
+                blocks = null;
+            }
+        }
+        if (task.cancellation().isCancelled()) {
+            // Checkpoint first: the sidecar must describe exactly the bytes
+            // the segments wrote before they stopped.
+            checkpoint();
+            throw new DownloadCancelledException("Download cancelled");
+        }
+        if (failure instanceof StaleSegmentException) {
+            Log.w(UpdateContext.TAG, "Segmented partial is stale, restarting: "
+                + failure.getMessage());
+            return false;
+        }
+        // Record whatever the segments reached, including after a failure.
+        checkpoint();
+        if (failure != null) {
+            throw failure;
+        }
+        for (Segment segment : segments) {
+            if (!segment.isComplete()) {
+                throw new IOException("Download incomplete: segment at " + segment.start
+                    + " received " + segment.done + " of " + segment.length() + " bytes");
+            }
+        }
+        task.postProgress(total, total);
+        return true;
+    }
+
+    private static void awaitQuietly(ArrayList<Future<?>> futures) {
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                // Already failing with the error that got here.
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void runSegmentOrAbort(int index) throws IOException {
+        try {
+            runSegment(index);
+        } catch (IOException | RuntimeException e) {
+            // One broken segment fails the transfer: stop the others now
+            // instead of letting them run to the end of their ranges.
+            abort();
+            throw e;
+        }
+    }
+
+    private void abort() {
+        aborted = true;
+        synchronized (activeCalls) {
+            for (Call call : activeCalls) {
+                if (call != null) {
+                    call.cancel();
+                }
+            }
+        }
+    }
+
+    private void runSegment(int index) throws IOException {
+        Segment segment = segments[index];
+        long offset = segment.start + segment.done;
+        Request request = new Request.Builder()
+            .url(url)
+            .header("Accept-Encoding", "identity")
+            .header("Range", "bytes=" + offset + "-" + segment.end)
+            .header("If-Range", ifRangeValidator())
+            .build();
+        Call call = client.newCall(request);
+        synchronized (activeCalls) {
+            if (aborted) {
+                return;
+            }
+            activeCalls[index] = call;
+        }
+        try (Response response = call.execute()) {
+            if (response.code() == 200 || response.code() == 416) {
+                throw new StaleSegmentException("HTTP " + response.code()
+                    + " for range starting at " + offset);
+            }
+            if (response.code() != 206) {
+                throw new IOException("Server error: " + response.code() + " " + response.message());
+            }
+            String contentEncoding = response.header("Content-Encoding");
+            if (contentEncoding != null && !contentEncoding.equalsIgnoreCase("identity")) {
+                throw new StaleSegmentException("Encoded range response: " + contentEncoding);
+            }
+            if (DownloadTask.parseContentRange(response.header("Content-Range"), offset) != total) {
+                throw new StaleSegmentException("Content-Range mismatch: "
+                    + response.header("Content-Range"));
+            }
+            ResponseBody body = response.body();
+            if (body == null) {
+                throw new IOException("Empty response body for " + url);
+            }
+
+            byte[] buffer = new byte[SEGMENT_BUFFER_SIZE];
+            long lastCheckpoint = segment.done;
+            BlockChecksums.Stream blockStream = blocks.stream(offset, total);
+            try (
+                BufferedSource source = body.source();
+                RandomAccessFile file = new RandomAccessFile(target, "rw")
+            ) {
+                file.seek(offset);
+                while (!aborted && !segment.isComplete()) {
+                    long remaining = segment.length() - segment.done;
+                    int count = source.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                    if (count == -1) {
+                        break;
+                    }
+                    blockStream.update(buffer, 0, count);
+                    file.write(buffer, 0, count);
+                    blockStream.commit();
+                    segment.done += count;
+                    onReceived(count);
+                    task.onArchiveBytesAvailable(contiguousLength());
+                    if (segment.done - lastCheckpoint >= CHECKPOINT_BYTES) {
+                        lastCheckpoint = segment.done;
+                        checkpoint();
+                    }
+                }
+            }
+            if (!aborted && !segment.isComplete()) {
+                throw new IOException("Unexpected eof in segment at " + segment.start);
+            }
+        } finally {
+            synchronized (activeCalls) {
+                activeCalls[index] = null;
+            }
+        }
+    }
+
+    // Bytes from the start of the file with no hole before them.
+    private long contiguousLength() {
+        long length = 0;
+        for (Segment segment : segments) {
+            long done = segment.done;
+            length += done;
+            if (done < segment.length()) {
+                break;
+            }
+        }
+        return length;
+    }
+
+    private void onReceived(long count) {
+        long overall = received.addAndGet(count);
+        synchronized (progressLock) {
+            int percentage = (int) (overall * 100.0 / total + 0.5);
+            if (percentage > currentPercentage && overall < total) {
+                currentPercentage = percentage;
+                task.postProgress(overall, total);
+            }
+        }
+    }
+
+    // Rewrites the sidecar with the current per-segment progress. Written to
+    // a temp file and renamed: a torn sidecar would throw away every
+    // segment's progress, not just the last checkpoint.
+    private synchronized void checkpoint() {
+        try {
+            JSONObject meta = new JSONObject();
+            meta.put("url", url);
+            if (etag != null) {
+                meta.put("etag", etag);
+            }
+            if (lastModified != null) {
+                meta.put("lastModified", lastModified);
+            }
+            meta.put("total", total);
+            JSONArray array = new JSONArray();
+            for (Segment segment : segments) {
+                JSONObject item = new JSONObject();
+                item.put("start", segment.start);
+                item.put("end", segment.end);
+                item.put("done", segment.done);
+                array.put(item);
+            }
+            meta.put("segments", array);
+            File temp = new File(sidecar.getPath() + ".tmp");
+            try (FileOutputStream out = new FileOutputStream(temp)) {
+                out.write(meta.toString().getBytes(StandardCharsets.UTF_8));
+            }
+            if (!temp.renameTo(sidecar)) {
+                throw new IOException("Failed to rename " + temp);
+            }
+        } catch (Throwable e) {
+            // Non-fatal: the previous checkpoint stays valid, just older.
+            Log.w(UpdateContext.TAG, "Failed to persist segmented resume sidecar: " + e);
+        }
+    }
+}
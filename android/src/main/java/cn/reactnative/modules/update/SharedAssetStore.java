@@ -0,0 +1,109 @@
+package cn.reactnative.modules.update;
+
+import android.system.ErrnoException;
+import android.system.Os;
+import android.util.Log;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+
+/**
+ * Bundled resources shared by the installed versions: one file per content
+ * (CRC32 and size) under the update root, which version directories
+ * hard-link to. An unchanged resource of a later install from the APK is
+ * then one link instead of an extraction.
+ *
+ * Nothing here writes a blob's bytes: a blob is a second name of a file an
+ * install extracted and verified, and never changes afterwards. Its link
+ * count minus one is the number of version files using it;
+ * CleanupOldEntries (patch_core.cpp) removes blobs nobody links to.
+ * A blob is still re-read against its CRC32 before each new link: the name
+ * is only a claim, and a blob damaged on disk would otherwise be handed to
+ * every later install instead of one.
+ *
+ * That holds only while no writer opens an existing file of a version
+ * directory in place, since any of them may be a link to a blob: every Java
+ * writer goes through UpdateFileUtils.openReplacing, which unlinks first,
+ * and the native CopyFile writes a temporary file and renames it.
+ */
+final class SharedAssetStore {
+    // kSharedAssetDirName in patch_core.h.
+    static final String DIRECTORY_NAME = ".assets";
+
+    private final File directory;
+
+    SharedAssetStore(File updateRoot) {
+        directory = new File(updateRoot, DIRECTORY_NAME);
+    }
+
+    /**
+     * Links target to the blob of this content; false when there is none,
+     * its bytes do not match the CRC32 (the blob is then dropped) or linking
+     * fails, and the caller extracts it instead.
+     */
+    boolean linkTo(long crc, long size, File target) {
+        File blob = blob(crc, size);
+        if (!blob.isFile()) {
+            return false;
+        }
+        if (blob.length() != size || !hasCrc(blob, crc)) {
+            // Extracting replaces it: add() finds the name free again.
+            Log.w(UpdateContext.TAG, "Shared asset " + blob + " is corrupt, dropping it");
+            blob.delete();
+            return false;
+        }
+        try {
+            UpdateFileUtils.ensureParentDirectory(target);
+            Os.link(blob.getPath(), target.getPath());
+            return true;
+        } catch (ErrnoException | IOException e) {
+            // The caller's extraction reports a real failure.
+            if (UpdateContext.DEBUG) {
+                Log.d(UpdateContext.TAG, "Shared asset link " + target + " failed: " + e);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Makes extracted, whose content has this CRC32 and size, the blob of
+     * that content unless there is one already. Best effort.
+     */
+    void add(long crc, long size, File extracted) {
+        File blob = blob(crc, size);
+        if (blob.exists()) {
+            return;
+        }
+        if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+            return;
+        }
+        try {
+            Os.link(extracted.getPath(), blob.getPath());
+        } catch (ErrnoException e) {
+            // EEXIST from a concurrent install, or no hard links here.
+            if (UpdateContext.DEBUG) {
+                Log.d(UpdateContext.TAG, "Shared asset " + blob + " not added: " + e);
+            }
+        }
+    }
+
+    private static boolean hasCrc(File file, long crc) {
+        CRC32 actual = new CRC32();
+        byte[] chunk = new byte[64 * 1024];
+        try (InputStream in = new FileInputStream(file)) {
+            int n;
+            while ((n = in.read(chunk)) != -1) {
+                actual.update(chunk, 0, n);
+            }
+        } catch (IOException e) {
+            return false;
+        }
+        return actual.getValue() == crc;
+    }
+
+    private File blob(long crc, long size) {
+        return new File(directory, Long.toHexString(crc) + "-" + size);
+    }
+}
@@ -0,0 +1,275 @@
+package cn.reactnative.modules.update;
+
+import android.util.Log;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Extracts a full package while it is still downloading: a worker follows
+ * the growing archive through its local file headers and inflates each
+ * entry into the unzip directory as soon as its bytes are on disk, so the
+ * unzip overlaps the transfer instead of following it.
+ *
+ * Local headers are not authoritative — the central directory is. Once the
+ * download ends, the extracted set is checked entry by entry (name, size,
+ * CRC32) against the central directory, and any mismatch or anything the
+ * streaming reader cannot handle (e.g. STORED entries with data descriptors)
+ * reports failure so the caller falls back to the two-pass extraction.
+ */
+final class StreamingUnzip {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long ABANDON_JOIN_MILLIS = 5000;
+
+    private static final class ExtractedEntry {
+        final long size;
+        final long crc;
+
+        ExtractedEntry(long size, long crc) {
+            this.size = size;
+            this.crc = crc;
+        }
+    }
+
+    private final File archive;
+    private final File unzipDirectory;
+    private final Object lock = new Object();
+    private final HashMap<String, ExtractedEntry> extracted = new HashMap<String, ExtractedEntry>();
+    // Guarded by lock.
+    private long available = 0;
+    private boolean transferFinished = false;
+    private boolean abandoned = false;
+    private Thread worker;
+    private volatile Throwable failure;
+
+    StreamingUnzip(File archive, File unzipDirectory) {
+        this.archive = archive;
+        this.unzipDirectory = unzipDirectory;
+    }
+
+    boolean isStarted() {
+        synchronized (lock) {
+            return worker != null;
+        }
+    }
+
+    /**
+     * Publishes how many leading bytes of the archive are on disk. The
+     * first call starts the worker, which then reads from offset 0 — a
+     * resumed partial is extracted from its on-disk prefix first.
+     */
+    void onBytesAvailable(long contiguousLength) {
+        synchronized (lock) {
+            if (abandoned || transferFinished) {
+                return;
+            }
+            if (contiguousLength > available) {
+                available = contiguousLength;
+                lock.notifyAll();
+            }
+            if (worker == null) {
+                worker = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        extract();
+                    }
+                }, "pushy-stream-unzip");
+                worker.start();
+            }
+        }
+    }
+
+    /**
+     * Stops the worker for good; finish() will then report failure. Used when
+     * the partial the worker was following is discarded or the task fails.
+     * Waits (bounded) for the worker, so a caller that then removes the
+     * unzip directory does not race its last writes.
+     */
+    void abandon() {
+        Thread thread = stop();
+        if (thread == null || thread == Thread.currentThread()) {
+            return;
+        }
+        // The worker reads through ArchiveTail, which throws once abandoned:
+        // it stops within one buffer of the entry it is writing.
+        try {
+            thread.join(ABANDON_JOIN_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (thread.isAlive()) {
+            Log.w(UpdateContext.TAG, "Streaming unzip still running after abandon");
+        }
+    }
+
+    /**
+     * abandon() without the wait, for threads that must not block (a
+     * cancellation hook); returns the worker, if any.
+     */
+    Thread stop() {
+        synchronized (lock) {
+            abandoned = true;
+            lock.notifyAll();
+            return worker;
+        }
+    }
+
+    /**
+     * Marks the transfer complete, waits for the worker and validates the
+     * result against the central directory. Returns false when the caller
+     * must clear the unzip directory and extract in a second pass.
+     */
+    boolean finish() throws InterruptedIOException {
+        Thread thread;
+        synchronized (lock) {
+            transferFinished = true;
+            available = archive.length();
+            lock.notifyAll();
+            thread = worker;
+        }
+        if (thread == null) {
+            return false;
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            abandon();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for streaming unzip");
+        }
+        synchronized (lock) {
+            if (abandoned) {
+                return false;
+            }
+        }
+        if (failure != null) {
+            Log.w(UpdateContext.TAG, "Streaming unzip fell back to two-pass: " + failure);
+            return false;
+        }
+        return matchesCentralDirectory();
+    }
+
+    private void extract() {
+        try (ZipInputStream zip = new ZipInputStream(
+            new BufferedInputStream(new ArchiveTail(), BUFFER_SIZE))) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            CRC32 crc = new CRC32();
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                String name = entry.getName();
+                SafeZipFile.checkEntryName(name);
+                File target = SafeZipFile.resolveEntryTarget(unzipDirectory, name);
+                if (entry.isDirectory()) {
+                    target.mkdirs();
+                    continue;
+                }
+                UpdateFileUtils.ensureParentDirectory(target);
+                crc.reset();
+                long size = 0;
+                try (BufferedOutputStream output =
+                         new BufferedOutputStream(UpdateFileUtils.openReplacing(target), BUFFER_SIZE)) {
+                    int n;
+                    while ((n = zip.read(buffer, 0, buffer.length)) >= 0) {
+                        output.write(buffer, 0, n);
+                        crc.update(buffer, 0, n);
+                        size += n;
+                    }
+                }
+                extracted.put(name, new ExtractedEntry(size, crc.getValue()));
+            }
+        } catch (Throwable e) {
+            failure = e;
+        }
+    }
+
+    private boolean matchesCentralDirectory() {
+        int fileEntries = 0;
+        try (SafeZipFile zipFile = new SafeZipFile(archive)) {
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (entry.isDirectory()) {
+                    continue;
+                }
+                fileEntries++;
+                ExtractedEntry actual = extracted.get(entry.getName());
+                if (actual == null
+                    || actual.size != entry.getSize()
+                    || actual.crc != entry.getCrc()) {
+                    Log.w(UpdateContext.TAG,
+                        "Streaming unzip disagrees with central directory at " + entry.getName());
+                    return false;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            Log.w(UpdateContext.TAG, "Failed to verify streaming unzip: " + e);
+            return false;
+        }
+        // Entries reachable only through stray local headers are not part of
+        // the archive and must not survive in the version directory.
+        return fileEntries == extracted.size();
+    }
+
+    // Reads the archive up to the published length, blocking for more until
+    // the transfer finishes.
+    private final class ArchiveTail extends InputStream {
+        private RandomAccessFile file;
+        private long position = 0;
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            int n = read(one, 0, 1);
+            return n <= 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            long limit;
+            synchronized (lock) {
+                while (!abandoned && !transferFinished && position >= available) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        throw new InterruptedIOException("Streaming unzip interrupted");
+                    }
+                }
+                if (abandoned) {
+                    throw new IOException("Streaming unzip abandoned");
+                }
+                limit = available;
+            }
+            if (position >= limit) {
+                return -1;
+            }
+            if (file == null) {
+                file = new RandomAccessFile(archive, "r");
+                file.seek(position);
+            }
+            int n = file.read(b, off, (int) Math.min(len, limit - position));
+            if (n > 0) {
+                position += n;
+            }
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (file != null) {
+                file.close();
+            }
+        }
+    }
+}
@@ -12,8 +12,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
+import okhttp3.OkHttpClient;
 
 public class UpdateContext {
     static {
@@ -25,11 +24,22 @@ public class UpdateContext {
 
     private final Context context;
     private final File rootDir;
-    private final Executor executor;
+    private final UpdateTaskScheduler scheduler;
+    // Patch tasks currently queued or running, by target hash. Guarded by
+    // itself.
+    private final java.util.HashMap<String, InFlightDownload> inFlightDownloads =
+        new java.util.HashMap<String, InFlightDownload>();
+    // Queued or running tasks by hash, for cancelDownload. Guarded by
+    // inFlightDownloads.
+    private final java.util.HashMap<String, java.util.ArrayList<DownloadTask>> liveTasks =
+        new java.util.HashMap<String, java.util.ArrayList<DownloadTask>>();
+    // Scheduler handles of the live tasks. Guarded by inFlightDownloads.
+    private final java.util.HashMap<DownloadTask, UpdateTaskScheduler.Job> scheduledJobs =
+        new java.util.HashMap<DownloadTask, UpdateTaskScheduler.Job>();
     private final SharedPreferences sp;
 
     private ReactInstanceManager reactInstanceManager;
-    // Written on the launch path, read from executor/JS threads.
+    // Written on the launch path, read from scheduler/JS threads.
     private volatile boolean isUsingBundleUrl;
     private volatile boolean ignoreRollback;
     // The version whose bundle this process actually loaded (resolved in
@@ -79,7 +89,7 @@ public class UpdateContext {
 
     private UpdateContext(Context context) {
         this.context = context.getApplicationContext();
-        this.executor = Executors.newSingleThreadExecutor();
+        this.scheduler = new UpdateTaskScheduler();
 
         this.rootDir = new File(this.context.getFilesDir(), "_update");
 
@@ -146,7 +156,7 @@ public class UpdateContext {
      * identity of the binary itself, not of whatever hot update is currently
      * running. Hashes exactly the bytes pdiff patches from: the hardcoded
      * "index.android.bundle" asset read via AssetManager, same as
-     * DownloadTask.copyBundledAssetToFile. Runs on the download executor;
+     * DownloadTask.copyBundledAssetToFile. Runs on the housekeeping lane;
      * never fails — an empty string means "unknown" and the server falls back
      * to the buildTime heuristic.
      *
@@ -161,12 +171,16 @@ public class UpdateContext {
             listener.onBundleHash("");
             return;
         }
-        executor.execute(new Runnable() {
-            @Override
-            public void run() {
-                listener.onBundleHash(computeBundleHash());
-            }
-        });
+        scheduler.execute(
+            UpdateTaskScheduler.LANE_HOUSEKEEPING,
+            UpdateTaskScheduler.PRIORITY_NORMAL,
+            new String[0],
+            new Runnable() {
+                @Override
+                public void run() {
+                    listener.onBundleHash(computeBundleHash());
+                }
+            });
     }
 
     // Package-private: also the native cold-start check's request input
@@ -219,8 +233,319 @@ public class UpdateContext {
         }
     }
 
+    // What an in-flight patch task owes to the callers that found it running:
+    // joined listeners settle with it, deferred tasks start once it settled.
+    private static final class InFlightDownload {
+        final int type;
+        final long deadlineNanos;
+        // Highest of the owner's and the joined callers' priorities.
+        int priority;
+        final java.util.ArrayList<DownloadFileListener> listeners =
+            new java.util.ArrayList<DownloadFileListener>();
+        final java.util.ArrayList<DownloadTaskParams> deferred =
+            new java.util.ArrayList<DownloadTaskParams>();
+        DownloadTask task;
+
+        InFlightDownload(int type, long deadlineNanos) {
+            this.type = type;
+            this.deadlineNanos = deadlineNanos;
+            this.priority = priorityOf(deadlineNanos);
+        }
+    }
+
+    // Public API downloads have no deadline but a 10-minute call timeout.
+    private static final long DEFAULT_TASK_BUDGET_NANOS =
+        java.util.concurrent.TimeUnit.MINUTES.toNanos(10);
+
+    private static long remainingBudgetNanos(long deadlineNanos, long nowNanos) {
+        return deadlineNanos > 0 ? deadlineNanos - nowNanos : DEFAULT_TASK_BUDGET_NANOS;
+    }
+
+    // Orchestrated (crash rescue) requests carry a deadline; public API calls
+    // do not.
+    private static int priorityOf(long deadlineNanos) {
+        return deadlineNanos > 0
+            ? UpdateTaskScheduler.PRIORITY_RESCUE
+            : UpdateTaskScheduler.PRIORITY_NORMAL;
+    }
+
+    private static boolean isPatchTaskType(int type) {
+        return type == DownloadTaskParams.TASK_TYPE_PATCH_FULL
+            || type == DownloadTaskParams.TASK_TYPE_PATCH_FROM_APK
+            || type == DownloadTaskParams.TASK_TYPE_PATCH_FROM_PPK;
+    }
+
+    /**
+     * One patch task per target hash, as on iOS: the JS API and the native
+     * cold-start check otherwise download the same version back to back.
+     * A caller for the same artifact type joins the running task and settles
+     * with it (progress events are per hash, so it already sees the shared
+     * stream). A different artifact type, or a caller with far more budget
+     * than a nearly exhausted owner, is deferred and enqueued once the owner
+     * settles — the completion-marker preflight makes that free after a
+     * successful owner. A rescue caller that joins a still queued owner
+     * moves it up to rescue priority.
+     */
     private void enqueue(DownloadTaskParams params) {
-        executor.execute(new DownloadTask(context, params));
+        if (!isPatchTaskType(params.type)) {
+            schedule(params);
+            return;
+        }
+        final String hash = params.hash;
+        InFlightDownload owned;
+        UpdateTaskScheduler.Job raised = null;
+        int raisedPriority = priorityOf(params.deadlineNanos);
+        boolean attached = false;
+        synchronized (inFlightDownloads) {
+            InFlightDownload inFlight = inFlightDownloads.get(hash);
+            if (inFlight != null) {
+                long now = System.nanoTime();
+                // Compare remaining budgets, not absolute deadlines: a second
+                // JS caller always starts a little later than the owner. Only
+                // a genuinely starved owner (less than half the newcomer's
+                // budget left) defers the newcomer.
+                boolean ownerStarved = 2 * remainingBudgetNanos(inFlight.deadlineNanos, now)
+                    < remainingBudgetNanos(params.deadlineNanos, now);
+                if (inFlight.type == params.type && !ownerStarved) {
+                    inFlight.listeners.add(params.listener);
+                    Log.i(TAG, "join in-flight download for " + hash);
+                    if (raisedPriority > inFlight.priority) {
+                        inFlight.priority = raisedPriority;
+                        // Null until the owner's enqueue() records its task,
+                        // which then applies the raised priority itself.
+                        raised = inFlight.task != null ? scheduledJobs.get(inFlight.task) : null;
+                    }
+                } else {
+                    inFlight.deferred.add(params);
+                    Log.i(TAG, "defer download behind in-flight task for " + hash);
+                }
+                attached = true;
+            } else {
+                inFlight = new InFlightDownload(params.type, params.deadlineNanos);
+                inFlight.listeners.add(params.listener);
+                inFlightDownloads.put(hash, inFlight);
+            }
+            owned = inFlight;
+        }
+        if (attached) {
+            if (raised != null) {
+                scheduler.raisePriority(raised, raisedPriority);
+            }
+            return;
+        }
+        params.listener = new DownloadFileListener() {
+            @Override
+            public void onDownloadCompleted(DownloadTaskParams completed) {
+                finishInFlight(hash, completed, null);
+            }
+
+            @Override
+            public void onDownloadFailed(Throwable error) {
+                finishInFlight(hash, null, error);
+            }
+        };
+        DownloadTask task = schedule(params);
+        synchronized (inFlightDownloads) {
+            if (inFlightDownloads.get(hash) == owned) {
+                owned.task = task;
+                if (owned.priority > priorityOf(params.deadlineNanos)) {
+                    raised = scheduledJobs.get(task);
+                    raisedPriority = owned.priority;
+                }
+            }
+        }
+        if (raised != null) {
+            scheduler.raisePriority(raised, raisedPriority);
+        }
+    }
+
+    /**
+     * Cancels every queued or running task for hash, and every request
+     * deferred behind them. Their callers reject with DOWNLOAD_FAILED; the
+     * partial archive and its resume sidecar stay, so a later download of
+     * the same hash resumes. A task still queued leaves the scheduler and
+     * fails at once instead of when it would have started. Returns whether
+     * anything was cancelled.
+     */
+    public boolean cancelDownload(String hash) {
+        java.util.ArrayList<DownloadTask> tasks;
+        java.util.ArrayList<DownloadTaskParams> deferred =
+            new java.util.ArrayList<DownloadTaskParams>();
+        synchronized (inFlightDownloads) {
+            java.util.ArrayList<DownloadTask> live = liveTasks.get(hash);
+            tasks = live != null
+                ? new java.util.ArrayList<DownloadTask>(live)
+                : new java.util.ArrayList<DownloadTask>();
+            InFlightDownload inFlight = inFlightDownloads.get(hash);
+            if (inFlight != null) {
+                deferred.addAll(inFlight.deferred);
+                inFlight.deferred.clear();
+            }
+        }
+        for (DownloadTaskParams params : deferred) {
+            if (params.listener != null) {
+                params.listener.onDownloadFailed(
+                    new DownloadCancelledException("Download cancelled"));
+            }
+        }
+        for (DownloadTask task : tasks) {
+            cancelTask(hash, task);
+        }
+        if (!tasks.isEmpty() || !deferred.isEmpty()) {
+            Log.i(TAG, "cancelled download for " + hash);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Detaches a caller that stopped waiting (the native check after its
+     * phase deadline). Once no caller is left, the task itself is cancelled
+     * instead of downloading on as an orphan that holds a patch lane.
+     */
+    void abandonDownload(String hash, DownloadFileListener listener) {
+        DownloadTask orphan = null;
+        synchronized (inFlightDownloads) {
+            InFlightDownload inFlight = inFlightDownloads.get(hash);
+            if (inFlight == null) {
+                return;
+            }
+            inFlight.listeners.remove(listener);
+            java.util.Iterator<DownloadTaskParams> it = inFlight.deferred.iterator();
+            while (it.hasNext()) {
+                if (it.next().listener == listener) {
+                    it.remove();
+                }
+            }
+            if (inFlight.listeners.isEmpty()) {
+                orphan = inFlight.task;
+            }
+        }
+        if (orphan != null) {
+            Log.i(TAG, "cancel orphaned download for " + hash);
+            cancelTask(hash, orphan);
+        }
+    }
+
+    private void cancelTask(String hash, DownloadTask task) {
+        UpdateTaskScheduler.Job job;
+        synchronized (inFlightDownloads) {
+            job = scheduledJobs.get(task);
+        }
+        if (job == null || !scheduler.cancelPending(job)) {
+            // Running (or finished): it stops at its next chunk boundary.
+            task.cancel();
+            return;
+        }
+        forgetTask(hash, task);
+        task.cancelBeforeStart();
+    }
+
+    private void forgetTask(String hash, DownloadTask task) {
+        synchronized (inFlightDownloads) {
+            scheduledJobs.remove(task);
+            java.util.ArrayList<DownloadTask> live = liveTasks.get(hash);
+            if (live != null) {
+                live.remove(task);
+                if (live.isEmpty()) {
+                    liveTasks.remove(hash);
+                }
+            }
+        }
+    }
+
+    private void finishInFlight(String hash, DownloadTaskParams completed, Throwable error) {
+        InFlightDownload inFlight;
+        synchronized (inFlightDownloads) {
+            inFlight = inFlightDownloads.remove(hash);
+        }
+        if (inFlight == null) {
+            return;
+        }
+        // Establish the next owner before waking the settled listeners, so a
+        // listener that immediately retries joins it instead of racing it.
+        for (DownloadTaskParams deferred : inFlight.deferred) {
+            // An orchestrated request whose phase budget ran out while it
+            // waited must not become the owner later JS callers join.
+            if (deferred.deadlineNanos > 0 && deferred.deadlineNanos <= System.nanoTime()) {
+                if (deferred.listener != null) {
+                    deferred.listener.onDownloadFailed(
+                        new IOException("Download deadline expired before start"));
+                }
+                continue;
+            }
+            enqueue(deferred);
+        }
+        for (DownloadFileListener listener : inFlight.listeners) {
+            if (listener == null) {
+                continue;
+            }
+            if (error != null) {
+                listener.onDownloadFailed(error);
+                continue;
+            }
+            // Same contract as DownloadTask: a throwing completion callback
+            // fails that caller only.
+            try {
+                listener.onDownloadCompleted(completed);
+            } catch (Throwable callbackError) {
+                Log.e(TAG, "download completion callback failed", callbackError);
+                listener.onDownloadFailed(callbackError);
+            }
+        }
+    }
+
+    private DownloadTask schedule(DownloadTaskParams params) {
+        int lane;
+        String[] keys;
+        switch (params.type) {
+            case DownloadTaskParams.TASK_TYPE_CLEANUP:
+                // Walks the whole root: runs alone among keyed tasks.
+                lane = UpdateTaskScheduler.LANE_HOUSEKEEPING;
+                keys = new String[] {UpdateTaskScheduler.KEY_ALL};
+                break;
+            case DownloadTaskParams.TASK_TYPE_PLAIN_DOWNLOAD:
+                lane = UpdateTaskScheduler.LANE_TRANSFER;
+                keys = new String[] {"file:" + params.targetFile.getName()};
+                break;
+            default:
+                lane = UpdateTaskScheduler.LANE_PATCH;
+                // A ppk patch reads its origin directory, which must not be
+                // written by a patch task for that version at the same time.
+                keys = params.originDirectory != null
+                    ? new String[] {"dir:" + params.hash, "dir:" + params.originHash}
+                    : new String[] {"dir:" + params.hash};
+                break;
+        }
+        int priority = priorityOf(params.deadlineNanos);
+        final String hash = String.valueOf(params.hash);
+        final DownloadTask task = new DownloadTask(context, params);
+        synchronized (inFlightDownloads) {
+            java.util.ArrayList<DownloadTask> live = liveTasks.get(hash);
+            if (live == null) {
+                live = new java.util.ArrayList<DownloadTask>();
+                liveTasks.put(hash, live);
+            }
+            live.add(task);
+        }
+        UpdateTaskScheduler.Job job = scheduler.execute(lane, priority, keys, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                } finally {
+                    forgetTask(hash, task);
+                }
+            }
+        });
+        synchronized (inFlightDownloads) {
+            // Unless it already ran to the end.
+            java.util.ArrayList<DownloadTask> live = liveTasks.get(hash);
+            if (live != null && live.contains(task)) {
+                scheduledJobs.put(task, job);
+            }
+        }
+        return task;
     }
 
     // Server-provided identifiers (hash/originHash/fileName) become child
@@ -250,11 +575,17 @@ public class UpdateContext {
     }
 
     public void downloadFullUpdate(String url, String hash, DownloadFileListener listener) {
-        downloadFullUpdate(url, hash, listener, 0);
+        downloadFullUpdate(url, null, hash, null, listener, 0, 0);
     }
 
     void downloadFullUpdate(
-        String url, String hash, DownloadFileListener listener, long deadlineNanos
+        String url,
+        String[] mirrorUrls,
+        String hash,
+        String sha256,
+        DownloadFileListener listener,
+        long deadlineNanos,
+        long hedgeDelayMillis
     ) {
         if (rejectUnsafeComponent(hash, listener)) {
             return;
@@ -265,6 +596,9 @@ public class UpdateContext {
         params.hash = hash;
         params.listener = listener;
         params.deadlineNanos = deadlineNanos;
+        params.mirrorUrls = mirrorUrls;
+        params.hedgeDelayMillis = hedgeDelayMillis;
+        params.expectedSha256 = sha256;
         params.targetFile = new File(rootDir, hash + ".ppk");
         params.unzipDirectory = new File(rootDir, hash);
         enqueue(params);
@@ -286,11 +620,17 @@ public class UpdateContext {
     }
 
     public void downloadPatchFromApk(String url, String hash, DownloadFileListener listener) {
-        downloadPatchFromApk(url, hash, listener, 0);
+        downloadPatchFromApk(url, null, hash, null, listener, 0, 0);
     }
 
     void downloadPatchFromApk(
-        String url, String hash, DownloadFileListener listener, long deadlineNanos
+        String url,
+        String[] mirrorUrls,
+        String hash,
+        String sha256,
+        DownloadFileListener listener,
+        long deadlineNanos,
+        long hedgeDelayMillis
     ) {
         if (rejectUnsafeComponent(hash, listener)) {
             return;
@@ -301,21 +641,27 @@ public class UpdateContext {
         params.hash = hash;
         params.listener = listener;
         params.deadlineNanos = deadlineNanos;
+        params.mirrorUrls = mirrorUrls;
+        params.hedgeDelayMillis = hedgeDelayMillis;
+        params.expectedSha256 = sha256;
         params.targetFile = new File(rootDir, hash + ".apk.patch");
         params.unzipDirectory = new File(rootDir, hash);
         enqueue(params);
     }
 
     public void downloadPatchFromPpk(String url, String hash, String originHash, DownloadFileListener listener) {
-        downloadPatchFromPpk(url, hash, originHash, listener, 0);
+        downloadPatchFromPpk(url, null, hash, originHash, null, listener, 0, 0);
     }
 
     void downloadPatchFromPpk(
         String url,
+        String[] mirrorUrls,
         String hash,
         String originHash,
+        String sha256,
         DownloadFileListener listener,
-        long deadlineNanos
+        long deadlineNanos,
+        long hedgeDelayMillis
     ) {
         if (rejectUnsafeComponent(hash, listener) || rejectUnsafeComponent(originHash, listener)) {
             return;
@@ -327,6 +673,9 @@ public class UpdateContext {
         params.originHash = originHash;
         params.listener = listener;
         params.deadlineNanos = deadlineNanos;
+        params.mirrorUrls = mirrorUrls;
+        params.hedgeDelayMillis = hedgeDelayMillis;
+        params.expectedSha256 = sha256;
         params.targetFile = new File(rootDir, originHash + "-" + hash + ".ppk.patch");
         params.unzipDirectory = new File(rootDir, hash);
         params.originDirectory = new File(rootDir, originHash);
@@ -558,6 +907,17 @@ public class UpdateContext {
         }
     }
 
+    /**
+     * Replaces the OkHttpClient behind update checks and downloads, e.g. to
+     * add interceptors, an EventListener, a proxy or certificate pinning.
+     * Its connection pool, dispatcher and DNS are shared by all update
+     * traffic; timeouts are still set per request type. Call before the
+     * first check or download.
+     */
+    public static void setHttpClient(OkHttpClient client) {
+        HttpTransport.setBaseClient(client);
+    }
+
     public ReactInstanceManager getCustomReactInstanceManager() {
         return reactInstanceManager;
     }
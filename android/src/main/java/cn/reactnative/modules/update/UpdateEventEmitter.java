@@ -24,6 +24,12 @@ final class UpdateEventEmitter {
         return reactContextRef.get();
     }
 
+    // hasActiveReactInstance() resolved once per context class; sendEvent
+    // runs for every progress flush on the main thread.
+    private static Class<?> probedClass;
+    @Nullable
+    private static Method hasActiveReactInstance;
+
     static void sendEvent(String eventName, WritableMap params) {
         ReactApplicationContext reactContext = getReactContext();
         if (reactContext == null || !hasActiveInstance(reactContext)) {
@@ -43,18 +49,34 @@ final class UpdateEventEmitter {
         }
     }
 
+    @Nullable
+    private static synchronized Method hasActiveReactInstanceMethod(Class<?> contextClass) {
+        if (contextClass != probedClass) {
+            probedClass = contextClass;
+            try {
+                // Use reflection for hasActiveReactInstance() because older RN versions (<0.68)
+                // don't have this method in the class signature at compile time.
+                hasActiveReactInstance = contextClass.getMethod("hasActiveReactInstance");
+            } catch (Throwable ignored) {
+                // RN < 0.68 has no hasActiveReactInstance(); fall back for old peers.
+                hasActiveReactInstance = null;
+            }
+        }
+        return hasActiveReactInstance;
+    }
+
     @SuppressWarnings("deprecation")
     private static boolean hasActiveInstance(ReactApplicationContext reactContext) {
-        try {
-            // Use reflection for hasActiveReactInstance() because older RN versions (<0.68)
-            // don't have this method in the class signature at compile time.
-            Method method = reactContext.getClass().getMethod("hasActiveReactInstance");
-            Object result = method.invoke(reactContext);
-            if (result instanceof Boolean) {
-                return (Boolean) result;
+        Method method = hasActiveReactInstanceMethod(reactContext.getClass());
+        if (method != null) {
+            try {
+                Object result = method.invoke(reactContext);
+                if (result instanceof Boolean) {
+                    return (Boolean) result;
+                }
+            } catch (Throwable ignored) {
+                // Fall back below.
             }
-        } catch (Throwable ignored) {
-            // RN < 0.68 has no hasActiveReactInstance(); fall back for old peers.
         }
         try {
             return reactContext.hasActiveCatalystInstance();
@@ -1,5 +1,8 @@
 package cn.reactnative.modules.update;
 
+import android.system.ErrnoException;
+import android.system.Os;
+import android.util.Log;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -43,19 +46,51 @@ final class UpdateFileUtils {
         }
     }
 
+    /**
+     * A new, empty file at file for writing. An existing file is unlinked
+     * first, never truncated: it may be a hard link that shares its inode
+     * with another version directory or the SharedAssetStore, as the native
+     * CopyFile's links do.
+     */
+    static FileOutputStream openReplacing(File file) throws IOException {
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Failed to replace existing file: " + file);
+        }
+        return new FileOutputStream(file);
+    }
+
     static void copyFile(File from, File to) throws IOException {
         ensureParentDirectory(to);
         try (
             InputStream in = new FileInputStream(from);
-            FileOutputStream out = new FileOutputStream(to)
+            FileOutputStream out = openReplacing(to)
         ) {
             copy(in, out);
         }
     }
 
+    /**
+     * to as a hard link of from, as the native CopyFile does: for files of
+     * one version directory, which are never written in place once created.
+     * Falls back to copyFile wherever the link fails (to exists, another
+     * filesystem, no hard-link support).
+     */
+    static void linkOrCopyFile(File from, File to) throws IOException {
+        ensureParentDirectory(to);
+        try {
+            Os.link(from.getPath(), to.getPath());
+            return;
+        } catch (ErrnoException e) {
+            if (UpdateContext.DEBUG) {
+                Log.d(UpdateContext.TAG, "Hard link " + to + " failed, copying: " + e);
+            }
+        }
+        copyFile(from, to);
+    }
+
     static void copyInputStreamToFile(InputStream input, File destination) throws IOException {
         ensureParentDirectory(destination);
-        try (InputStream in = input; FileOutputStream out = new FileOutputStream(destination)) {
+        try (InputStream in = input; FileOutputStream out = openReplacing(destination)) {
             copy(in, out);
         }
     }
@@ -33,7 +33,12 @@ public class UpdateModuleImpl {
     ) {
         String url = options.getString("updateUrl");
         String hash = options.getString("hash");
-        updateContext.downloadFullUpdate(url, hash, new UpdateContext.DownloadFileListener() {
+        updateContext.downloadFullUpdate(
+            url, null, hash, optionalSha256(options), settlePromise(promise), 0, 0);
+    }
+
+    private static UpdateContext.DownloadFileListener settlePromise(final Promise promise) {
+        return new UpdateContext.DownloadFileListener() {
             @Override
             public void onDownloadCompleted(DownloadTaskParams params) {
                 promise.resolve(null);
@@ -43,7 +48,15 @@ public class UpdateModuleImpl {
             public void onDownloadFailed(Throwable error) {
                 promise.reject(downloadErrorCode(error), error);
             }
-        });
+        };
+    }
+
+    // Archive digest from the check response ("digests"), when the JS side
+    // forwarded one; older JS layers never send it.
+    private static String optionalSha256(ReadableMap options) {
+        return options.hasKey("sha256") && !options.isNull("sha256")
+            ? options.getString("sha256")
+            : null;
     }
 
     // Post-download failures (unzip / hdiff / resource copy, incl. copiesCrc
@@ -95,17 +108,8 @@ public class UpdateModuleImpl {
     ) {
         String url = options.getString("updateUrl");
         String hash = options.getString("hash");
-        updateContext.downloadPatchFromApk(url, hash, new UpdateContext.DownloadFileListener() {
-            @Override
-            public void onDownloadCompleted(DownloadTaskParams params) {
-                promise.resolve(null);
-            }
-
-            @Override
-            public void onDownloadFailed(Throwable error) {
-                promise.reject(downloadErrorCode(error), error);
-            }
-        });
+        updateContext.downloadPatchFromApk(
+            url, null, hash, optionalSha256(options), settlePromise(promise), 0, 0);
     }
 
     public static void downloadPatchFromPpk(
@@ -118,17 +122,9 @@ public class UpdateModuleImpl {
             String hash = options.getString("hash");
             String originHash = options.getString("originHash");
 
-            updateContext.downloadPatchFromPpk(url, hash, originHash, new UpdateContext.DownloadFileListener() {
-                @Override
-                public void onDownloadCompleted(DownloadTaskParams params) {
-                    promise.resolve(null);
-                }
-
-                @Override
-                public void onDownloadFailed(Throwable error) {
-                    promise.reject(downloadErrorCode(error), error);
-                }
-            });
+            updateContext.downloadPatchFromPpk(
+                url, null, hash, originHash, optionalSha256(options),
+                settlePromise(promise), 0, 0);
         } catch (Exception e) {
             promise.reject(ErrorCodes.INVALID_OPTIONS, "downloadPatchFromPpk failed: " + e.getMessage(), e);
         }
@@ -211,7 +207,7 @@ public class UpdateModuleImpl {
     }
 
     public static void getBundleHash(final UpdateContext updateContext, final Promise promise) {
-        // Threading lives in UpdateContext (download executor); resolve is
+        // Threading lives in UpdateContext (housekeeping lane); resolve is
         // thread-safe. Never rejects — empty string means "unknown".
         updateContext.getBundleHash(new UpdateContext.BundleHashListener() {
             @Override
@@ -221,6 +217,16 @@ public class UpdateModuleImpl {
         });
     }
 
+    public static void cancelDownload(
+        final UpdateContext updateContext,
+        final String hash,
+        final Promise promise
+    ) {
+        // Resolves whether a task or deferred request for hash existed; the
+        // cancelled download itself rejects with DOWNLOAD_FAILED.
+        promise.resolve(updateContext.cancelDownload(hash));
+    }
+
     public static void resetToPackagedBundle(
         final UpdateContext updateContext,
         final Promise promise
@@ -0,0 +1,222 @@
+package cn.reactnative.modules.update;
+
+import android.util.Log;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Background work of UpdateContext, split into lanes so one kind of work
+ * cannot hold up another: a 200 MB APK transfer no longer sits in front of
+ * a rescue patch, and a cleanup walk no longer waits behind either.
+ *
+ * Ordering rules (previously implied by a single-thread executor):
+ * - Tasks that share a key (an update directory or archive name) never run
+ *   concurrently. KEY_ALL (cleanup of the whole root) conflicts with every
+ *   keyed task. Duplicate patch tasks rely on this — the second one only
+ *   sees the first one's .pushy-complete marker after it finished.
+ * - The queue is ordered by priority, then submission. A task waits for
+ *   every conflicting task ahead of it, so same-priority tasks for one hash
+ *   start in submission order, while a higher-priority task overtakes queued
+ *   lower-priority ones. Running tasks are never interrupted.
+ * - A queued task can be raised to a higher priority (a rescue caller joined
+ *   it) or taken out of the queue (cancelled before it started).
+ */
+final class UpdateTaskScheduler {
+    // Plain file downloads (APK packages): long, network-bound.
+    static final int LANE_TRANSFER = 0;
+    // Patch tasks: archive download plus unzip / hdiff / resource copy.
+    static final int LANE_PATCH = 1;
+    // Cleanup walks and bundle hashing.
+    static final int LANE_HOUSEKEEPING = 2;
+    // Two patch slots: a long JS-started patch must not hold the only slot
+    // a rescue patch for another hash could use.
+    private static final int[] LANE_CONCURRENCY = {1, 2, 1};
+
+    static final int PRIORITY_NORMAL = 0;
+    // Orchestrated cold-start / crash-rescue tasks: they run against a
+    // budget, so they go before anything the JS side queued.
+    static final int PRIORITY_RESCUE = 1;
+
+    static final String KEY_ALL = "*";
+
+    // Handle of a task handed to execute(), for raisePriority / cancelPending.
+    static final class Job {
+        final Runnable runnable;
+        final int lane;
+        // Guarded by the scheduler's lock.
+        int priority;
+        final long sequence;
+        final String[] keys;
+
+        Job(Runnable runnable, int lane, int priority, long sequence, String[] keys) {
+            this.runnable = runnable;
+            this.lane = lane;
+            this.priority = priority;
+            this.sequence = sequence;
+            this.keys = keys;
+        }
+
+        boolean hasKey(String key) {
+            for (String own : keys) {
+                if (own.equals(key)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        boolean conflictsWith(Job other) {
+            if (keys.length == 0 || other.keys.length == 0) {
+                return false;
+            }
+            if (hasKey(KEY_ALL) || other.hasKey(KEY_ALL)) {
+                return true;
+            }
+            for (String key : keys) {
+                if (other.hasKey(key)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private final Object lock = new Object();
+    // Guarded by lock; kept in dispatch order (priority desc, sequence asc).
+    private final ArrayList<Job> pending = new ArrayList<Job>();
+    private final ArrayList<Job> running = new ArrayList<Job>();
+    private final int[] runningPerLane = new int[LANE_CONCURRENCY.length];
+    private long nextSequence = 0;
+    private final ExecutorService threads;
+
+    UpdateTaskScheduler() {
+        final AtomicInteger threadCount = new AtomicInteger();
+        // Concurrency is bounded by the lanes, not by the pool.
+        this.threads = new ThreadPoolExecutor(
+            0,
+            Integer.MAX_VALUE,
+            30,
+            TimeUnit.SECONDS,
+            new SynchronousQueue<Runnable>(),
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    return new Thread(r, "pushy-update-task-" + threadCount.incrementAndGet());
+                }
+            });
+    }
+
+    Job execute(int lane, int priority, String[] keys, Runnable runnable) {
+        synchronized (lock) {
+            Job job = new Job(runnable, lane, priority, nextSequence++, keys);
+            insertLocked(job);
+            dispatchLocked();
+            return job;
+        }
+    }
+
+    /**
+     * Moves job, while still queued, up to priority; a job that started or
+     * already has that priority is left alone.
+     */
+    void raisePriority(Job job, int priority) {
+        synchronized (lock) {
+            if (job.priority >= priority || !pending.remove(job)) {
+                return;
+            }
+            job.priority = priority;
+            insertLocked(job);
+            dispatchLocked();
+        }
+    }
+
+    /**
+     * Takes job out of the queue. True when it had not started: it never
+     * will, and the caller settles it. False once it is running or done.
+     */
+    boolean cancelPending(Job job) {
+        synchronized (lock) {
+            if (!pending.remove(job)) {
+                return false;
+            }
+            // It may have been what held back a conflicting job behind it.
+            dispatchLocked();
+            return true;
+        }
+    }
+
+    // By priority, then submission: a raised job keeps its place among the
+    // jobs of its new priority by its original sequence.
+    private void insertLocked(Job job) {
+        int index = pending.size();
+        while (index > 0) {
+            Job ahead = pending.get(index - 1);
+            if (ahead.priority > job.priority
+                || (ahead.priority == job.priority && ahead.sequence < job.sequence)) {
+                break;
+            }
+            index--;
+        }
+        pending.add(index, job);
+    }
+
+    private boolean canStartLocked(Job job, int pendingIndex) {
+        if (runningPerLane[job.lane] >= LANE_CONCURRENCY[job.lane]) {
+            return false;
+        }
+        for (Job other : running) {
+            if (job.conflictsWith(other)) {
+                return false;
+            }
+        }
+        // Everything ahead in the queue has a higher priority or was
+        // submitted earlier; a conflicting one goes first.
+        for (int i = 0; i < pendingIndex; i++) {
+            if (job.conflictsWith(pending.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void dispatchLocked() {
+        int i = 0;
+        while (i < pending.size()) {
+            final Job job = pending.get(i);
+            if (!canStartLocked(job, i)) {
+                i++;
+                continue;
+            }
+            pending.remove(i);
+            running.add(job);
+            runningPerLane[job.lane]++;
+            threads.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        job.runnable.run();
+                    } catch (Throwable error) {
+                        Log.e(UpdateContext.TAG, "update task failed", error);
+                    } finally {
+                        onFinished(job);
+                    }
+                }
+            });
+            // Starting a job can only block later ones; the index now points
+            // at the next candidate.
+        }
+    }
+
+    private void onFinished(Job job) {
+        synchronized (lock) {
+            running.remove(job);
+            runningPerLane[job.lane]--;
+            dispatchLocked();
+        }
+    }
+}
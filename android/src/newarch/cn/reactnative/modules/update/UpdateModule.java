@@ -2,6 +2,7 @@ package cn.reactnative.modules.update;
 
 import com.facebook.react.bridge.Promise;
 import com.facebook.react.bridge.ReactApplicationContext;
+import com.facebook.react.bridge.ReactMethod;
 import com.facebook.react.bridge.ReadableMap;
 import java.util.Map;
 
@@ -78,6 +79,12 @@ public class UpdateModule extends NativePushySpec {
         UpdateModuleImpl.getBundleHash(updateContext, promise);
     }
 
+    // Android-only and optional in the spec, so not an override.
+    @ReactMethod
+    public void cancelDownload(String hash, Promise promise) {
+        UpdateModuleImpl.cancelDownload(updateContext, hash, promise);
+    }
+
     @Override
     public void resetToPackagedBundle(Promise promise) {
         UpdateModuleImpl.resetToPackagedBundle(updateContext, promise);
@@ -80,6 +80,11 @@ public class UpdateModule extends ReactContextBaseJavaModule {
         UpdateModuleImpl.getBundleHash(updateContext, promise);
     }
 
+    @ReactMethod
+    public void cancelDownload(String hash, Promise promise) {
+        UpdateModuleImpl.cancelDownload(updateContext, hash, promise);
+    }
+
     @ReactMethod
     public void resetToPackagedBundle(Promise promise) {
         UpdateModuleImpl.resetToPackagedBundle(updateContext, promise);
@@ -1,5 +1,6 @@
 #pragma once
 
+#include <cstdint>
 #include <string>
 #include <vector>
 
@@ -51,6 +52,13 @@ patch::Status BuildCopyGroups(
     const patch::PatchManifest& manifest,
     std::vector<CopyGroup>* out_groups);
 
+// The same grouping as indices into manifest.copies, for callers that
+// already hold the paths: per group its size, then the index of each copy
+// (the first names the group's source). Groups in first-seen order.
+patch::Status BuildCopyGroupIndices(
+    const patch::PatchManifest& manifest,
+    std::vector<int32_t>* out_layout);
+
 patch::Status BuildFileSourcePatchOptions(
     const ArchivePatchPlan& plan,
     const std::string& source_root,
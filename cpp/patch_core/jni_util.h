@@ -2,9 +2,12 @@
 
 #include <jni.h>
 
+#include <cstdint>
 #include <string>
 #include <vector>
 
+#include "manifest_wire.h"
+
 // Small JNI helpers shared by the Android glue translation units
 // (patch_core_android.cpp and update_core_android.cpp). Header-only with inline
 // linkage so both can include it without a separate compilation unit.
@@ -45,6 +48,28 @@ inline std::vector<std::string> JArrayToVector(
   return result;
 }
 
+// A manifest encoded by the Java PatchManifest into a direct ByteBuffer
+// (manifest_wire.h): read in place, with no per-string JNI call. A null
+// buffer is an empty manifest.
+inline patch::Status ReadManifestBuffer(
+    JNIEnv* env,
+    jobject buffer,
+    patch::PatchManifest* out) {
+  if (buffer == nullptr) {
+    out->copies.clear();
+    out->deletes.clear();
+    return patch::Status::Ok();
+  }
+
+  void* address = env->GetDirectBufferAddress(buffer);
+  const jlong capacity = env->GetDirectBufferCapacity(buffer);
+  if (address == nullptr || capacity < 0) {
+    return patch::Status::Error("Manifest buffer must be a direct ByteBuffer");
+  }
+  return patch::DecodeManifest(
+      static_cast<const uint8_t*>(address), static_cast<size_t>(capacity), out);
+}
+
 inline void ThrowRuntimeException(JNIEnv* env, const std::string& message) {
   jclass exception = env->FindClass("java/lang/RuntimeException");
   if (exception != nullptr) {
@@ -0,0 +1,107 @@
+#include "manifest_wire.h"
+
+namespace pushy {
+namespace patch {
+namespace {
+
+void PutU32(uint32_t value, std::string* out) {
+  out->push_back(static_cast<char>(value & 0xff));
+  out->push_back(static_cast<char>((value >> 8) & 0xff));
+  out->push_back(static_cast<char>((value >> 16) & 0xff));
+  out->push_back(static_cast<char>((value >> 24) & 0xff));
+}
+
+void PutString(const std::string& value, std::string* out) {
+  PutU32(static_cast<uint32_t>(value.size()), out);
+  out->append(value);
+}
+
+struct Reader {
+  const uint8_t* p;
+  const uint8_t* end;
+
+  bool U32(uint32_t* out) {
+    if (end - p < 4) {
+      return false;
+    }
+    *out = static_cast<uint32_t>(p[0]) |
+           (static_cast<uint32_t>(p[1]) << 8) |
+           (static_cast<uint32_t>(p[2]) << 16) |
+           (static_cast<uint32_t>(p[3]) << 24);
+    p += 4;
+    return true;
+  }
+
+  bool String(std::string* out) {
+    uint32_t length = 0;
+    if (!U32(&length) || static_cast<size_t>(end - p) < length) {
+      return false;
+    }
+    out->assign(reinterpret_cast<const char*>(p), length);
+    p += length;
+    return true;
+  }
+};
+
+}  // namespace
+
+void EncodeManifest(const PatchManifest& manifest, std::string* out) {
+  out->clear();
+  PutU32(kManifestWireMagic, out);
+  PutU32(static_cast<uint32_t>(manifest.copies.size()), out);
+  PutU32(static_cast<uint32_t>(manifest.deletes.size()), out);
+  for (const CopyOperation& copy : manifest.copies) {
+    PutString(copy.from, out);
+    PutString(copy.to, out);
+  }
+  for (const std::string& path : manifest.deletes) {
+    PutString(path, out);
+  }
+}
+
+Status DecodeManifest(const uint8_t* data, size_t size, PatchManifest* out) {
+  if (out == nullptr) {
+    return Status::Error("Manifest output is required");
+  }
+  if (data == nullptr && size != 0) {
+    return Status::Error("Manifest buffer is required");
+  }
+
+  Reader reader{data, data + size};
+  uint32_t magic = 0;
+  uint32_t copy_count = 0;
+  uint32_t delete_count = 0;
+  if (!reader.U32(&magic) || magic != kManifestWireMagic ||
+      !reader.U32(&copy_count) || !reader.U32(&delete_count)) {
+    return Status::Error("Invalid manifest header");
+  }
+  // Every entry takes at least 4 bytes per string: caps the reservations
+  // below by the buffer size rather than by untrusted counts.
+  const size_t remaining = static_cast<size_t>(reader.end - reader.p);
+  if (copy_count > remaining / 8 ||
+      delete_count > (remaining - copy_count * size_t{8}) / 4) {
+    return Status::Error("Invalid manifest entry count");
+  }
+
+  out->copies.clear();
+  out->deletes.clear();
+  out->copies.resize(copy_count);
+  out->deletes.resize(delete_count);
+  for (CopyOperation& copy : out->copies) {
+    if (!reader.String(&copy.from) || !reader.String(&copy.to)) {
+      return Status::Error("Truncated manifest copies");
+    }
+  }
+  for (std::string& path : out->deletes) {
+    if (!reader.String(&path)) {
+      return Status::Error("Truncated manifest deletes");
+    }
+  }
+  if (reader.p != reader.end) {
+    return Status::Error("Trailing bytes after manifest");
+  }
+  return Status::Ok();
+}
+
+}  // namespace patch
+}  // namespace pushy
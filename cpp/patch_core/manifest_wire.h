@@ -0,0 +1,30 @@
+#pragma once
+
+#include <cstddef>
+#include <cstdint>
+#include <string>
+
+#include "patch_core.h"
+
+namespace pushy {
+namespace patch {
+
+// Binary form of the copies / deletes of a PatchManifest, handed across the
+// platform boundary once per task (Android: one direct ByteBuffer) instead
+// of one string array per field and entry point. All integers are
+// little-endian uint32; strings are UTF-8 without terminator:
+//
+//   "PMF1" copy_count delete_count
+//   copy_count   x (from_len from to_len to)
+//   delete_count x (len path)
+//
+// Decoding treats the buffer as untrusted: every length is bounds-checked
+// and trailing bytes are rejected.
+constexpr uint32_t kManifestWireMagic = 0x31464d50;  // "PMF1"
+
+void EncodeManifest(const PatchManifest& manifest, std::string* out);
+
+Status DecodeManifest(const uint8_t* data, size_t size, PatchManifest* out);
+
+}  // namespace patch
+}  // namespace pushy
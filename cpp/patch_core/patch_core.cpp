@@ -2,16 +2,27 @@
 
 #include "digest.h"
 
+#include <algorithm>
+#include <atomic>
 #include <cerrno>
 #include <cstdio>
 #include <cstring>
 #include <dirent.h>
+#include <fcntl.h>
+#include <pthread.h>
+#include <sys/mman.h>
 #include <sys/stat.h>
 #include <sys/types.h>
 #include <unistd.h>
+#include <unordered_map>
 
 #include <vector>
 
+#if defined(__linux__)
+#include <sys/sendfile.h>
+#define PUSHY_HAS_FILE_SENDFILE 1
+#endif
+
 #include "hbc_transform.h"
 #include "hbc_transform_wire.h"
 
@@ -36,6 +47,11 @@ class HdiffBundlePatcher final : public BundlePatcher {
       const std::string& origin_bundle_path,
       const std::string& bundle_patch_path,
       const std::string& destination_bundle_path) const override;
+
+  Status ApplyRanges(
+      const FileRange& origin_bundle,
+      const FileRange& bundle_patch,
+      const std::string& destination_bundle_path) const override;
 };
 
 Status MakeErrnoStatus(const std::string& message, int err = errno) {
@@ -186,49 +202,164 @@ Status RemovePathRecursively(const std::string& path) {
   return Status::Ok();
 }
 
-Status ReadFileBytes(const std::string& path, std::vector<uint8_t>* out) {
-  FILE* file = fopen(path.c_str(), "rb");
-  if (file == nullptr) {
-    return MakeErrnoStatus("Failed to open file for reading " + path);
+FileRange WholeFile(const std::string& path) {
+  FileRange range;
+  range.path = path;
+  return range;
+}
+
+// Streams range into a new file at path — sendfile where the kernel can
+// copy file to file, a kCopyBufferSize buffer otherwise — so no copy of the
+// range is held in memory. path is removed on failure.
+Status CopyRangeToFile(const FileRange& range, const std::string& path) {
+  const int in =
+      range.fd >= 0 ? range.fd : open(range.path.c_str(), O_RDONLY | O_CLOEXEC);
+  if (in < 0) {
+    return MakeErrnoStatus("Failed to open file for reading " + range.path);
   }
-  if (fseek(file, 0, SEEK_END) != 0) {
-    fclose(file);
-    return MakeErrnoStatus("Failed to seek file " + path);
+  struct stat st;
+  if (fstat(in, &st) != 0) {
+    const int err = errno;
+    if (range.fd < 0) {
+      close(in);
+    }
+    return MakeErrnoStatus("Failed to stat file " + range.path, err);
+  }
+  const int64_t file_size = static_cast<int64_t>(st.st_size);
+  const int64_t length =
+      range.length < 0 ? file_size - range.offset : range.length;
+  if (range.offset < 0 || range.offset > file_size || length < 0 ||
+      length > file_size - range.offset) {
+    if (range.fd < 0) {
+      close(in);
+    }
+    return Status::Error("File range out of bounds: " + range.path);
   }
-  const long size = ftell(file);
-  if (size < 0) {
-    fclose(file);
-    return MakeErrnoStatus("Failed to size file " + path);
+  const int out = open(path.c_str(), O_WRONLY | O_CREAT | O_TRUNC | O_CLOEXEC, 0644);
+  if (out < 0) {
+    const int err = errno;
+    if (range.fd < 0) {
+      close(in);
+    }
+    return MakeErrnoStatus("Failed to open file for writing " + path, err);
+  }
+
+  Status status = Status::Ok();
+  off_t position = static_cast<off_t>(range.offset);
+  int64_t remaining = length;
+#ifdef PUSHY_HAS_FILE_SENDFILE
+  bool use_sendfile = true;
+#else
+  // Darwin's sendfile only writes to sockets.
+  bool use_sendfile = false;
+#endif
+  std::vector<uint8_t> buffer(use_sendfile ? 0 : kCopyBufferSize);
+  while (remaining > 0) {
+    const size_t chunk = static_cast<size_t>(
+        std::min<int64_t>(remaining, use_sendfile ? (1 << 30) : kCopyBufferSize));
+    ssize_t n;
+    if (use_sendfile) {
+#ifdef PUSHY_HAS_FILE_SENDFILE
+      n = sendfile(out, in, &position, chunk);
+#else
+      n = -1;
+#endif
+      if (n < 0 && (errno == EINVAL || errno == ENOSYS)) {
+        use_sendfile = false;
+        buffer.resize(kCopyBufferSize);
+        continue;
+      }
+    } else {
+      n = pread(in, buffer.data(), chunk, position);
+      if (n > 0) {
+        ssize_t written = 0;
+        while (written < n) {
+          const ssize_t w = write(out, buffer.data() + written, n - written);
+          if (w < 0 && errno == EINTR) {
+            continue;
+          }
+          if (w <= 0) {
+            n = -1;
+            break;
+          }
+          written += w;
+        }
+        if (n > 0) {
+          position += n;
+        }
+      }
+    }
+    if (n < 0 && errno == EINTR) {
+      continue;
+    }
+    if (n <= 0) {
+      status = MakeErrnoStatus(
+          "Failed to copy " + range.path + " to " + path, n < 0 ? errno : 0);
+      break;
+    }
+    remaining -= n;
   }
-  if (fseek(file, 0, SEEK_SET) != 0) {
-    fclose(file);
-    return MakeErrnoStatus("Failed to rewind file " + path);
+
+  if (range.fd < 0) {
+    close(in);
   }
-  out->resize(static_cast<size_t>(size));
-  if (size > 0 &&
-      fread(out->data(), 1, out->size(), file) != out->size()) {
-    fclose(file);
-    return Status::Error("Failed to read file " + path);
+  if (close(out) != 0 && status) {
+    status = MakeErrnoStatus("Failed to flush file " + path);
   }
-  fclose(file);
-  return Status::Ok();
+  if (!status) {
+    remove(path.c_str());
+  }
+  return status;
 }
 
-Status WriteFileBytes(const std::string& path, const std::vector<uint8_t>& data) {
-  FILE* file = fopen(path.c_str(), "wb");
-  if (file == nullptr) {
-    return MakeErrnoStatus("Failed to open file for writing " + path);
-  }
-  if (!data.empty() && fwrite(data.data(), 1, data.size(), file) != data.size()) {
-    fclose(file);
-    remove(path.c_str());
-    return Status::Error("Failed to write file " + path);
+// Points *out_path at range itself when it is a whole file, or copies the
+// range out to staging_path.
+Status StageRange(
+    const FileRange& range,
+    const std::string& staging_path,
+    std::string* out_path) {
+  if (range.IsWholeFile()) {
+    *out_path = range.path;
+    return Status::Ok();
   }
-  if (fclose(file) != 0) {
-    remove(path.c_str());
-    return MakeErrnoStatus("Failed to flush file " + path);
+  *out_path = staging_path;
+  return CopyRangeToFile(range, staging_path);
+}
+
+// Runs the HBC transform over the file at path in place, through a shared
+// read-write mapping: only the pages of the tables it rewrites are ever
+// resident, and they are file pages the kernel can write back and drop,
+// not an anonymous copy of the bundle. The file is unchanged on failure.
+Status TransformHbcFileInPlace(
+    const std::string& path,
+    const hbc::HbcLayoutDesc& layout,
+    bool inverse,
+    const std::string& failure) {
+  const int fd = open(path.c_str(), O_RDWR | O_CLOEXEC);
+  if (fd < 0) {
+    return MakeErrnoStatus("Failed to open file for transform " + path);
   }
-  return Status::Ok();
+  struct stat st;
+  if (fstat(fd, &st) != 0) {
+    const int err = errno;
+    close(fd);
+    return MakeErrnoStatus("Failed to stat file " + path, err);
+  }
+  const size_t size = static_cast<size_t>(st.st_size);
+  if (size == 0) {
+    close(fd);
+    return Status::Error(failure);
+  }
+  void* mapped = mmap(nullptr, size, PROT_READ | PROT_WRITE, MAP_SHARED, fd, 0);
+  const int map_err = errno;
+  close(fd);
+  if (mapped == MAP_FAILED) {
+    return MakeErrnoStatus("Failed to map file " + path, map_err);
+  }
+  const bool transformed = hbc::TransformHbcInPlace(
+      static_cast<uint8_t*>(mapped), size, layout, inverse);
+  munmap(mapped, size);
+  return transformed ? Status::Ok() : Status::Error(failure);
 }
 
 Status CopyFile(const std::string& from, const std::string& to, bool overwrite) {
@@ -272,10 +403,14 @@ Status CopyFile(const std::string& from, const std::string& to, bool overwrite)
     return MakeErrnoStatus("Failed to open source file " + from);
   }
 
-  FILE* destination = std::fopen(to.c_str(), "wb");
+  // Bytes go to a temporary name renamed into place, so a copy the process
+  // dies in never leaves a short file under `to` for a resumed install's
+  // merge, which keeps existing files, to take as done.
+  const std::string partial = to + ".pushy-partial";
+  FILE* destination = std::fopen(partial.c_str(), "wb");
   if (!destination) {
     std::fclose(source);
-    return MakeErrnoStatus("Failed to open destination file " + to);
+    return MakeErrnoStatus("Failed to open destination file " + partial);
   }
 
   std::vector<unsigned char> buffer(kCopyBufferSize);
@@ -284,17 +419,21 @@ Status CopyFile(const std::string& from, const std::string& to, bool overwrite)
     if (bytes_read > 0) {
       size_t bytes_written = std::fwrite(buffer.data(), 1, bytes_read, destination);
       if (bytes_written != bytes_read) {
+        const int err = errno;
         std::fclose(source);
         std::fclose(destination);
-        return MakeErrnoStatus("Failed to write destination file " + to);
+        remove(partial.c_str());
+        return MakeErrnoStatus("Failed to write destination file " + partial, err);
       }
     }
 
     if (bytes_read < buffer.size()) {
       if (std::ferror(source)) {
+        const int err = errno;
         std::fclose(source);
         std::fclose(destination);
-        return MakeErrnoStatus("Failed to read source file " + from);
+        remove(partial.c_str());
+        return MakeErrnoStatus("Failed to read source file " + from, err);
       }
       break;
     }
@@ -302,7 +441,14 @@ Status CopyFile(const std::string& from, const std::string& to, bool overwrite)
 
   std::fclose(source);
   if (std::fclose(destination) != 0) {
-    return MakeErrnoStatus("Failed to close destination file " + to);
+    const int err = errno;
+    remove(partial.c_str());
+    return MakeErrnoStatus("Failed to close destination file " + partial, err);
+  }
+  if (rename(partial.c_str(), to.c_str()) != 0) {
+    const int err = errno;
+    remove(partial.c_str());
+    return MakeErrnoStatus("Failed to move copied file to " + to, err);
   }
   return Status::Ok();
 }
@@ -438,6 +584,34 @@ Status ValidateManifest(const PatchManifest& manifest) {
   return ValidateManifestImpl(manifest);
 }
 
+Status BundlePatcher::ApplyRanges(
+    const FileRange& origin_bundle,
+    const FileRange& bundle_patch,
+    const std::string& destination_bundle_path) const {
+  if (origin_bundle.IsWholeFile() && bundle_patch.IsWholeFile()) {
+    return Apply(origin_bundle.path, bundle_patch.path, destination_bundle_path);
+  }
+  Status dir_status = EnsureDirectory(Dirname(destination_bundle_path));
+  if (!dir_status) {
+    return dir_status;
+  }
+
+  const std::string staged_origin = destination_bundle_path + ".range-origin";
+  const std::string staged_patch = destination_bundle_path + ".range-patch";
+  std::string origin_path;
+  std::string patch_path;
+  Status status = StageRange(origin_bundle, staged_origin, &origin_path);
+  if (status) {
+    status = StageRange(bundle_patch, staged_patch, &patch_path);
+  }
+  if (status) {
+    status = Apply(origin_path, patch_path, destination_bundle_path);
+  }
+  remove(staged_origin.c_str());
+  remove(staged_patch.c_str());
+  return status;
+}
+
 const BundlePatcher& DefaultBundlePatcher() {
   static const HdiffBundlePatcher kPatcher;
   return kPatcher;
@@ -445,6 +619,155 @@ const BundlePatcher& DefaultBundlePatcher() {
 
 namespace {
 
+FileRange OriginBundleRange(const FileSourcePatchOptions& options) {
+  FileRange range = WholeFile(options.origin_bundle_path);
+  range.fd = options.origin_bundle_fd;
+  range.offset = options.origin_bundle_offset;
+  range.length = options.origin_bundle_length;
+  return range;
+}
+
+FileRange BundlePatchRange(const FileSourcePatchOptions& options) {
+  FileRange range = WholeFile(options.bundle_patch_path);
+  range.offset = options.bundle_patch_offset;
+  range.length = options.bundle_patch_length;
+  return range;
+}
+
+Status ApplyCopy(const FileSourcePatchOptions& options, const CopyOperation& copy) {
+  const std::string source_path = JoinPath(options.source_root, copy.from);
+  if (copy.has_expected_crc) {
+    uint32_t actual_crc = 0;
+    if (!digest::Crc32File(source_path, &actual_crc)) {
+      return Status::Error("Failed to read copy source " + source_path);
+    }
+    if (actual_crc != copy.expected_crc) {
+      // Rebuilt binary with drifted content at an unchanged path. Fail the
+      // patch — the caller falls back to the full package; never install a
+      // resource whose bytes differ from what the diff was generated against.
+      return Status::Error(
+          "Copy source content mismatch (crc32): " + copy.from);
+    }
+  }
+  return CopyFile(
+      source_path,
+      JoinPath(options.target_root, copy.to),
+      true);
+}
+
+// Splits the manifest's copies into those that may run in any order and
+// those that must run in manifest order after the bundle patch: copies to
+// a target another copy (the last one wins) or the bundle writes too.
+void PlanCopies(
+    const FileSourcePatchOptions& options,
+    std::vector<size_t>* parallel,
+    std::vector<size_t>* ordered) {
+  const std::vector<CopyOperation>& copies = options.manifest.copies;
+  std::unordered_map<std::string, size_t> writers;
+  writers.reserve(copies.size());
+  for (const CopyOperation& copy : copies) {
+    ++writers[copy.to];
+  }
+  parallel->reserve(copies.size());
+  for (size_t index = 0; index < copies.size(); ++index) {
+    const bool shared_target =
+        writers[copies[index].to] > 1 ||
+        JoinPath(options.target_root, copies[index].to) == options.bundle_output_path;
+    (shared_target ? ordered : parallel)->push_back(index);
+  }
+}
+
+constexpr size_t kMaxCopyWorkers = 4;
+// Below this many copies per thread, another thread costs more than the
+// links it would make.
+constexpr size_t kMinCopiesPerWorker = 64;
+
+// Runs copies (indices into the manifest) on up to kMaxCopyWorkers
+// threads started by Start, joined by the calling thread in Finish. The
+// threads take the next copy from a shared cursor and all of them stop at
+// the first failure; Finish reports the failure of the earliest copy in
+// manifest order, as running them one by one would. Threads are pthreads:
+// the Android build has no exceptions, so a std::thread that cannot start
+// would abort. Where one cannot start, the caller runs its share.
+class CopyPlan {
+ public:
+  CopyPlan(const FileSourcePatchOptions& options, const std::vector<size_t>& copies)
+      : options_(options), copies_(copies) {}
+
+  CopyPlan(const CopyPlan&) = delete;
+  CopyPlan& operator=(const CopyPlan&) = delete;
+
+  void Start() {
+    const size_t wanted = std::min(
+        kMaxCopyWorkers,
+        (copies_.size() + kMinCopiesPerWorker - 1) / kMinCopiesPerWorker);
+    for (size_t index = 0; index < wanted; ++index) {
+      Worker& worker = workers_[started_];
+      worker.plan = this;
+      if (pthread_create(&worker.thread, nullptr, RunWorker, &worker) != 0) {
+        break;
+      }
+      ++started_;
+    }
+  }
+
+  void Cancel() { stop_.store(true, std::memory_order_relaxed); }
+
+  Status Finish() {
+    Worker& caller = workers_[kMaxCopyWorkers];
+    caller.plan = this;
+    caller.Run();
+    const Worker* failed = &caller;
+    for (size_t index = 0; index < started_; ++index) {
+      pthread_join(workers_[index].thread, nullptr);
+      if (workers_[index].failed_at < failed->failed_at) {
+        failed = &workers_[index];
+      }
+    }
+    return failed->status;
+  }
+
+ private:
+  struct Worker {
+    CopyPlan* plan = nullptr;
+    pthread_t thread;
+    size_t failed_at = SIZE_MAX;
+    Status status = Status::Ok();
+
+    void Run() {
+      while (!plan->stop_.load(std::memory_order_relaxed)) {
+        const size_t next = plan->next_.fetch_add(1, std::memory_order_relaxed);
+        if (next >= plan->copies_.size()) {
+          return;
+        }
+        Status copy_status = ApplyCopy(
+            plan->options_, plan->options_.manifest.copies[plan->copies_[next]]);
+        if (!copy_status) {
+          // Copies before next were all taken before this one: any of
+          // them that fails is still reported by its own worker.
+          failed_at = next;
+          status = copy_status;
+          plan->Cancel();
+          return;
+        }
+      }
+    }
+  };
+
+  static void* RunWorker(void* worker) {
+    static_cast<Worker*>(worker)->Run();
+    return nullptr;
+  }
+
+  const FileSourcePatchOptions& options_;
+  const std::vector<size_t>& copies_;
+  std::atomic<size_t> next_{0};
+  std::atomic<bool> stop_{false};
+  // The started threads', then the caller's.
+  Worker workers_[kMaxCopyWorkers + 1];
+  size_t started_ = 0;
+};
+
 // 变换域 bundle patch:T(origin) → hpatch → T⁻¹。
 // 元数据/变换的任何失败都返回错误——调用方沿既有失败路径回退整包;
 // 绝不能忽略元数据直接 hpatch(会产出损坏 bundle,虽然最终 hash 校验
@@ -464,52 +787,62 @@ Status ApplyBundlePatchWithHbcTransform(
   std::vector<hbc::HbcSectionDesc> sections_scratch;
   const hbc::HbcLayoutDesc layout = hbc::BuildLayout(meta, &sections_scratch);
 
-  std::vector<uint8_t> origin;
-  Status status = ReadFileBytes(options.origin_bundle_path, &origin);
-  if (!status) {
-    return status;
-  }
-  if (!hbc::TransformHbcInPlace(origin.data(), origin.size(), layout, false)) {
-    return Status::Error("hbcTransform failed on origin bundle");
-  }
-
   Status dir_status = EnsureDirectory(Dirname(options.bundle_output_path));
   if (!dir_status) {
     return dir_status;
   }
+  // T(origin) and T⁻¹(output) both run in place on a file, so a 20 MB
+  // Hermes bundle is never held in memory, let alone twice.
+  //
+  // T(origin) goes to a copy rather than a MAP_PRIVATE mapping of the
+  // origin: hpatch reads old data at random through a file stream, and
+  // reading it through a mapping instead would fault the whole bundle
+  // into this process (+24 MB peak RSS for the 24 MB bundle of
+  // TestApplyPatchWithHbcTransformPeakRss, against +68 KB for the
+  // transform alone). pread of the copy stays in the page cache. The copy
+  // is a sendfile, and its pages are clean once written back.
   const std::string temp_origin = options.bundle_output_path + ".hbct-origin";
   const std::string temp_patched = options.bundle_output_path + ".hbct-patched";
-  status = WriteFileBytes(temp_origin, origin);
+  Status status = CopyRangeToFile(OriginBundleRange(options), temp_origin);
   if (!status) {
     return status;
   }
-  origin = std::vector<uint8_t>(); // 及早释放,patch 期间只保留文件副本
+  status = TransformHbcFileInPlace(
+      temp_origin, layout, false, "hbcTransform failed on origin bundle");
+  if (!status) {
+    remove(temp_origin.c_str());
+    return status;
+  }
 
-  Status patch_status =
-      bundle_patcher.Apply(temp_origin, options.bundle_patch_path, temp_patched);
+  Status patch_status = bundle_patcher.ApplyRanges(
+      WholeFile(temp_origin), BundlePatchRange(options), temp_patched);
   remove(temp_origin.c_str());
   if (!patch_status) {
     remove(temp_patched.c_str());
     return patch_status;
   }
 
-  std::vector<uint8_t> patched;
-  status = ReadFileBytes(temp_patched, &patched);
-  remove(temp_patched.c_str());
+  status = TransformHbcFileInPlace(
+      temp_patched, layout, true, "hbcTransform inverse failed on patched bundle");
   if (!status) {
+    remove(temp_patched.c_str());
     return status;
   }
-  if (!hbc::TransformHbcInPlace(patched.data(), patched.size(), layout, true)) {
-    return Status::Error("hbcTransform inverse failed on patched bundle");
-  }
 
   if (PathExists(options.bundle_output_path)) {
     Status remove_status = RemovePathRecursively(options.bundle_output_path);
     if (!remove_status) {
+      remove(temp_patched.c_str());
       return remove_status;
     }
   }
-  return WriteFileBytes(options.bundle_output_path, patched);
+  if (rename(temp_patched.c_str(), options.bundle_output_path.c_str()) != 0) {
+    const int err = errno;
+    remove(temp_patched.c_str());
+    return MakeErrnoStatus(
+        "Failed to move patched bundle to " + options.bundle_output_path, err);
+  }
+  return Status::Ok();
 }
 
 }  // namespace
@@ -522,36 +855,34 @@ Status ApplyPatchFromFileSource(
     return manifest_status;
   }
 
+  // The copies read the origin version and write files of the new one
+  // other than the bundle, so they run on a few threads while the bundle
+  // is patched, the long pole.
+  std::vector<size_t> parallel_copies;
+  std::vector<size_t> ordered_copies;
+  PlanCopies(options, &parallel_copies, &ordered_copies);
+  CopyPlan copy_plan(options, parallel_copies);
+  copy_plan.Start();
+
   Status bundle_status =
       options.bundle_hbc_transform_meta.empty()
-          ? bundle_patcher.Apply(
-                options.origin_bundle_path,
-                options.bundle_patch_path,
+          ? bundle_patcher.ApplyRanges(
+                OriginBundleRange(options),
+                BundlePatchRange(options),
                 options.bundle_output_path)
           : ApplyBundlePatchWithHbcTransform(options, bundle_patcher);
+  if (!bundle_status) {
+    copy_plan.Cancel();
+  }
+  Status copy_status = copy_plan.Finish();
   if (!bundle_status) {
     return bundle_status;
   }
-
-  for (const CopyOperation& copy : options.manifest.copies) {
-    const std::string source_path = JoinPath(options.source_root, copy.from);
-    if (copy.has_expected_crc) {
-      uint32_t actual_crc = 0;
-      if (!digest::Crc32File(source_path, &actual_crc)) {
-        return Status::Error("Failed to read copy source " + source_path);
-      }
-      if (actual_crc != copy.expected_crc) {
-        // Rebuilt binary with drifted content at an unchanged path. Fail the
-        // patch — the caller falls back to the full package; never install a
-        // resource whose bytes differ from what the diff was generated against.
-        return Status::Error(
-            "Copy source content mismatch (crc32): " + copy.from);
-      }
-    }
-    Status copy_status = CopyFile(
-        source_path,
-        JoinPath(options.target_root, copy.to),
-        true);
+  if (!copy_status) {
+    return copy_status;
+  }
+  for (size_t index : ordered_copies) {
+    copy_status = ApplyCopy(options, options.manifest.copies[index]);
     if (!copy_status) {
       return copy_status;
     }
@@ -585,6 +916,56 @@ Status ApplyPatchFromFileSource(
       deletes);
 }
 
+namespace {
+
+// A blob nobody links to stays this long after its last change of links:
+// an install running next to the cleanup may have just found it and be
+// about to link it (it falls back to extracting if the blob disappears).
+constexpr std::time_t kUnreferencedAssetGraceSeconds = 60 * 60;
+
+Status CollectUnreferencedAssets(const std::string& store_dir, std::time_t now) {
+  DIR* dir = opendir(store_dir.c_str());
+  if (!dir) {
+    if (errno == ENOENT) {
+      return Status::Ok();
+    }
+    return MakeErrnoStatus("Failed to open asset store " + store_dir);
+  }
+
+  struct dirent* entry = nullptr;
+  while ((entry = readdir(dir)) != nullptr) {
+    const std::string name = entry->d_name;
+    if (name == "." || name == "..") {
+      continue;
+    }
+    const std::string blob_path = JoinPath(store_dir, name);
+    struct stat st;
+    if (lstat(blob_path.c_str(), &st) != 0) {
+      if (errno == ENOENT) {
+        continue;
+      }
+      closedir(dir);
+      return MakeErrnoStatus("Failed to stat asset " + blob_path);
+    }
+    // The link count is the reference count: 1 is the store's own name.
+    // Removing a version directory unlinks its files, which also stamps
+    // st_ctime, so the grace period runs from the last reference dropped.
+    if (!S_ISREG(st.st_mode) || st.st_nlink > 1 ||
+        now - st.st_ctime < kUnreferencedAssetGraceSeconds) {
+      continue;
+    }
+    if (unlink(blob_path.c_str()) != 0 && errno != ENOENT) {
+      closedir(dir);
+      return MakeErrnoStatus("Failed to remove asset " + blob_path);
+    }
+  }
+
+  closedir(dir);
+  return Status::Ok();
+}
+
+}  // namespace
+
 Status CleanupOldEntries(
     const std::string& root_dir,
     const std::string& keep_current,
@@ -632,7 +1013,9 @@ Status CleanupOldEntries(
   }
 
   closedir(dir);
-  return Status::Ok();
+  // After the versions: the blobs only they referenced are now unlinked.
+  return CollectUnreferencedAssets(
+      JoinPath(root_dir, kSharedAssetDirName), effective_now);
 }
 
 bool IsSafeRelativePath(const std::string& path) {
@@ -656,11 +1039,21 @@ Status HdiffBundlePatcher::Apply(
     const std::string& origin_bundle_path,
     const std::string& bundle_patch_path,
     const std::string& destination_bundle_path) const {
-  if (!PathExists(origin_bundle_path)) {
-    return Status::Error("Origin bundle not found: " + origin_bundle_path);
+  return ApplyRanges(
+      WholeFile(origin_bundle_path),
+      WholeFile(bundle_patch_path),
+      destination_bundle_path);
+}
+
+Status HdiffBundlePatcher::ApplyRanges(
+    const FileRange& origin_bundle,
+    const FileRange& bundle_patch,
+    const std::string& destination_bundle_path) const {
+  if (origin_bundle.fd < 0 && !PathExists(origin_bundle.path)) {
+    return Status::Error("Origin bundle not found: " + origin_bundle.path);
   }
-  if (!PathExists(bundle_patch_path)) {
-    return Status::Error("Bundle patch not found: " + bundle_patch_path);
+  if (!PathExists(bundle_patch.path)) {
+    return Status::Error("Bundle patch not found: " + bundle_patch.path);
   }
 
   const std::string parent = Dirname(destination_bundle_path);
@@ -676,10 +1069,23 @@ Status HdiffBundlePatcher::Apply(
     }
   }
 
-  int result = hpatch_by_file(
-      origin_bundle_path.c_str(),
-      destination_bundle_path.c_str(),
-      bundle_patch_path.c_str());
+  // Ranges are read with pread straight from the archive / APK; nothing
+  // is staged on disk.
+  int result =
+      origin_bundle.IsWholeFile() && bundle_patch.IsWholeFile()
+          ? hpatch_by_file(
+                origin_bundle.path.c_str(),
+                destination_bundle_path.c_str(),
+                bundle_patch.path.c_str())
+          : hpatch_by_file_ranges(
+                origin_bundle.path.c_str(),
+                origin_bundle.fd,
+                origin_bundle.offset,
+                origin_bundle.length,
+                destination_bundle_path.c_str(),
+                bundle_patch.path.c_str(),
+                bundle_patch.offset,
+                bundle_patch.length);
   if (result != 0) {
     return Status::Error(
         "Failed to apply bundle patch, hpatch error " + IntToString(result));
@@ -35,12 +35,32 @@ struct PatchManifest {
   std::vector<std::string> deletes;
 };
 
+// A byte range of a file, so a patch input can be read in place: a STORED
+// entry of the downloaded archive, or an uncompressed asset inside the APK.
+struct FileRange {
+  std::string path;
+  // When >= 0, read through this caller-owned descriptor instead of path.
+  int fd = -1;
+  int64_t offset = 0;
+  // -1: to the end of the file.
+  int64_t length = -1;
+
+  bool IsWholeFile() const { return fd < 0 && offset == 0 && length < 0; }
+};
+
 struct FileSourcePatchOptions {
   PatchManifest manifest;
   std::string source_root;
   std::string target_root;
   std::string origin_bundle_path;
+  // origin bundle / bundle patch 可以是更大文件中的一段(默认整文件):
+  // origin_bundle_fd >= 0 时经该描述符读取,不再打开 origin_bundle_path。
+  int origin_bundle_fd = -1;
+  int64_t origin_bundle_offset = 0;
+  int64_t origin_bundle_length = -1;
   std::string bundle_patch_path;
+  int64_t bundle_patch_offset = 0;
+  int64_t bundle_patch_length = -1;
   std::string bundle_output_path;
   std::string merge_source_subdir;
   bool enable_merge = true;
@@ -58,6 +78,14 @@ class BundlePatcher {
       const std::string& origin_bundle_path,
       const std::string& bundle_patch_path,
       const std::string& destination_bundle_path) const = 0;
+
+  // Apply for inputs that may be ranges of larger files. The default stages
+  // each partial range into a temporary file next to the destination and
+  // calls Apply; the hpatch implementation reads the ranges in place.
+  virtual Status ApplyRanges(
+      const FileRange& origin_bundle,
+      const FileRange& bundle_patch,
+      const std::string& destination_bundle_path) const;
 };
 
 const BundlePatcher& DefaultBundlePatcher();
@@ -68,6 +96,15 @@ Status ApplyPatchFromFileSource(
     const FileSourcePatchOptions& options,
     const BundlePatcher& bundle_patcher = DefaultBundlePatcher());
 
+// Shared asset store under the update root (SharedAssetStore.java): files
+// named by content (CRC32 and size) that version directories hard-link to.
+// A blob is referenced by as many version files as its link count minus
+// one. Hidden, so the version sweep below never takes it for a version.
+constexpr char kSharedAssetDirName[] = ".assets";
+
+// Removes every entry of root_dir but keep_current / keep_previous (and
+// hidden ones) not modified for max_age_days, then every blob of the
+// shared asset store no version links to any more.
 Status CleanupOldEntries(
     const std::string& root_dir,
     const std::string& keep_current,
@@ -1,60 +1,61 @@
 #include <jni.h>
 
 #include <string>
-#include <vector>
 
 #include "jni_util.h"
 #include "patch_core.h"
 
 namespace {
 
-using pushy::jni_util::JArrayToVector;
 using pushy::jni_util::JStringToString;
+using pushy::jni_util::ReadManifestBuffer;
 using pushy::jni_util::ThrowRuntimeException;
 
 }  // namespace
 
+// The origin bundle and the bundle patch are byte ranges of larger files:
+// origin_bundle_fd >= 0 reads the origin through that descriptor (an
+// AssetFileDescriptor held open by the caller), and a length of -1 runs to
+// the end of the file. Whole files are offset 0, length -1.
 extern "C" JNIEXPORT void JNICALL
-Java_cn_reactnative_modules_update_DownloadTask_applyPatchFromFileSource(
+Java_cn_reactnative_modules_update_DownloadTask_applyPatchFromFileRanges(
     JNIEnv* env,
     jclass,
     jstring source_root,
     jstring target_root,
     jstring origin_bundle_path,
+    jint origin_bundle_fd,
+    jlong origin_bundle_offset,
+    jlong origin_bundle_length,
     jstring bundle_patch_path,
+    jlong bundle_patch_offset,
+    jlong bundle_patch_length,
     jstring bundle_output_path,
     jstring merge_source_subdir,
     jboolean enable_merge,
-    jobjectArray copy_froms,
-    jobjectArray copy_tos,
-    jobjectArray deletes,
+    jobject manifest_buffer,
     jstring hbc_transform_meta) {
-  const std::vector<std::string> from_values = JArrayToVector(env, copy_froms);
-  const std::vector<std::string> to_values = JArrayToVector(env, copy_tos);
-
-  if (from_values.size() != to_values.size()) {
-    ThrowRuntimeException(env, "copy_froms and copy_tos length mismatch");
+  pushy::patch::FileSourcePatchOptions options;
+  const pushy::patch::Status manifest_status =
+      ReadManifestBuffer(env, manifest_buffer, &options.manifest);
+  if (!manifest_status.ok) {
+    ThrowRuntimeException(env, manifest_status.message);
     return;
   }
-
-  pushy::patch::FileSourcePatchOptions options;
   options.source_root = JStringToString(env, source_root);
   options.target_root = JStringToString(env, target_root);
   options.origin_bundle_path = JStringToString(env, origin_bundle_path);
+  options.origin_bundle_fd = static_cast<int>(origin_bundle_fd);
+  options.origin_bundle_offset = static_cast<int64_t>(origin_bundle_offset);
+  options.origin_bundle_length = static_cast<int64_t>(origin_bundle_length);
   options.bundle_patch_path = JStringToString(env, bundle_patch_path);
+  options.bundle_patch_offset = static_cast<int64_t>(bundle_patch_offset);
+  options.bundle_patch_length = static_cast<int64_t>(bundle_patch_length);
   options.bundle_output_path = JStringToString(env, bundle_output_path);
   options.merge_source_subdir = JStringToString(env, merge_source_subdir);
   options.enable_merge = enable_merge == JNI_TRUE;
   options.bundle_hbc_transform_meta = JStringToString(env, hbc_transform_meta);
 
-  for (size_t index = 0; index < from_values.size(); ++index) {
-    options.manifest.copies.push_back(pushy::patch::CopyOperation{
-        from_values[index],
-        to_values[index],
-    });
-  }
-  options.manifest.deletes = JArrayToVector(env, deletes);
-
   const pushy::patch::Status status =
       pushy::patch::ApplyPatchFromFileSource(options);
   if (!status.ok) {
@@ -1,11 +1,15 @@
 #include "../archive_patch_core.h"
 #include "../digest.h"
+#include "../manifest_wire.h"
 #include "../patch_core.h"
 #include "../state_core.h"
 
+#include <chrono>
+#include <cstdint>
 #include <cstdio>
 #include <cstdlib>
 #include <cstring>
+#include <fcntl.h>
 #include <fstream>
 #include <sstream>
 #include <stdexcept>
@@ -22,6 +26,7 @@ using pushy::patch::ApplyPatchFromFileSource;
 using pushy::patch::BundlePatcher;
 using pushy::patch::CleanupOldEntries;
 using pushy::patch::CopyOperation;
+using pushy::patch::FileRange;
 using pushy::patch::FileSourcePatchOptions;
 using pushy::patch::PatchManifest;
 using pushy::patch::Status;
@@ -55,6 +60,102 @@ class FakeBundlePatcher final : public BundlePatcher {
   }
 };
 
+// Records what Apply was handed, so tests can check the staged inputs of
+// the default ApplyRanges.
+class RecordingBundlePatcher final : public BundlePatcher {
+ public:
+  mutable std::string origin;
+  mutable std::string patch;
+  mutable std::string origin_path;
+
+  Status Apply(
+      const std::string& origin_bundle_path,
+      const std::string& bundle_patch_path,
+      const std::string& destination_bundle_path) const override {
+    origin = ReadFileForPatcher(origin_bundle_path);
+    patch = ReadFileForPatcher(bundle_patch_path);
+    origin_path = origin_bundle_path;
+    std::ofstream out(destination_bundle_path, std::ios::binary);
+    out << "patched";
+    return out.good() ? Status::Ok() : Status::Error("Failed to write fake bundle");
+  }
+
+ private:
+  static std::string ReadFileForPatcher(const std::string& path) {
+    std::ifstream in(path, std::ios::binary);
+    std::ostringstream stream;
+    stream << in.rdbuf();
+    return stream.str();
+  }
+};
+
+// Waits (bounded) for a file to appear before writing the bundle, so a test
+// can tell whether the copy plan ran while the bundle was being patched.
+class WaitingBundlePatcher final : public BundlePatcher {
+ public:
+  std::string awaited_path;
+  mutable bool saw_awaited = false;
+  bool fail = false;
+
+  Status Apply(
+      const std::string&,
+      const std::string&,
+      const std::string& destination_bundle_path) const override {
+    for (int attempt = 0; attempt < 500 && !saw_awaited; ++attempt) {
+      struct stat st;
+      saw_awaited = stat(awaited_path.c_str(), &st) == 0;
+      if (!saw_awaited) {
+        usleep(10 * 1000);
+      }
+    }
+    if (fail) {
+      return Status::Error("Waiting patcher failed");
+    }
+    std::ofstream out(destination_bundle_path, std::ios::binary);
+    out << "patched";
+    return out.good() ? Status::Ok() : Status::Error("Failed to write fake bundle");
+  }
+};
+
+// Copies origin to the output in small chunks: a stand-in for hpatch with
+// an identity patch that adds no memory of its own to the measurement.
+class StreamingCopyBundlePatcher final : public BundlePatcher {
+ public:
+  Status Apply(
+      const std::string& origin_bundle_path,
+      const std::string&,
+      const std::string& destination_bundle_path) const override {
+    std::ifstream in(origin_bundle_path, std::ios::binary);
+    std::ofstream out(destination_bundle_path, std::ios::binary);
+    char buffer[16 * 1024];
+    while (in.read(buffer, sizeof(buffer)) || in.gcount() > 0) {
+      out.write(buffer, in.gcount());
+    }
+    return out.good() ? Status::Ok() : Status::Error("Failed to copy bundle");
+  }
+};
+
+// Peak resident set size of this process in KB since the last call, or
+// -1 where /proc does not allow resetting it.
+long ResetAndReadPeakRssKb(bool reset) {
+  if (reset) {
+    std::ofstream clear("/proc/self/clear_refs");
+    clear << "5";
+    clear.flush();
+    if (!clear.good()) {
+      return -1;
+    }
+  }
+  std::ifstream status("/proc/self/status");
+  std::string line;
+  while (std::getline(status, line)) {
+    if (line.compare(0, 6, "VmHWM:") == 0) {
+      return std::strtol(line.c_str() + 6, nullptr, 10);
+    }
+  }
+  return -1;
+}
+
 struct TempDir {
   std::string path;
 
@@ -179,6 +280,55 @@ void TestApplyPatchWithHbcTransform() {
       "hbc transform temp files must be removed");
 }
 
+// Peak RSS of the transform pipeline on a Hermes-sized bundle: the v96
+// fixture padded past its debug info to 24 MB (the transform only rewrites
+// the tables before it). Reported, and checked to stay well below the
+// bundle size, so T(origin) and T⁻¹(output) never hold a whole copy.
+void TestApplyPatchWithHbcTransformPeakRss() {
+  TempDir temp;
+  std::string bundle = ReadFile(JoinPath(g_fixtures_dir, "v96.hbc"));
+  const std::string meta = ReadFile(JoinPath(g_fixtures_dir, "v96.meta.json"));
+  Expect(!bundle.empty() && !meta.empty(), "hbc fixtures must exist");
+  const size_t size = 24 * 1024 * 1024;
+  bundle.resize(size, '\x5a');
+  for (int i = 0; i < 4; ++i) {
+    bundle[32 + i] = static_cast<char>((size >> (8 * i)) & 0xff);  // fileLength
+  }
+  const std::string origin = JoinPath(temp.path, "origin.hbc");
+  WriteFile(origin, bundle);
+  WriteFile(JoinPath(temp.path, "identity.patch"), "identity");
+
+  FileSourcePatchOptions options;
+  options.source_root = JoinPath(temp.path, "src");
+  options.target_root = JoinPath(temp.path, "dst");
+  options.origin_bundle_path = origin;
+  options.bundle_patch_path = JoinPath(temp.path, "identity.patch");
+  options.bundle_output_path = JoinPath(temp.path, "out/index.bundlejs");
+  options.enable_merge = false;
+  options.bundle_hbc_transform_meta = meta;
+
+  StreamingCopyBundlePatcher patcher;
+  const long before_kb = ResetAndReadPeakRssKb(true);
+  Status status = ApplyPatchFromFileSource(options, patcher);
+  const long peak_kb = ResetAndReadPeakRssKb(false);
+  Expect(status.ok, "identity hbc transform patch should succeed: " + status.message);
+  Expect(
+      ReadFile(options.bundle_output_path) == bundle,
+      "T⁻¹(T(origin)) must restore the bundle byte-for-byte");
+  if (before_kb < 0 || peak_kb < 0) {
+    std::fprintf(stdout, "  peak RSS: unavailable (no /proc/self/clear_refs)\n");
+    return;
+  }
+  std::fprintf(
+      stdout,
+      "  peak RSS during hbc transform patch of a %zu KB bundle: +%ld KB\n",
+      size / 1024,
+      peak_kb - before_kb);
+  Expect(
+      static_cast<size_t>(peak_kb - before_kb) < size / 1024 / 4,
+      "transform pipeline must not hold a copy of the bundle");
+}
+
 void TestApplyPatchWithHbcTransformRejectsBadMeta() {
   TempDir temp;
   FileSourcePatchOptions options;
@@ -278,6 +428,111 @@ void TestApplySingleFormatRawStoredWithLzma2Label() {
       "raw-stored single-format restored bundle must equal new bundle");
 }
 
+// Patch inputs given as byte ranges (a STORED .ppk entry, an APK asset
+// descriptor): a patcher without range support is handed exactly those
+// bytes through staged files, which are removed afterwards.
+void TestApplyPatchStagesBundleRanges() {
+  TempDir temp;
+  const std::string container = JoinPath(temp.path, "container.bin");
+  const std::string archive = JoinPath(temp.path, "archive.ppk");
+  WriteFile(container, "HEADERold bundleTRAILER");
+  WriteFile(archive, "PKlocal-headerpatch bytesPKcentral");
+
+  const int fd = open(container.c_str(), O_RDONLY);
+  Expect(fd >= 0, "container must open");
+  RecordingBundlePatcher patcher;
+  FileSourcePatchOptions options;
+  options.source_root = JoinPath(temp.path, "src");
+  options.target_root = JoinPath(temp.path, "dst");
+  options.origin_bundle_path = "unused when fd is set";
+  options.origin_bundle_fd = fd;
+  options.origin_bundle_offset = 6;
+  options.origin_bundle_length = 10;
+  options.bundle_patch_path = archive;
+  options.bundle_patch_offset = 14;
+  options.bundle_patch_length = -1;
+  options.bundle_output_path = JoinPath(temp.path, "out/index.bundlejs");
+  options.enable_merge = false;
+
+  Status status = ApplyPatchFromFileSource(options, patcher);
+  close(fd);
+  Expect(status.ok, status.message);
+  ExpectEq(patcher.origin, "old bundle", "origin range");
+  ExpectEq(patcher.patch, "patch bytesPKcentral", "patch range runs to end of file");
+  Expect(
+      !Exists(options.bundle_output_path + ".range-origin") &&
+          !Exists(options.bundle_output_path + ".range-patch"),
+      "staged ranges must be removed");
+
+  // Whole files are passed through untouched.
+  FileRange whole;
+  whole.path = container;
+  Expect(whole.IsWholeFile(), "default range is the whole file");
+  status = patcher.ApplyRanges(whole, whole, options.bundle_output_path);
+  Expect(status.ok, status.message);
+  ExpectEq(patcher.origin_path, container, "whole file is not staged");
+
+  options.bundle_patch_offset = 100;
+  Expect(
+      !ApplyPatchFromFileSource(options, patcher).ok,
+      "range past the end of the file must fail");
+}
+
+// Real hpatch reading the origin and the patch in place from inside larger
+// files, as it does for a STORED patch entry and an uncompressed APK asset.
+void TestApplyStreamFormatBundlePatchFromRanges() {
+  TempDir temp;
+  const std::string origin = ReadFile(JoinPath(g_fixtures_dir, "v96.hbc"));
+  const std::string patch = ReadFile(JoinPath(g_fixtures_dir, "v96.streampatch.bin"));
+  Expect(!origin.empty() && !patch.empty(), "stream fixtures must exist");
+  const std::string apk = JoinPath(temp.path, "base.apk");
+  const std::string archive = JoinPath(temp.path, "update.ppk");
+  WriteFile(apk, std::string(4096, 'a') + origin + std::string(512, 'z'));
+  WriteFile(archive, std::string(77, 'p') + patch + std::string(33, 'c'));
+
+  const int fd = open(apk.c_str(), O_RDONLY);
+  Expect(fd >= 0, "apk must open");
+  FileSourcePatchOptions options;
+  options.source_root = JoinPath(temp.path, "src");
+  options.target_root = JoinPath(temp.path, "dst");
+  options.origin_bundle_fd = fd;
+  options.origin_bundle_offset = 4096;
+  options.origin_bundle_length = static_cast<int64_t>(origin.size());
+  options.bundle_patch_path = archive;
+  options.bundle_patch_offset = 77;
+  options.bundle_patch_length = static_cast<int64_t>(patch.size());
+  options.bundle_output_path = JoinPath(temp.path, "out/index.bundlejs");
+  options.enable_merge = false;
+
+  Status status = ApplyPatchFromFileSource(options);
+  close(fd);
+  Expect(status.ok, "ranged stream-format patch should apply: " + status.message);
+  Expect(
+      ReadFile(options.bundle_output_path) ==
+          ReadFile(JoinPath(g_fixtures_dir, "v96b.hbc")),
+      "ranged restored bundle must equal new bundle");
+
+  // Ranges that run to the end of their files (length -1), the origin
+  // read through its path rather than a descriptor.
+  const std::string tail_apk = JoinPath(temp.path, "tail.apk");
+  const std::string tail_archive = JoinPath(temp.path, "tail.ppk");
+  WriteFile(tail_apk, std::string(4099, 'a') + origin);
+  WriteFile(tail_archive, std::string(77, 'p') + patch);
+  options.origin_bundle_fd = -1;
+  options.origin_bundle_path = tail_apk;
+  options.origin_bundle_offset = 4099;
+  options.origin_bundle_length = -1;
+  options.bundle_patch_path = tail_archive;
+  options.bundle_patch_offset = 77;
+  options.bundle_patch_length = -1;
+  status = ApplyPatchFromFileSource(options);
+  Expect(status.ok, "ranges to end of file should apply: " + status.message);
+  Expect(
+      ReadFile(options.bundle_output_path) ==
+          ReadFile(JoinPath(g_fixtures_dir, "v96b.hbc")),
+      "bundle restored from ranges to end of file must equal new bundle");
+}
+
 void TestApplyPatchFromFileSourceMergesAndCopies() {
   TempDir temp;
   const std::string source = JoinPath(temp.path, "origin");
@@ -389,6 +644,9 @@ void TestApplyPatchMergeFallsBackToByteCopy() {
   Expect(merged_stat.st_ino != source_stat.st_ino, "fallback should produce an independent copy");
   Expect(merged_stat.st_nlink == 1, "fallback copy should have a single name");
   ExpectEq(ReadFile(JoinPath(target, "assets/keep.txt")), "keep", "fallback content mismatch");
+  Expect(
+      !Exists(JoinPath(target, "assets/keep.txt.pushy-partial")),
+      "byte copy should be renamed into place");
 }
 
 void TestApplyPatchFromFileSourceCanLimitMergeSubdir() {
@@ -477,6 +735,41 @@ void TestCleanupOldEntriesRemovesOnlyExpiredPaths() {
   Expect(Exists(JoinPath(root, ".hidden")), "hidden entry should be kept");
 }
 
+void TestCleanupOldEntriesCollectsUnreferencedAssets() {
+  TempDir temp;
+  const std::string root = JoinPath(temp.path, "cleanup");
+  const std::string store = JoinPath(root, pushy::patch::kSharedAssetDirName);
+  EnsureDirectory(store);
+
+  WriteFile(JoinPath(store, "a-1"), "a");
+  WriteFile(JoinPath(store, "b-1"), "b");
+  WriteFile(JoinPath(store, "c-1"), "c");
+  EnsureDirectory(JoinPath(root, "current"));
+  EnsureDirectory(JoinPath(root, "stale"));
+  Expect(link(JoinPath(store, "a-1").c_str(), JoinPath(root, "stale/a.png").c_str()) == 0,
+         "link stale asset");
+  Expect(link(JoinPath(store, "b-1").c_str(), JoinPath(root, "current/b.png").c_str()) == 0,
+         "link current asset");
+
+  const std::time_t now = std::time(nullptr);
+  SetMtime(JoinPath(root, "stale"), now - (9 * 24 * 60 * 60));
+
+  // Unreferenced blobs survive the grace period: an install may be about
+  // to link them.
+  Status status = CleanupOldEntries(root, "current", "previous", 7, now);
+  Expect(status.ok, status.message);
+  Expect(!Exists(JoinPath(root, "stale")), "stale version should be removed");
+  Expect(Exists(JoinPath(store, "a-1")), "just unreferenced asset should be kept");
+  Expect(Exists(JoinPath(store, "c-1")), "recent asset should be kept");
+
+  status = CleanupOldEntries(root, "current", "previous", 7, now + 2 * 60 * 60);
+  Expect(status.ok, status.message);
+  Expect(!Exists(JoinPath(store, "a-1")), "unreferenced asset should be removed");
+  Expect(!Exists(JoinPath(store, "c-1")), "never referenced asset should be removed");
+  Expect(Exists(JoinPath(store, "b-1")), "referenced asset should be kept");
+  Expect(ReadFile(JoinPath(root, "current/b.png")) == "b", "linked version file intact");
+}
+
 void TestStateCoreSyncBinaryVersionResetsUpdates() {
   State state;
   state.package_version = "1.0.0";
@@ -610,6 +903,155 @@ void TestArchivePatchCoreBuildPlanAndCopyGroups() {
   ExpectEq(options.merge_source_subdir, "", "file patch merge subdir mismatch");
 }
 
+PatchManifest MakeLargeManifest(size_t copies) {
+  PatchManifest manifest;
+  for (size_t index = 0; index < copies; ++index) {
+    manifest.copies.push_back(CopyOperation{
+        "assets/drawable-xxhdpi/icon_" + std::to_string(index % (copies / 4 + 1)) + ".png",
+        "assets/drawable-xxhdpi/copy_" + std::to_string(index) + ".png",
+    });
+  }
+  for (size_t index = 0; index < copies / 10; ++index) {
+    manifest.deletes.push_back("assets/old/" + std::to_string(index) + ".png");
+  }
+  return manifest;
+}
+
+void TestManifestWireRoundTrip() {
+  PatchManifest manifest;
+  manifest.copies.push_back(CopyOperation{"assets/a.png", "assets/x.png"});
+  manifest.copies.push_back(CopyOperation{"assets/资源.png", "assets/y.png"});
+  manifest.deletes.push_back("assets/old/");
+
+  std::string wire;
+  pushy::patch::EncodeManifest(manifest, &wire);
+  PatchManifest decoded;
+  Status status = pushy::patch::DecodeManifest(
+      reinterpret_cast<const uint8_t*>(wire.data()), wire.size(), &decoded);
+  Expect(status.ok, status.message);
+  Expect(decoded.copies.size() == 2, "decoded copy count mismatch");
+  ExpectEq(decoded.copies[1].from, "assets/资源.png", "decoded copy source mismatch");
+  ExpectEq(decoded.copies[1].to, "assets/y.png", "decoded copy target mismatch");
+  Expect(decoded.deletes.size() == 1, "decoded delete count mismatch");
+  ExpectEq(decoded.deletes[0], "assets/old/", "decoded delete mismatch");
+
+  PatchManifest empty;
+  pushy::patch::EncodeManifest(PatchManifest(), &wire);
+  status = pushy::patch::DecodeManifest(
+      reinterpret_cast<const uint8_t*>(wire.data()), wire.size(), &empty);
+  Expect(status.ok && empty.copies.empty() && empty.deletes.empty(),
+         "empty manifest should round-trip");
+}
+
+void TestManifestWireRejectsMalformedInput() {
+  PatchManifest manifest;
+  manifest.copies.push_back(CopyOperation{"assets/a.png", "assets/x.png"});
+  std::string wire;
+  pushy::patch::EncodeManifest(manifest, &wire);
+  const uint8_t* data = reinterpret_cast<const uint8_t*>(wire.data());
+
+  PatchManifest decoded;
+  for (size_t size = 0; size < wire.size(); ++size) {
+    Expect(!pushy::patch::DecodeManifest(data, size, &decoded).ok,
+           "truncated manifest should be rejected at " + std::to_string(size));
+  }
+
+  std::string trailing = wire + "x";
+  Expect(!pushy::patch::DecodeManifest(
+              reinterpret_cast<const uint8_t*>(trailing.data()), trailing.size(), &decoded)
+              .ok,
+         "trailing bytes should be rejected");
+
+  std::string bad_magic = wire;
+  bad_magic[0] = 'X';
+  Expect(!pushy::patch::DecodeManifest(
+              reinterpret_cast<const uint8_t*>(bad_magic.data()), bad_magic.size(), &decoded)
+              .ok,
+         "bad magic should be rejected");
+
+  // A huge count must fail on the buffer size, not allocate first.
+  std::string huge_count = wire;
+  huge_count[4] = huge_count[5] = huge_count[6] = huge_count[7] = '\xff';
+  Expect(!pushy::patch::DecodeManifest(
+              reinterpret_cast<const uint8_t*>(huge_count.data()), huge_count.size(), &decoded)
+              .ok,
+         "oversized copy count should be rejected");
+}
+
+void TestBuildCopyGroupIndices() {
+  PatchManifest manifest;
+  manifest.copies.push_back(CopyOperation{"assets/a.png", "assets/x.png"});
+  manifest.copies.push_back(CopyOperation{"assets/b.png", "assets/y.png"});
+  manifest.copies.push_back(CopyOperation{"assets/a.png", "assets/z.png"});
+
+  std::vector<int32_t> layout;
+  Status status = pushy::archive_patch::BuildCopyGroupIndices(manifest, &layout);
+  Expect(status.ok, status.message);
+  const std::vector<int32_t> expected = {2, 0, 2, 1, 1};
+  Expect(layout == expected, "copy group layout mismatch");
+
+  manifest.copies.push_back(CopyOperation{"../escape", "assets/w.png"});
+  Expect(!pushy::archive_patch::BuildCopyGroupIndices(manifest, &layout).ok,
+         "unsafe copy source should be rejected");
+}
+
+// The three planning/apply entry points on a 20k-copy manifest: assembling
+// the manifest from per-field string arrays on every call (what the JNI
+// String[] marshalling did, before its per-string JNI transitions, which
+// only a device run can measure) against decoding one shared wire buffer.
+void TestManifestWireLargeManifestBenchmark() {
+  const PatchManifest source = MakeLargeManifest(20000);
+  std::vector<std::string> froms;
+  std::vector<std::string> tos;
+  for (const CopyOperation& copy : source.copies) {
+    froms.push_back(copy.from);
+    tos.push_back(copy.to);
+  }
+  std::string wire;
+  pushy::patch::EncodeManifest(source, &wire);
+
+  using Clock = std::chrono::steady_clock;
+  const Clock::time_point arrays_start = Clock::now();
+  size_t arrays_copies = 0;
+  for (int call = 0; call < 3; ++call) {
+    const std::vector<std::string> from_values = froms;
+    const std::vector<std::string> to_values = tos;
+    PatchManifest manifest;
+    for (size_t index = 0; index < from_values.size(); ++index) {
+      manifest.copies.push_back(CopyOperation{from_values[index], to_values[index]});
+    }
+    manifest.deletes = source.deletes;
+    arrays_copies += manifest.copies.size();
+  }
+  const Clock::time_point wire_start = Clock::now();
+  size_t wire_copies = 0;
+  for (int call = 0; call < 3; ++call) {
+    PatchManifest manifest;
+    Status status = pushy::patch::DecodeManifest(
+        reinterpret_cast<const uint8_t*>(wire.data()), wire.size(), &manifest);
+    Expect(status.ok, status.message);
+    wire_copies += manifest.copies.size();
+  }
+  const Clock::time_point wire_end = Clock::now();
+  Expect(arrays_copies == wire_copies, "benchmark paths should decode the same copies");
+
+  std::vector<int32_t> layout;
+  Status status = pushy::archive_patch::BuildCopyGroupIndices(source, &layout);
+  Expect(status.ok, status.message);
+  Expect(layout.size() == source.copies.size() + 5001, "large copy group layout size mismatch");
+
+  std::fprintf(
+      stdout,
+      "  20k copies x3 calls: string arrays %lld us, wire %lld us (%zu wire bytes)\n",
+      static_cast<long long>(std::chrono::duration_cast<std::chrono::microseconds>(
+                                 wire_start - arrays_start)
+                                 .count()),
+      static_cast<long long>(
+          std::chrono::duration_cast<std::chrono::microseconds>(wire_end - wire_start)
+              .count()),
+      wire.size());
+}
+
 void TestArchivePatchCoreRejectsMissingEntries() {
   PatchManifest manifest;
   Status status = pushy::archive_patch::BuildArchivePatchPlan(
@@ -910,6 +1352,129 @@ void TestApplyPatchCopiesVerifyExpectedCrc() {
       "drifted content must not be copied");
 }
 
+void TestApplyPatchRunsCopiesAlongsideBundlePatch() {
+  TempDir temp;
+  const std::string source = JoinPath(temp.path, "origin");
+  const std::string patch = JoinPath(temp.path, "bundle.patch");
+  const size_t kCopies = 300;
+
+  WriteFile(JoinPath(source, "index.bundlejs"), "old bundle");
+  for (size_t index = 0; index < kCopies; ++index) {
+    WriteFile(
+        JoinPath(source, "assets/src_" + std::to_string(index) + ".txt"),
+        std::to_string(index));
+  }
+  WriteFile(patch, "unused patch");
+
+  FileSourcePatchOptions options;
+  options.source_root = source;
+  options.origin_bundle_path = JoinPath(source, "index.bundlejs");
+  options.bundle_patch_path = patch;
+  options.enable_merge = false;
+  for (size_t index = 0; index < kCopies; ++index) {
+    options.manifest.copies.push_back(CopyOperation{
+        "assets/src_" + std::to_string(index) + ".txt",
+        "assets/dir_" + std::to_string(index % 7) + "/copy_" + std::to_string(index) + ".txt"});
+  }
+  // Two copies to one target: the later one still wins.
+  options.manifest.copies.push_back(CopyOperation{"assets/src_1.txt", "assets/dup.txt"});
+  options.manifest.copies.push_back(CopyOperation{"assets/src_2.txt", "assets/dup.txt"});
+
+  for (bool disable_hard_links : {false, true}) {
+    const std::string target =
+        JoinPath(temp.path, disable_hard_links ? "target_bytes" : "target_links");
+    options.target_root = target;
+    options.bundle_output_path = JoinPath(target, "index.bundlejs");
+
+    WaitingBundlePatcher patcher;
+    patcher.awaited_path = JoinPath(
+        target,
+        "assets/dir_" + std::to_string((kCopies - 1) % 7) + "/copy_" +
+            std::to_string(kCopies - 1) + ".txt");
+    pushy::patch::internal::g_disable_hard_links = disable_hard_links;
+    Status status = ApplyPatchFromFileSource(options, patcher);
+    pushy::patch::internal::g_disable_hard_links = false;
+    Expect(status.ok, status.message);
+    Expect(patcher.saw_awaited, "copies should run while the bundle is patched");
+
+    ExpectEq(ReadFile(JoinPath(target, "index.bundlejs")), "patched", "bundle output mismatch");
+    for (size_t index = 0; index < kCopies; ++index) {
+      ExpectEq(
+          ReadFile(JoinPath(
+              target,
+              "assets/dir_" + std::to_string(index % 7) + "/copy_" + std::to_string(index) +
+                  ".txt")),
+          std::to_string(index),
+          "parallel copy content mismatch");
+      Expect(
+          !Exists(JoinPath(
+              target,
+              "assets/dir_" + std::to_string(index % 7) + "/copy_" + std::to_string(index) +
+                  ".txt.pushy-partial")),
+          "parallel byte copies must not leave partial files");
+    }
+    ExpectEq(ReadFile(JoinPath(target, "assets/dup.txt")), "2", "last copy to a target should win");
+
+    struct stat source_stat;
+    struct stat copied_stat;
+    Expect(stat(JoinPath(source, "assets/src_0.txt").c_str(), &source_stat) == 0, "stat source");
+    Expect(
+        stat(JoinPath(target, "assets/dir_0/copy_0.txt").c_str(), &copied_stat) == 0,
+        "stat copy");
+    Expect(
+        (copied_stat.st_ino == source_stat.st_ino) != disable_hard_links,
+        "parallel copies should hard-link unless links are disabled");
+  }
+}
+
+void TestApplyPatchReportsFirstCopyFailure() {
+  TempDir temp;
+  const std::string source = JoinPath(temp.path, "origin");
+  const std::string target = JoinPath(temp.path, "target");
+  const std::string patch = JoinPath(temp.path, "bundle.patch");
+  const size_t kCopies = 300;
+
+  WriteFile(JoinPath(source, "index.bundlejs"), "old bundle");
+  for (size_t index = 0; index < kCopies; ++index) {
+    WriteFile(JoinPath(source, "assets/src_" + std::to_string(index) + ".txt"), "content");
+  }
+  WriteFile(patch, "unused patch");
+
+  FileSourcePatchOptions options;
+  options.source_root = source;
+  options.target_root = target;
+  options.origin_bundle_path = JoinPath(source, "index.bundlejs");
+  options.bundle_patch_path = patch;
+  options.bundle_output_path = JoinPath(target, "index.bundlejs");
+  options.enable_merge = false;
+  for (size_t index = 0; index < kCopies; ++index) {
+    CopyOperation copy{
+        "assets/src_" + std::to_string(index) + ".txt",
+        "assets/copy_" + std::to_string(index) + ".txt"};
+    if (index == 100) {
+      copy.has_expected_crc = true;
+      copy.expected_crc = 0;
+    } else if (index == 200) {
+      copy.from = "assets/missing.txt";
+    }
+    options.manifest.copies.push_back(copy);
+  }
+
+  WaitingBundlePatcher patcher;
+  Status status = ApplyPatchFromFileSource(options, patcher);
+  Expect(!status.ok, "a failed copy must fail the patch");
+  Expect(
+      status.message.find("crc32") != std::string::npos,
+      "the earliest failing copy should be reported: " + status.message);
+
+  // A failed bundle patch is reported over the copies.
+  patcher.fail = true;
+  options.target_root = JoinPath(temp.path, "target2");
+  options.bundle_output_path = JoinPath(options.target_root, "index.bundlejs");
+  status = ApplyPatchFromFileSource(options, patcher);
+  ExpectEq(status.message, "Waiting patcher failed", "bundle failure should be reported");
+}
+
 }  // namespace
 
 int main(int argc, char** argv) {
@@ -921,7 +1486,10 @@ int main(int argc, char** argv) {
       {"ApplyStreamFormatWithHbcTransform", TestApplyStreamFormatWithHbcTransform},
       {"ApplySingleFormatRawStoredWithLzma2Label",
        TestApplySingleFormatRawStoredWithLzma2Label},
+      {"ApplyStreamFormatBundlePatchFromRanges", TestApplyStreamFormatBundlePatchFromRanges},
+      {"ApplyPatchStagesBundleRanges", TestApplyPatchStagesBundleRanges},
       {"ApplyPatchWithHbcTransform", TestApplyPatchWithHbcTransform},
+      {"ApplyPatchWithHbcTransformPeakRss", TestApplyPatchWithHbcTransformPeakRss},
       {"ApplyPatchWithHbcTransformRejectsBadMeta", TestApplyPatchWithHbcTransformRejectsBadMeta},
       {"ApplyPatchFromFileSourceMergesAndCopies", TestApplyPatchFromFileSourceMergesAndCopies},
       {"ApplyPatchMergeHardLinksUnchangedFiles", TestApplyPatchMergeHardLinksUnchangedFiles},
@@ -929,12 +1497,18 @@ int main(int argc, char** argv) {
       {"ApplyPatchFromFileSourceCanLimitMergeSubdir", TestApplyPatchFromFileSourceCanLimitMergeSubdir},
       {"ApplyPatchFromFileSourceRejectsUnsafePaths", TestApplyPatchFromFileSourceRejectsUnsafePaths},
       {"CleanupOldEntriesRemovesOnlyExpiredPaths", TestCleanupOldEntriesRemovesOnlyExpiredPaths},
+      {"CleanupOldEntriesCollectsUnreferencedAssets",
+       TestCleanupOldEntriesCollectsUnreferencedAssets},
       {"StateCoreSyncBinaryVersionResetsUpdates", TestStateCoreSyncBinaryVersionResetsUpdates},
       {"StateCoreSwitchVersionAndMarkSuccess", TestStateCoreSwitchVersionAndMarkSuccess},
       {"StateCoreResolveLaunchStateAndRollback", TestStateCoreResolveLaunchStateAndRollback},
       {"StateCoreCanClearMarkers", TestStateCoreCanClearMarkers},
       {"ArchivePatchCoreBuildPlanAndCopyGroups", TestArchivePatchCoreBuildPlanAndCopyGroups},
       {"ArchivePatchCoreRejectsMissingEntries", TestArchivePatchCoreRejectsMissingEntries},
+      {"ManifestWireRoundTrip", TestManifestWireRoundTrip},
+      {"ManifestWireRejectsMalformedInput", TestManifestWireRejectsMalformedInput},
+      {"BuildCopyGroupIndices", TestBuildCopyGroupIndices},
+      {"ManifestWireLargeManifestBenchmark", TestManifestWireLargeManifestBenchmark},
       {"TryParseArchivePatchType", TestTryParseArchivePatchType},
       {"ArchivePatchCoreSupportsCustomBundlePatchEntry", TestArchivePatchCoreSupportsCustomBundlePatchEntry},
       {"ArchivePatchCoreHarmonyBundlePatchFromPackage", TestArchivePatchCoreHarmonyBundlePatchFromPackage},
@@ -947,6 +1521,8 @@ int main(int argc, char** argv) {
       {"Crc32KnownVectors", TestCrc32KnownVectors},
       {"Crc32File", TestCrc32File},
       {"ApplyPatchCopiesVerifyExpectedCrc", TestApplyPatchCopiesVerifyExpectedCrc},
+      {"ApplyPatchRunsCopiesAlongsideBundlePatch", TestApplyPatchRunsCopiesAlongsideBundlePatch},
+      {"ApplyPatchReportsFirstCopyFailure", TestApplyPatchReportsFirstCopyFailure},
   };
 
   int failures = 0;
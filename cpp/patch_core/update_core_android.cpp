@@ -13,6 +13,7 @@ namespace {
 
 using pushy::jni_util::JArrayToVector;
 using pushy::jni_util::JStringToString;
+using pushy::jni_util::ReadManifestBuffer;
 using pushy::jni_util::ThrowRuntimeException;
 using pushy::state_ops::StateOperation;
 
@@ -210,44 +211,6 @@ jobject NewArchivePatchPlanResult(
   return result;
 }
 
-jobject NewCopyGroupResult(
-    JNIEnv* env,
-    jclass result_class,
-    jclass string_class,
-    const pushy::archive_patch::CopyGroup& group) {
-  jmethodID constructor = env->GetMethodID(result_class, "<init>", "()V");
-  if (constructor == nullptr) {
-    return nullptr;
-  }
-
-  jobject result = env->NewObject(result_class, constructor);
-  if (result == nullptr) {
-    return nullptr;
-  }
-
-  SetStringField(env, result, result_class, "from", group.from);
-  jfieldID to_paths_field =
-      env->GetFieldID(result_class, "toPaths", "[Ljava/lang/String;");
-  if (to_paths_field != nullptr) {
-    jobjectArray to_paths = env->NewObjectArray(
-        static_cast<jsize>(group.to_paths.size()), string_class, nullptr);
-    if (to_paths != nullptr) {
-      for (jsize index = 0; index < static_cast<jsize>(group.to_paths.size());
-           ++index) {
-        jstring value = env->NewStringUTF(group.to_paths[index].c_str());
-        env->SetObjectArrayElement(to_paths, index, value);
-        env->DeleteLocalRef(value);
-      }
-      env->SetObjectField(result, to_paths_field, to_paths);
-      env->DeleteLocalRef(to_paths);
-    }
-  } else {
-    env->ExceptionClear();
-  }
-
-  return result;
-}
-
 bool ToArchivePatchType(
     jint patch_type,
     pushy::archive_patch::ArchivePatchType* out) {
@@ -257,19 +220,6 @@ bool ToArchivePatchType(
       static_cast<int>(patch_type), out);
 }
 
-pushy::patch::PatchManifest BuildManifest(
-    const std::vector<std::string>& copy_froms,
-    const std::vector<std::string>& copy_tos,
-    const std::vector<std::string>& deletes) {
-  pushy::patch::PatchManifest manifest;
-  for (size_t index = 0; index < copy_froms.size(); ++index) {
-    manifest.copies.push_back(
-        pushy::patch::CopyOperation{copy_froms[index], copy_tos[index]});
-  }
-  manifest.deletes = deletes;
-  return manifest;
-}
-
 jobject MakeStateResult(
     JNIEnv* env,
     const pushy::state::State& state,
@@ -290,6 +240,24 @@ jobject MakeStateResult(
 
 }  // namespace
 
+// JNI ABI revision of librnupdate.so. A native method whose signature
+// changes keeps its symbol name, so a stale library would still bind and be
+// called with the wrong arguments: bump this, NativeUpdateCore.JNI_ABI_VERSION
+// and the rnupdate_jni_abi_<n> marker below (required by
+// scripts/verify-android-so.js) together with any such change.
+// 1: buildArchivePatchPlan(int, String[], ByteBuffer),
+//    buildCopyGroups(ByteBuffer) -> int[], applyPatchFromFileRanges.
+constexpr jint kJniAbiVersion = 1;
+
+extern "C" JNIEXPORT void rnupdate_jni_abi_1() {}
+
+extern "C" JNIEXPORT jint JNICALL
+Java_cn_reactnative_modules_update_NativeUpdateCore_getJniAbiVersion(
+    JNIEnv*,
+    jclass) {
+  return kJniAbiVersion;
+}
+
 // 客户端可消费的 diff 轨道版本(能力上报,而非 SDK 版本映射);JS 层经
 // getConstants 暴露,随 checkUpdate 以 diffV 上报,服务端据此下发 v2 轨道。
 extern "C" JNIEXPORT jint JNICALL
@@ -372,18 +340,15 @@ Java_cn_reactnative_modules_update_DownloadTask_buildArchivePatchPlan(
     jclass,
     jint patch_type,
     jobjectArray entry_names,
-    jobjectArray copy_froms,
-    jobjectArray copy_tos,
-    jobjectArray deletes) {
-  const std::vector<std::string> from_values = JArrayToVector(env, copy_froms);
-  const std::vector<std::string> to_values = JArrayToVector(env, copy_tos);
-  if (from_values.size() != to_values.size()) {
-    ThrowRuntimeException(env, "copy_froms and copy_tos length mismatch");
+    jobject manifest_buffer) {
+  pushy::patch::PatchManifest manifest;
+  pushy::patch::Status manifest_status =
+      ReadManifestBuffer(env, manifest_buffer, &manifest);
+  if (!manifest_status.ok) {
+    ThrowRuntimeException(env, manifest_status.message);
     return nullptr;
   }
 
-  pushy::patch::PatchManifest manifest =
-      BuildManifest(from_values, to_values, JArrayToVector(env, deletes));
   pushy::archive_patch::ArchivePatchType archive_type;
   if (!ToArchivePatchType(patch_type, &archive_type)) {
     ThrowRuntimeException(env, "Unknown archive patch type");
@@ -403,51 +368,36 @@ Java_cn_reactnative_modules_update_DownloadTask_buildArchivePatchPlan(
   return NewArchivePatchPlanResult(env, plan);
 }
 
-extern "C" JNIEXPORT jobjectArray JNICALL
+// Groups come back as indices into the caller's copy arrays (see
+// BuildCopyGroupIndices): Java already holds every path.
+extern "C" JNIEXPORT jintArray JNICALL
 Java_cn_reactnative_modules_update_DownloadTask_buildCopyGroups(
     JNIEnv* env,
     jclass,
-    jobjectArray copy_froms,
-    jobjectArray copy_tos) {
-  const std::vector<std::string> from_values = JArrayToVector(env, copy_froms);
-  const std::vector<std::string> to_values = JArrayToVector(env, copy_tos);
-  if (from_values.size() != to_values.size()) {
-    ThrowRuntimeException(env, "copy_froms and copy_tos length mismatch");
-    return nullptr;
-  }
-
-  pushy::patch::PatchManifest manifest = BuildManifest(
-      from_values, to_values, std::vector<std::string>());
-  std::vector<pushy::archive_patch::CopyGroup> groups;
+    jobject manifest_buffer) {
+  pushy::patch::PatchManifest manifest;
   pushy::patch::Status status =
-      pushy::archive_patch::BuildCopyGroups(manifest, &groups);
+      ReadManifestBuffer(env, manifest_buffer, &manifest);
   if (!status.ok) {
     ThrowRuntimeException(env, status.message);
     return nullptr;
   }
 
-  jclass result_class =
-      env->FindClass("cn/reactnative/modules/update/CopyGroupResult");
-  if (result_class == nullptr) {
-    return nullptr;
-  }
-
-  jclass string_class = env->FindClass("java/lang/String");
-  if (string_class == nullptr) {
+  std::vector<int32_t> layout;
+  status = pushy::archive_patch::BuildCopyGroupIndices(manifest, &layout);
+  if (!status.ok) {
+    ThrowRuntimeException(env, status.message);
     return nullptr;
   }
 
-  jobjectArray result = env->NewObjectArray(
-      static_cast<jsize>(groups.size()), result_class, nullptr);
+  jintArray result = env->NewIntArray(static_cast<jsize>(layout.size()));
   if (result == nullptr) {
     return nullptr;
   }
-
-  for (jsize index = 0; index < static_cast<jsize>(groups.size()); ++index) {
-    jobject group = NewCopyGroupResult(env, result_class, string_class, groups[index]);
-    env->SetObjectArrayElement(result, index, group);
-    env->DeleteLocalRef(group);
-  }
-  env->DeleteLocalRef(string_class);
+  env->SetIntArrayRegion(
+      result,
+      0,
+      static_cast<jsize>(layout.size()),
+      reinterpret_cast<const jint*>(layout.data()));
   return result;
 }
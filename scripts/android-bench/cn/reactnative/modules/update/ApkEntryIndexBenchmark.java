@@ -0,0 +1,221 @@
+package cn.reactnative.modules.update;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * ApkEntryIndex against BaselineApkEntryIndex (the HashMap and regex index
+ * it replaced) over a synthetic APK of 20k entries under AAB paths ("base/"
+ * module directory, "-v<api>" qualifiers): building the index from the
+ * central directory, building and persisting it, loading the persisted
+ * index, and resolving 20k APK-baseline paths the way the resource copier
+ * does after an exact-name miss (normalized path, then CRC). Steady-state
+ * times; allocation through com.sun.management.ThreadMXBean where the JVM
+ * has it.
+ */
+public final class ApkEntryIndexBenchmark {
+    private static final int ENTRY_COUNT = 20000;
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int ROUNDS = 10;
+    private static final String KEY = "1.0|1";
+    private static final String[] DENSITIES = {"mdpi", "hdpi", "xhdpi", "xxhdpi", "xxxhdpi"};
+
+    private interface Run {
+        Object run() throws IOException;
+    }
+
+    private static final class Result {
+        final double millis;
+        final long allocated;
+
+        Result(double millis, long allocated) {
+            this.millis = millis;
+            this.allocated = allocated;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%6.1f ms / %5.1f MB", millis,
+                allocated >= 0 ? allocated / (1024.0 * 1024.0) : Double.NaN);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        File work = File.createTempFile("apk-index-bench", "");
+        if (!work.delete() || !work.mkdirs()) {
+            throw new IOException("Failed to create " + work);
+        }
+        try {
+            run(work);
+        } finally {
+            UpdateFileUtils.removeDirectory(work);
+        }
+    }
+
+    private static void run(File work) throws IOException {
+        File apk = new File(work, "base.apk");
+        final long[] crcs = writeApk(apk);
+        final String[] apkPaths = {apk.getPath()};
+        final String[] baselinePaths = new String[ENTRY_COUNT];
+        for (int i = 0; i < ENTRY_COUNT; i++) {
+            baselinePaths[i] = baselinePath(i);
+        }
+        final File baselineCache = new File(work, "apk-index-v1");
+        final File cache = new File(work, "apk-index");
+
+        System.out.printf("%-24s %-22s    %s%n", "", "baseline (HashMap)", "ApkEntryIndex");
+        compare("build index", new Run() {
+            @Override
+            public Object run() throws IOException {
+                // An empty key is never persisted.
+                return BaselineApkEntryIndex.open(baselineCache, "", apkPaths);
+            }
+        }, new Run() {
+            @Override
+            public Object run() throws IOException {
+                return ApkEntryIndex.open(cache, "", apkPaths);
+            }
+        });
+        compare("build + persist", new Run() {
+            @Override
+            public Object run() throws IOException {
+                baselineCache.delete();
+                return BaselineApkEntryIndex.open(baselineCache, KEY, apkPaths);
+            }
+        }, new Run() {
+            @Override
+            public Object run() throws IOException {
+                cache.delete();
+                return ApkEntryIndex.open(cache, KEY, apkPaths);
+            }
+        });
+        compare("load persisted", new Run() {
+            @Override
+            public Object run() throws IOException {
+                return BaselineApkEntryIndex.open(baselineCache, KEY, apkPaths);
+            }
+        }, new Run() {
+            @Override
+            public Object run() throws IOException {
+                return ApkEntryIndex.open(cache, KEY, apkPaths);
+            }
+        });
+        // Fresh loads each round: the first lookup of a loaded index is
+        // what decodes a matched name.
+        compare("load + 20k lookups", new Run() {
+            @Override
+            public Object run() throws IOException {
+                BaselineApkEntryIndex index =
+                    BaselineApkEntryIndex.open(baselineCache, KEY, apkPaths);
+                int found = 0;
+                for (int i = 0; i < ENTRY_COUNT; i++) {
+                    if (index.findNormalized(BaselineApkEntryIndex.normalize(baselinePaths[i])) >= 0
+                        && index.findCrc(crcs[i]) >= 0) {
+                        found++;
+                    }
+                }
+                return expectAll(found);
+            }
+        }, new Run() {
+            @Override
+            public Object run() throws IOException {
+                ApkEntryIndex index = ApkEntryIndex.open(cache, KEY, apkPaths);
+                int found = 0;
+                for (int i = 0; i < ENTRY_COUNT; i++) {
+                    if (index.findNormalized(baselinePaths[i]) >= 0
+                        && index.findCrc(crcs[i]) >= 0) {
+                        found++;
+                    }
+                }
+                return expectAll(found);
+            }
+        });
+    }
+
+    private static Object expectAll(int found) {
+        if (found != ENTRY_COUNT) {
+            throw new IllegalStateException("resolved " + found + " of " + ENTRY_COUNT);
+        }
+        return found;
+    }
+
+    // Where an AAB install keeps entry i.
+    private static String installedPath(int i) {
+        return "base/res/drawable-" + DENSITIES[i % DENSITIES.length] + "-v4/image_" + i + ".png";
+    }
+
+    // Where the APK the patch was diffed against kept it.
+    private static String baselinePath(int i) {
+        return "res/drawable-" + DENSITIES[i % DENSITIES.length] + "/image_" + i + ".png";
+    }
+
+    private static long[] writeApk(File apk) throws IOException {
+        long[] crcs = new long[ENTRY_COUNT];
+        CRC32 crc = new CRC32();
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(apk))) {
+            for (int i = 0; i < ENTRY_COUNT; i++) {
+                byte[] content = ("image " + i).getBytes(StandardCharsets.UTF_8);
+                crc.reset();
+                crc.update(content, 0, content.length);
+                crcs[i] = crc.getValue();
+                ZipEntry entry = new ZipEntry(installedPath(i));
+                // Resources are mostly stored in an APK.
+                if (i % 4 != 0) {
+                    entry.setMethod(ZipEntry.STORED);
+                    entry.setSize(content.length);
+                    entry.setCompressedSize(content.length);
+                    entry.setCrc(crcs[i]);
+                }
+                out.putNextEntry(entry);
+                out.write(content);
+                out.closeEntry();
+            }
+        }
+        return crcs;
+    }
+
+    private static void compare(String name, Run baseline, Run current) throws IOException {
+        Result before = measure(baseline);
+        Result after = measure(current);
+        System.out.printf("%-24s %s -> %s%n", name, before, after);
+    }
+
+    private static Result measure(Run run) throws IOException {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            run.run();
+        }
+        long best = Long.MAX_VALUE;
+        long allocated = -1;
+        for (int i = 0; i < ROUNDS; i++) {
+            long allocatedBefore = allocatedBytes();
+            long start = System.nanoTime();
+            Object result = run.run();
+            best = Math.min(best, System.nanoTime() - start);
+            long allocatedAfter = allocatedBytes();
+            if (result == null) {
+                throw new IllegalStateException("benchmark returned nothing");
+            }
+            if (allocatedBefore >= 0 && allocatedAfter >= 0) {
+                allocated = allocated < 0
+                    ? allocatedAfter - allocatedBefore
+                    : Math.min(allocated, allocatedAfter - allocatedBefore);
+            }
+        }
+        return new Result(best / 1e6, allocated);
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        return ((com.sun.management.ThreadMXBean) threads)
+            .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
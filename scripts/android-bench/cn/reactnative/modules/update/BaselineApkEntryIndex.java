@@ -0,0 +1,235 @@
+package cn.reactnative.modules.update;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.regex.Pattern;
+
+/**
+ * ApkEntryIndex as it was before the open-addressing tables (index format
+ * v1), kept as the benchmark's baseline: HashMaps with boxed keys and
+ * values, a regex for the "-vNN/" qualifiers, and names and normalized
+ * names decoded up front on load. Extraction is left out; the benchmark
+ * does not measure it.
+ */
+final class BaselineApkEntryIndex {
+    private static final Pattern VERSION_QUALIFIER_PATTERN = Pattern.compile("-v\\d+(?=/)");
+    private static final String AAB_BASE_PREFIX = "base/";
+
+    private static final int MAGIC = 0x50414958; // "PAIX"
+    private static final int FORMAT_VERSION = 1;
+
+    final String[] apkPaths;
+    final int count;
+    final String[] names;
+    final String[] normalizedNames;
+    final long[] crcs;
+    final long[] headerOffsets;
+    final long[] compressedSizes;
+    final long[] sizes;
+    final int[] methods;
+    final int[] sources;
+
+    private final HashMap<String, Integer> byName;
+    private final HashMap<String, Integer> byNormalized;
+    private final HashMap<Long, Integer> byCrc;
+
+    private BaselineApkEntryIndex(String[] apkPaths, int count) {
+        this.apkPaths = apkPaths;
+        this.count = count;
+        names = new String[count];
+        normalizedNames = new String[count];
+        crcs = new long[count];
+        headerOffsets = new long[count];
+        compressedSizes = new long[count];
+        sizes = new long[count];
+        methods = new int[count];
+        sources = new int[count];
+        byName = new HashMap<String, Integer>(count * 2);
+        byNormalized = new HashMap<String, Integer>(count * 2);
+        byCrc = new HashMap<Long, Integer>(count * 2);
+    }
+
+    static BaselineApkEntryIndex open(File cacheFile, String key, String[] apkPaths)
+        throws IOException {
+        BaselineApkEntryIndex index = null;
+        if (!key.isEmpty() && cacheFile.exists()) {
+            index = read(cacheFile, key, apkPaths);
+        }
+        if (index == null) {
+            index = build(apkPaths);
+            if (!key.isEmpty()) {
+                index.write(cacheFile, key);
+            }
+        }
+        return index;
+    }
+
+    static String normalize(String path) {
+        String result = path;
+        if (result.startsWith(AAB_BASE_PREFIX)) {
+            result = result.substring(AAB_BASE_PREFIX.length());
+        }
+        return VERSION_QUALIFIER_PATTERN.matcher(result).replaceAll("");
+    }
+
+    int find(String name) {
+        Integer entry = byName.get(name);
+        return entry != null ? entry : -1;
+    }
+
+    // Takes the normalized path: the copier normalized before looking up.
+    int findNormalized(String normalized) {
+        Integer entry = byNormalized.get(normalized);
+        return entry != null ? entry : -1;
+    }
+
+    int findCrc(long crc) {
+        Integer entry = byCrc.get(crc);
+        return entry != null ? entry : -1;
+    }
+
+    private void link() {
+        for (int i = 0; i < count; i++) {
+            if (!byName.containsKey(names[i])) {
+                byName.put(names[i], i);
+                if (!byNormalized.containsKey(normalizedNames[i])) {
+                    byNormalized.put(normalizedNames[i], i);
+                }
+            }
+            if (crcs[i] != -1L && !byCrc.containsKey(crcs[i])) {
+                byCrc.put(crcs[i], i);
+            }
+        }
+    }
+
+    private static BaselineApkEntryIndex build(String[] apkPaths) throws IOException {
+        SafeZipFile.CentralDirectory[] directories = new SafeZipFile.CentralDirectory[apkPaths.length];
+        int count = 0;
+        for (int source = 0; source < apkPaths.length; source++) {
+            File apk = new File(apkPaths[source]);
+            directories[source] = SafeZipFile.readCentralDirectory(apk);
+            if (directories[source] == null) {
+                directories[source] = SafeZipFile.listEntries(apk);
+            }
+            count += directories[source].count;
+        }
+
+        BaselineApkEntryIndex index = new BaselineApkEntryIndex(apkPaths, count);
+        int i = 0;
+        for (int source = 0; source < apkPaths.length; source++) {
+            SafeZipFile.CentralDirectory directory = directories[source];
+            for (int d = 0; d < directory.count; d++, i++) {
+                SafeZipFile.checkEntryName(directory.names[d]);
+                boolean addressable = (directory.flags[d] & 1) == 0
+                    && directory.headerOffsets[d] != 0xffffffffL
+                    && directory.compressedSizes[d] != 0xffffffffL
+                    && directory.sizes[d] != 0xffffffffL;
+                index.sources[i] = source;
+                index.names[i] = directory.names[d];
+                index.normalizedNames[i] = normalize(directory.names[d]);
+                index.crcs[i] = directory.crcs[d];
+                index.headerOffsets[i] = addressable ? directory.headerOffsets[d] : -1;
+                index.compressedSizes[i] = directory.compressedSizes[d];
+                index.sizes[i] = directory.sizes[d];
+                index.methods[i] = directory.methods[d];
+            }
+        }
+        index.link();
+        return index;
+    }
+
+    private void write(File cacheFile, String key) throws IOException {
+        File temp = new File(cacheFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(new FileOutputStream(temp), 64 * 1024))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            writeString(out, key);
+            out.writeInt(apkPaths.length);
+            for (String apkPath : apkPaths) {
+                File apk = new File(apkPath);
+                writeString(out, apkPath);
+                out.writeLong(apk.length());
+                out.writeLong(apk.lastModified());
+            }
+            out.writeInt(count);
+            for (int i = 0; i < count; i++) {
+                out.writeInt(sources[i]);
+                out.writeInt(methods[i]);
+                out.writeLong(crcs[i]);
+                out.writeLong(headerOffsets[i]);
+                out.writeLong(compressedSizes[i]);
+                out.writeLong(sizes[i]);
+                writeString(out, names[i]);
+                writeString(out, normalizedNames[i]);
+            }
+        }
+        if (!temp.renameTo(cacheFile)) {
+            throw new IOException("Failed to rename " + temp + " to " + cacheFile);
+        }
+    }
+
+    private static BaselineApkEntryIndex read(File cacheFile, String key, String[] apkPaths)
+        throws IOException {
+        MappedByteBuffer in;
+        try (RandomAccessFile file = new RandomAccessFile(cacheFile, "r")) {
+            in = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+        }
+        if (in.getInt() != MAGIC || in.getInt() != FORMAT_VERSION || !key.equals(readString(in))) {
+            return null;
+        }
+        if (in.getInt() != apkPaths.length) {
+            return null;
+        }
+        for (String apkPath : apkPaths) {
+            File apk = new File(apkPath);
+            if (!apkPath.equals(readString(in))
+                || in.getLong() != apk.length()
+                || in.getLong() != apk.lastModified()) {
+                return null;
+            }
+        }
+        int count = in.getInt();
+        if (count < 0) {
+            return null;
+        }
+        BaselineApkEntryIndex index = new BaselineApkEntryIndex(apkPaths, count);
+        for (int i = 0; i < count; i++) {
+            index.sources[i] = in.getInt();
+            index.methods[i] = in.getInt();
+            index.crcs[i] = in.getLong();
+            index.headerOffsets[i] = in.getLong();
+            index.compressedSizes[i] = in.getLong();
+            index.sizes[i] = in.getLong();
+            index.names[i] = readString(in);
+            index.normalizedNames[i] = readString(in);
+        }
+        index.link();
+        return index;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0 || length > in.remaining()) {
+            throw new IllegalStateException("Corrupt APK entry index");
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,125 @@
+package cn.reactnative.modules.update;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+
+/**
+ * The digest of a downloaded archive, three ways, all with MessageDigest:
+ * fed the transfer's 4 KB chunks (an uninterrupted transfer), re-reading
+ * the first half from the file and fed the rest in chunks (a transfer
+ * resumed halfway), and re-reading the finished file
+ * (verifyArchiveDigest's fallback).
+ */
+public final class Sha256Benchmark {
+    private static final int ARCHIVE_BYTES = 32 * 1024 * 1024;
+    // DownloadTask.DOWNLOAD_CHUNK_SIZE.
+    private static final int CHUNK_SIZE = 4096;
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int ROUNDS = 5;
+
+    private interface Run {
+        String digest() throws IOException;
+    }
+
+    public static void main(String[] args) throws Exception {
+        final byte[] data = new byte[ARCHIVE_BYTES];
+        new Random(42).nextBytes(data);
+        final File archive = File.createTempFile("sha256-bench", ".ppk");
+        archive.deleteOnExit();
+        try (OutputStream out = new FileOutputStream(archive)) {
+            out.write(data);
+        }
+
+        String inline = measure("inline 4 KB chunks", new Run() {
+            @Override
+            public String digest() throws IOException {
+                MessageDigest digest = newSha256();
+                feed(digest, data, 0);
+                return toHex(digest.digest());
+            }
+        });
+        String resumed = measure("resumed at 50%: re-read + inline", new Run() {
+            @Override
+            public String digest() throws IOException {
+                MessageDigest digest = newSha256();
+                readPrefix(archive, ARCHIVE_BYTES / 2, digest);
+                feed(digest, data, ARCHIVE_BYTES / 2);
+                return toHex(digest.digest());
+            }
+        });
+        String reread = measure("re-reading the file", new Run() {
+            @Override
+            public String digest() throws IOException {
+                MessageDigest digest = newSha256();
+                readPrefix(archive, ARCHIVE_BYTES, digest);
+                return toHex(digest.digest());
+            }
+        });
+        if (!inline.equals(resumed) || !resumed.equals(reread)) {
+            throw new IllegalStateException("digests differ: " + inline
+                + " " + resumed + " " + reread);
+        }
+    }
+
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] raw) {
+        StringBuilder hex = new StringBuilder(raw.length * 2);
+        for (byte b : raw) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+            hex.append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    private static void readPrefix(File file, long length, MessageDigest digest)
+        throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] chunk = new byte[64 * 1024];
+            while (length > 0) {
+                int n = in.read(chunk, 0, (int) Math.min(chunk.length, length));
+                if (n < 0) {
+                    throw new IOException("file shorter than " + length);
+                }
+                digest.update(chunk, 0, n);
+                length -= n;
+            }
+        }
+    }
+
+    private static void feed(MessageDigest digest, byte[] data, int from) {
+        for (int offset = from; offset < data.length; offset += CHUNK_SIZE) {
+            digest.update(data, offset, Math.min(CHUNK_SIZE, data.length - offset));
+        }
+    }
+
+    private static String measure(String name, Run run) throws IOException {
+        String result = null;
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            result = run.digest();
+        }
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            long start = System.nanoTime();
+            result = run.digest();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        double ms = best / 1e6;
+        System.out.printf("%-38s %8.1f ms  %7.1f MB/s%n",
+            name, ms, ARCHIVE_BYTES / (1024.0 * 1024.0) / (best / 1e9));
+        return result;
+    }
+}
@@ -0,0 +1,109 @@
+package cn.reactnative.modules.update;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * SharedAssetStore links only blobs whose bytes still match their name: a
+ * good blob is shared, a blob damaged on disk (same size, so only the CRC
+ * tells) is dropped instead of being linked into the next install, and the
+ * next extraction takes its place.
+ */
+public final class SharedAssetStoreTest {
+    private static final byte[] CONTENT =
+        "shared asset bytes, the same in every version".getBytes(StandardCharsets.UTF_8);
+
+    public static void main(String[] args) throws Exception {
+        File work = File.createTempFile("shared-asset-test", "");
+        if (!work.delete() || !work.mkdirs()) {
+            throw new IOException("Failed to create " + work);
+        }
+        try {
+            linksMatchingBlob(new File(work, "match"));
+            dropsCorruptedBlob(new File(work, "corrupt"));
+            dropsTruncatedBlob(new File(work, "truncated"));
+            System.out.println("ok");
+        } finally {
+            UpdateFileUtils.removeDirectory(work);
+        }
+    }
+
+    private static void linksMatchingBlob(File root) throws IOException {
+        SharedAssetStore store = new SharedAssetStore(root);
+        File first = install(store, root, "v1");
+        File second = new File(root, "v2/assets/icon.png");
+        check(store.linkTo(crc(CONTENT), CONTENT.length, second), "matching blob not linked");
+        check(Files.isSameFile(first.toPath(), second.toPath()), "link is not the blob");
+    }
+
+    private static void dropsCorruptedBlob(File root) throws IOException {
+        SharedAssetStore store = new SharedAssetStore(root);
+        File first = install(store, root, "v1");
+        // Flip one byte in place: size unchanged, CRC no longer matches.
+        try (RandomAccessFile file = new RandomAccessFile(first, "rw")) {
+            file.seek(3);
+            file.write(CONTENT[3] ^ 0xff);
+        }
+        File blob = blob(root);
+
+        File second = new File(root, "v2/assets/icon.png");
+        check(!store.linkTo(crc(CONTENT), CONTENT.length, second), "corrupted blob linked");
+        check(!second.exists(), "target created for a corrupted blob");
+        check(!blob.exists(), "corrupted blob kept");
+
+        // The caller's extraction becomes the new blob.
+        File third = install(store, root, "v3");
+        File fourth = new File(root, "v4/assets/icon.png");
+        check(store.linkTo(crc(CONTENT), CONTENT.length, fourth), "re-added blob not linked");
+        check(Files.isSameFile(third.toPath(), fourth.toPath()), "link is not the new blob");
+        check(Arrays.equals(CONTENT, Files.readAllBytes(fourth.toPath())), "linked bytes differ");
+    }
+
+    private static void dropsTruncatedBlob(File root) throws IOException {
+        SharedAssetStore store = new SharedAssetStore(root);
+        File first = install(store, root, "v1");
+        try (RandomAccessFile file = new RandomAccessFile(first, "rw")) {
+            file.setLength(CONTENT.length - 1);
+        }
+        File second = new File(root, "v2/assets/icon.png");
+        check(!store.linkTo(crc(CONTENT), CONTENT.length, second), "truncated blob linked");
+        check(!blob(root).exists(), "truncated blob kept");
+    }
+
+    // What BundledResourceCopier does on a miss: extract, then add.
+    private static File install(SharedAssetStore store, File root, String version)
+        throws IOException {
+        File target = new File(root, version + "/assets/icon.png");
+        UpdateFileUtils.ensureParentDirectory(target);
+        try (OutputStream out = new FileOutputStream(target)) {
+            out.write(CONTENT);
+        }
+        store.add(crc(CONTENT), CONTENT.length, target);
+        check(blob(root).isFile(), "blob not added");
+        return target;
+    }
+
+    private static File blob(File root) {
+        return new File(new File(root, SharedAssetStore.DIRECTORY_NAME),
+            Long.toHexString(crc(CONTENT)) + "-" + CONTENT.length);
+    }
+
+    private static long crc(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        return crc.getValue();
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
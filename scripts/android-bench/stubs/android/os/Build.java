@@ -0,0 +1,21 @@
+package android.os;
+
+// Host stand-in for the benchmarks: a current device.
+public final class Build {
+    private Build() {
+    }
+
+    public static final class VERSION {
+        public static final int SDK_INT = 34;
+
+        private VERSION() {
+        }
+    }
+
+    public static final class VERSION_CODES {
+        public static final int O = 26;
+
+        private VERSION_CODES() {
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package android.system;
+
+// Host stand-in for the benchmarks.
+public final class ErrnoException extends Exception {
+    public ErrnoException(String functionName, int errno) {
+        super(functionName + " failed: errno " + errno);
+    }
+}
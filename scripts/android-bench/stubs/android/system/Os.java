@@ -0,0 +1,27 @@
+package android.system;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+// Host stand-in for the benchmarks and tests: real hard links through
+// java.nio.
+public final class Os {
+    // <errno.h> values the module's callers tell apart.
+    private static final int EIO = 5;
+    private static final int EEXIST = 17;
+
+    private Os() {
+    }
+
+    public static void link(String oldPath, String newPath) throws ErrnoException {
+        try {
+            Files.createLink(Paths.get(newPath), Paths.get(oldPath));
+        } catch (FileAlreadyExistsException e) {
+            throw new ErrnoException("link", EEXIST);
+        } catch (IOException | UnsupportedOperationException e) {
+            throw new ErrnoException("link", EIO);
+        }
+    }
+}
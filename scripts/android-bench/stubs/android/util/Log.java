@@ -0,0 +1,32 @@
+package android.util;
+
+// Host stand-in for the benchmarks: prints warnings and errors.
+public final class Log {
+    private Log() {
+    }
+
+    public static int d(String tag, String msg) {
+        return 0;
+    }
+
+    public static int i(String tag, String msg) {
+        return 0;
+    }
+
+    public static int w(String tag, String msg) {
+        System.err.println(tag + ": " + msg);
+        return 0;
+    }
+
+    public static int w(String tag, String msg, Throwable tr) {
+        return w(tag, msg + ": " + tr);
+    }
+
+    public static int e(String tag, String msg) {
+        return w(tag, msg);
+    }
+
+    public static int e(String tag, String msg, Throwable tr) {
+        return w(tag, msg, tr);
+    }
+}
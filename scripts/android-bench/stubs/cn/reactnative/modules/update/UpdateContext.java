@@ -0,0 +1,11 @@
+package cn.reactnative.modules.update;
+
+// Host stand-in for the benchmarks: only the logging constants, instead of
+// the React Native dependencies of the real class.
+final class UpdateContext {
+    static final String TAG = "react-native-update";
+    static final boolean DEBUG = false;
+
+    private UpdateContext() {
+    }
+}
@@ -0,0 +1,6 @@
+package okhttp3;
+
+// Host stand-in for the benchmarks: what DownloadCancellation uses.
+public interface Call {
+    void cancel();
+}
@@ -0,0 +1,37 @@
+#!/bin/sh
+set -eu
+
+# Intentional one-command CDPATH assignment.
+# shellcheck disable=SC1007
+ROOT_DIR="$(CDPATH= cd -- "$(dirname "$0")/.." && pwd)"
+BUILD_DIR="$ROOT_DIR/.tmp/android-java-bench"
+SRC_ROOT="$ROOT_DIR/android/src/main/java"
+BENCH_DIR="$ROOT_DIR/scripts/android-bench"
+
+# Host-JVM benchmarks of Android module classes. javac pulls in the module
+# classes a benchmark uses from the source tree; the stubs directory comes
+# first on the source path and stands in for the few platform classes (and
+# UpdateContext's logging constants) they touch. Numbers are for comparing
+# two implementations on one machine, not device timings.
+#
+#   ./scripts/bench-android-java.sh                          all benchmarks
+#   ./scripts/bench-android-java.sh ApkEntryIndexBenchmark
+rm -rf "$BUILD_DIR"
+mkdir -p "$BUILD_DIR"
+
+if [ "$#" -eq 0 ]; then
+  # shellcheck disable=SC2046
+  set -- $(cd "$BENCH_DIR/cn/reactnative/modules/update" && ls ./*Benchmark.java | sed 's|^\./||; s|\.java$||')
+fi
+for bench in "$@"; do
+  javac \
+    -encoding UTF-8 \
+    -nowarn \
+    -d "$BUILD_DIR" \
+    -sourcepath "$BENCH_DIR/stubs:$BENCH_DIR:$SRC_ROOT" \
+    "$BENCH_DIR/cn/reactnative/modules/update/$bench.java"
+done
+for bench in "$@"; do
+  echo "== $bench"
+  java -cp "$BUILD_DIR" "cn.reactnative.modules.update.$bench"
+done
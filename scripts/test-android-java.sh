@@ -0,0 +1,35 @@
+#!/bin/sh
+set -eu
+
+# Intentional one-command CDPATH assignment.
+# shellcheck disable=SC1007
+ROOT_DIR="$(CDPATH= cd -- "$(dirname "$0")/.." && pwd)"
+BUILD_DIR="$ROOT_DIR/.tmp/android-java-tests"
+SRC_ROOT="$ROOT_DIR/android/src/main/java"
+TEST_DIR="$ROOT_DIR/scripts/android-bench"
+
+# Host-JVM tests of Android module classes, on the same source path and
+# platform stubs as scripts/bench-android-java.sh. Each *Test class is a
+# main() that throws on the first failed check.
+#
+#   ./scripts/test-android-java.sh                           all tests
+#   ./scripts/test-android-java.sh SharedAssetStoreTest
+rm -rf "$BUILD_DIR"
+mkdir -p "$BUILD_DIR"
+
+if [ "$#" -eq 0 ]; then
+  # shellcheck disable=SC2046
+  set -- $(cd "$TEST_DIR/cn/reactnative/modules/update" && ls ./*Test.java | sed 's|^\./||; s|\.java$||')
+fi
+for test in "$@"; do
+  javac \
+    -encoding UTF-8 \
+    -nowarn \
+    -d "$BUILD_DIR" \
+    -sourcepath "$TEST_DIR/stubs:$TEST_DIR:$SRC_ROOT" \
+    "$TEST_DIR/cn/reactnative/modules/update/$test.java"
+done
+for test in "$@"; do
+  echo "== $test"
+  java -cp "$BUILD_DIR" "cn.reactnative.modules.update.$test"
+done
@@ -42,6 +42,7 @@ c++ \
   "$ROOT_DIR/cpp/patch_core/state_core.cpp" \
   "$ROOT_DIR/cpp/patch_core/hbc_transform.cpp" \
   "$ROOT_DIR/cpp/patch_core/hbc_transform_wire.cpp" \
+  "$ROOT_DIR/cpp/patch_core/manifest_wire.cpp" \
   "$BUILD_DIR/hpatch.o" \
   "$BUILD_DIR/patch.o" \
   "$BUILD_DIR/file_for_patch.o" \
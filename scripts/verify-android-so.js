@@ -30,7 +30,7 @@ const ABI_MACHINE = {
 // JNI entry points the Java `native` declarations bind to. Keep in sync with
 // the native methods in android/src/main/java/cn/reactnative/modules/update/.
 const REQUIRED_SYMBOLS = [
-  'Java_cn_reactnative_modules_update_DownloadTask_applyPatchFromFileSource',
+  'Java_cn_reactnative_modules_update_DownloadTask_applyPatchFromFileRanges',
   'Java_cn_reactnative_modules_update_DownloadTask_cleanupOldEntries',
   'Java_cn_reactnative_modules_update_DownloadTask_buildArchivePatchPlan',
   'Java_cn_reactnative_modules_update_DownloadTask_buildCopyGroups',
@@ -40,6 +40,13 @@ const REQUIRED_SYMBOLS = [
   'Java_cn_reactnative_modules_update_NativeUpdateFlow_buildCheckRequestBody',
   'Java_cn_reactnative_modules_update_NativeUpdateFlow_orderEndpointCandidates',
   'Java_cn_reactnative_modules_update_NativeUpdateFlow_handleCheckResponse',
+  'Java_cn_reactnative_modules_update_NativeUpdateCore_getJniAbiVersion',
+  // JNI symbol names do not change with a method's signature, so a library
+  // built before a signature change still exports all of the above. The
+  // marker names the JNI ABI revision (kJniAbiVersion in
+  // cpp/patch_core/update_core_android.cpp, NativeUpdateCore.JNI_ABI_VERSION)
+  // the library was built for.
+  'rnupdate_jni_abi_1',
 ];
 
 const SHT_DYNSYM = 11;
@@ -41,18 +41,28 @@ export interface Spec extends TurboModule {
    */
   getBundleHash(): Promise<string>;
   resetToPackagedBundle(): Promise<void>;
+  /**
+   * Android only. Cancels the queued or running download for hash (and any
+   * request deferred behind it); its promise rejects with DOWNLOAD_FAILED and
+   * the partial archive is kept for resume. Resolves whether anything was
+   * cancelled.
+   */
+  cancelDownload?(hash: string): Promise<boolean>;
   downloadPatchFromPpk(options: {
     updateUrl: string;
     hash: string;
     originHash: string;
+    sha256?: string;
   }): Promise<void>;
   downloadPatchFromPackage(options: {
     updateUrl: string;
     hash: string;
+    sha256?: string;
   }): Promise<void>;
   downloadFullUpdate(options: {
     updateUrl: string;
     hash: string;
+    sha256?: string;
   }): Promise<void>;
   downloadAndInstallApk(options: {
     url: string;
@@ -827,6 +827,22 @@ describe('downloadUpdate fallback chain', () => {
     expect(downloadPatchFromPpk).toHaveBeenCalledTimes(1);
   });
 
+  test('forwards the declared artifact digest to the native download', async () => {
+    const { downloadPatchFromPpk } = setupDownloadMocks();
+    const { Pushy, sharedState } = await importFreshClient('dl-digest');
+    sharedState.downloadedHash = undefined;
+    const client = new Pushy({ appKey: 'demo-app' });
+
+    await client.downloadUpdate({
+      ...updateInfo,
+      digests: { diff: 'ab'.repeat(32), full: 'cd'.repeat(32) },
+    });
+
+    expect(downloadPatchFromPpk).toHaveBeenCalledWith(
+      expect.objectContaining({ sha256: 'ab'.repeat(32) })
+    );
+  });
+
   test('reports a release response with no downloadable artifact', async () => {
     const {
       downloadPatchFromPpk,
@@ -1462,6 +1478,28 @@ describe('syncNativeConfig', () => {
     expect(config.appKey).toBe('demo-app');
   });
 
+  test('mirror hedging is only in the config when opted in', async () => {
+    const syncNativeConfig = mock(() => Promise.resolve());
+    setupClientMocks({ syncNativeConfig });
+    const { Pushy } = await importFreshClient('sync-config-hedge');
+    const client = new Pushy({ appKey: 'demo-app' });
+
+    let config = JSON.parse(
+      (syncNativeConfig.mock.calls.at(-1) as unknown as string[])[0]
+    );
+    expect(config.downloadHedgeDelayMs).toBeUndefined();
+
+    client.setOptions({ nativeDownloadHedgeDelayMs: 800 });
+    await Promise.resolve();
+    await Promise.resolve();
+    await Promise.resolve();
+
+    config = JSON.parse(
+      (syncNativeConfig.mock.calls.at(-1) as unknown as string[])[0]
+    );
+    expect(config.downloadHedgeDelayMs).toBe(800);
+  });
+
   test('alert strategies keep activation with JS (afterDownload none)', async () => {
     const syncNativeConfig = mock(() => Promise.resolve());
     setupClientMocks({ syncNativeConfig });
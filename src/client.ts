@@ -295,6 +295,7 @@ export class Pushy {
       updateStrategy,
       checkStrategy,
       disableNativeCheck,
+      nativeDownloadHedgeDelayMs,
     } = this.options;
     if (disableNativeCheck) {
       // Explicit opt-out: keep the identity fields so the persisted config
@@ -330,6 +331,10 @@ export class Pushy {
           : 'none',
       rnu: cInfo.rnu,
       rn: cInfo.rn,
+      // Omitted unless set, so existing persisted configs stay byte-equal.
+      ...(nativeDownloadHedgeDelayMs && nativeDownloadHedgeDelayMs > 0
+        ? { downloadHedgeDelayMs: nativeDownloadHedgeDelayMs }
+        : {}),
     };
   };
 
@@ -1144,18 +1149,27 @@ export class Pushy {
           updateUrl: url,
           hash,
           originHash: currentVersion,
+          ...digestOf('diff'),
         }),
       pdiff: (url) =>
         PushyModule.downloadPatchFromPackage({
           updateUrl: url,
           hash,
+          ...digestOf('pdiff'),
         }),
       full: (url) =>
         PushyModule.downloadFullUpdate({
           updateUrl: url,
           hash,
+          ...digestOf('full'),
         }),
     };
+    // Only sent when declared, so older native modules see the same
+    // options they always did.
+    const digestOf = (type: DownloadStrategyType) => {
+      const sha256 = updateInfo.digests?.[type];
+      return sha256 ? { sha256 } : {};
+    };
     const errorKeys = {
       diff: 'error_diff_failed',
       pdiff: 'error_pdiff_failed',
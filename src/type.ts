@@ -39,6 +39,14 @@ interface RootResult {
    * updates degraded to full downloads until the package is uploaded.
    */
   bundleStatus?: 'matched' | 'rebuiltSameJs' | 'unknownBundle';
+  /**
+   * Lowercase hex sha256 of each downloadable artifact, keyed like the
+   * artifact fields. Optional protocol extension (see
+   * NATIVE_CHECKUPDATE_DESIGN.md §10.8): absent means no verification.
+   * Android verifies the downloaded archive against it before unzipping;
+   * platforms that do not check it ignore it.
+   */
+  digests?: { full?: string; diff?: string; pdiff?: string };
 }
 
 export type UpToDateCheckResult = RootResult & {
@@ -201,6 +209,15 @@ export interface ClientOptions {
    * per-version forceBoot directive may.
    */
   disableNativeCheck?: boolean;
+  /**
+   * Opt-in mirror hedging for the native cold-start download (Android): when
+   * the current mirror of an artifact has not delivered its first bytes
+   * within this many milliseconds, the next mirror is started in parallel and
+   * the slower one is cancelled. Matters most inside the short crash-rescue
+   * budgets, where sequential fallback rarely reaches a second mirror.
+   * Default: off.
+   */
+  nativeDownloadHedgeDelayMs?: number;
 }
 
 export interface UpdateTestPayload {